@@ -0,0 +1,57 @@
+package benchmarks;
+
+import entities.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing books one at a time and in bulk, changing the stock and listing
+ * the whole catalog. Stored books stay, the catalog grows a little during
+ * a trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookBenchmarks {
+
+    /* books per storeBook(List) call */
+    private static final int BULK_SIZE = 100;
+
+    @Benchmark
+    public ApiResult storeBook(Fixture fixture) {
+        return Library.check(fixture.library.storeBook(fixture.newBook()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public ApiResult storeBooks(Fixture fixture) {
+        List<Book> books = new ArrayList<>(BULK_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            books.add(fixture.newBook());
+        }
+        return Library.check(fixture.library.storeBooks(books));
+    }
+
+    @Benchmark
+    public ApiResult incBookStock(Fixture fixture) {
+        return Library.check(fixture.library.incBookStock(fixture.randomBookId(), 1));
+    }
+
+    @Benchmark
+    public ApiResult showBooks(Fixture fixture) {
+        return Library.check(fixture.library.showBooks());
+    }
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import entities.Borrow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import queries.ApiResult;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * borrowBook and returnBook each measured alone, the other half of the
+ * loan runs in an untimed per-call setup. Every benchmark thread uses a
+ * card of its own, so threads never compete for the same loan.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowBenchmarks {
+
+    /* a card of the benchmark thread's own & its loan in progress */
+    public abstract static class Reader {
+
+        Fixture fixture;
+        int cardId;
+        /* loan of the next borrowBook, or the open loan returned by the next returnBook */
+        Borrow loan;
+        boolean open;
+
+        @Setup(Level.Trial)
+        public void setUp(Fixture fixture, ThreadParams thread) {
+            this.fixture = fixture;
+            cardId = fixture.cardIds[thread.getThreadIndex() % fixture.cardIds.length];
+        }
+
+        /* returns the loan left open, untimed */
+        void closeLoan() {
+            if (open) {
+                loan.setReturnTime(fixture.now());
+                Library.check(fixture.library.returnBook(loan));
+                open = false;
+            }
+        }
+
+        Borrow newLoan() {
+            Borrow borrow = new Borrow(fixture.randomBookId(), cardId);
+            borrow.setBorrowTime(fixture.now());
+            return borrow;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            closeLoan();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Borrowing extends Reader {
+
+        @Setup(Level.Invocation)
+        public void prepare() {
+            closeLoan();
+            loan = newLoan();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Returning extends Reader {
+
+        @Setup(Level.Invocation)
+        public void prepare() {
+            loan = newLoan();
+            Library.check(fixture.library.borrowBook(loan));
+            loan.setReturnTime(fixture.now());
+        }
+    }
+
+    @Benchmark
+    public ApiResult borrowBook(Borrowing reader) {
+        ApiResult result = Library.check(reader.fixture.library.borrowBook(reader.loan));
+        reader.open = true;
+        return result;
+    }
+
+    @Benchmark
+    public ApiResult returnBook(Returning reader) {
+        return Library.check(reader.fixture.library.returnBook(reader.loan));
+    }
+
+    @Benchmark
+    public ApiResult showBorrowHistory(Fixture fixture) {
+        return Library.check(fixture.library.showBorrowHistory(fixture.randomCardId()));
+    }
+}
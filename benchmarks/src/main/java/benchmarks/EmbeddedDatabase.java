@@ -0,0 +1,71 @@
+package benchmarks;
+
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfiguration;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import utils.ConnectConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A MariaDB server of its own for one benchmark run, started from the
+ * binaries bundled with MariaDB4j in a temporary directory on a free port.
+ */
+final class EmbeddedDatabase {
+
+    private static final String DB_NAME = "library";
+
+    private final DB db;
+    private final int port;
+
+    private EmbeddedDatabase(DB db, int port) {
+        this.db = db;
+        this.port = port;
+    }
+
+    static EmbeddedDatabase start() throws ManagedProcessException, SQLException {
+        DBConfigurationBuilder builder = DBConfigurationBuilder.newBuilder();
+        // 0: pick a free port
+        builder.setPort(0);
+        if ("root".equals(System.getProperty("user.name"))) {
+            // mysqld refuses to run as root unless told to
+            builder.addArg("--user=root");
+        }
+        DBConfiguration configuration = builder.build();
+        DB db = DB.newEmbeddedDB(configuration);
+        db.start();
+        createDatabase(configuration.getPort());
+        return new EmbeddedDatabase(db, configuration.getPort());
+    }
+
+    /* over JDBC rather than DB.createDB(), which needs the bundled mysql client and its old libncurses */
+    private static void createDatabase(int port) throws SQLException {
+        String url = "jdbc:mysql://localhost:" + port + "/";
+        try (Connection conn = DriverManager.getConnection(url, "root", "");
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE DATABASE IF NOT EXISTS `" + DB_NAME + "`");
+        }
+    }
+
+    /* settings of the library for this server, the rest keeps its defaults */
+    ConnectConfig config() throws ClassNotFoundException {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("host", "localhost");
+        settings.put("port", String.valueOf(port));
+        settings.put("user", "root");
+        settings.put("password", "");
+        settings.put("db", DB_NAME);
+        settings.put("type", "mysql");
+        return new ConnectConfig(settings);
+    }
+
+    void stop() throws ManagedProcessException {
+        db.stop();
+    }
+}
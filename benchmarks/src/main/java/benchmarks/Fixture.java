@@ -0,0 +1,115 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import utils.DatabaseConnector;
+import utils.RandomData;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Library on an embedded database filled with {@code books} random books
+ * (utils.RandomData) and {@link #CARDS} cards, each card with a history of
+ * {@link #LOANS_PER_CARD} returned loans. Built once per trial, so every
+ * dataset size runs against a fresh server.
+ */
+@State(Scope.Benchmark)
+public class Fixture {
+
+    static final int CARDS = 100;
+    static final int LOANS_PER_CARD = 20;
+    /* books stored per storeBook(List) call while filling the database */
+    private static final int CHUNK = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int books;
+
+    Library library;
+    int[] bookIds;
+    int[] cardIds;
+
+    private EmbeddedDatabase database;
+    private DatabaseConnector connector;
+    /* last time handed out by now() */
+    private final AtomicLong clock = new AtomicLong();
+    /* suffix that keeps the books of the store benchmarks unique */
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = EmbeddedDatabase.start();
+        connector = new DatabaseConnector(database.config());
+        if (!connector.connect()) {
+            throw new IllegalStateException("Failed to connect the embedded database");
+        }
+        library = new Library(connector);
+        Library.check(library.resetDatabase());
+        List<Book> generated = randomBooks(books);
+        for (int from = 0; from < generated.size(); from += CHUNK) {
+            Library.check(library.storeBooks(generated.subList(from, Math.min(generated.size(), from + CHUNK))));
+        }
+        bookIds = generated.stream().mapToInt(Book::getBookId).toArray();
+        cardIds = new int[CARDS];
+        for (int i = 0; i < CARDS; i++) {
+            Card card = new Card(0, String.format("Reader %03d", i), RandomData.randomDepartment(), Card.CardType.random());
+            Library.check(library.registerCard(card));
+            cardIds[i] = card.getCardId();
+        }
+        for (int cardId : cardIds) {
+            for (int i = 0; i < LOANS_PER_CARD; i++) {
+                Borrow borrow = new Borrow(randomBookId(), cardId);
+                borrow.setBorrowTime(now());
+                Library.check(library.borrowBook(borrow));
+                borrow.setReturnTime(now());
+                Library.check(library.returnBook(borrow));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connector.release();
+        database.stop();
+    }
+
+    int randomBookId() {
+        return bookIds[ThreadLocalRandom.current().nextInt(bookIds.length)];
+    }
+
+    int randomCardId() {
+        return cardIds[ThreadLocalRandom.current().nextInt(cardIds.length)];
+    }
+
+    /* strictly increasing timestamps, loans of a card & book never share a borrow time */
+    long now() {
+        return clock.accumulateAndGet(System.currentTimeMillis(), (last, time) -> Math.max(last + 1, time));
+    }
+
+    /* a random book that is not stored yet */
+    Book newBook() {
+        Book book = RandomData.randomBook();
+        book.setTitle(book.getTitle() + " #" + sequence.incrementAndGet());
+        return book;
+    }
+
+    /* n distinct random books, RandomData alone repeats itself */
+    private static List<Book> randomBooks(int n) {
+        Set<Book> distinct = new LinkedHashSet<>();
+        while (distinct.size() < n) {
+            distinct.add(RandomData.randomBook());
+        }
+        return new ArrayList<>(distinct);
+    }
+}
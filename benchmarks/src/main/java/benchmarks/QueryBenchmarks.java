@@ -0,0 +1,81 @@
+package benchmarks;
+
+import entities.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.SortOrder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * queryBook for each shape of conditions and each sort column. Narrow the
+ * matrix with -p, e.g. -p shape=title -p sortBy=PRICE -p books=10000.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Query {
+
+        /**
+         * none: every book; category: exact match; title: fuzzy match;
+         * pressAndYears: exact press & a range of years; authorAndPrice: fuzzy
+         * author & a price range; all: every condition at once.
+         */
+        @Param({"none", "category", "title", "pressAndYears", "authorAndPrice", "all"})
+        public String shape;
+
+        @Param({"BOOK_ID", "CATEGORY", "TITLE", "PRESS", "PUBLISH_YEAR", "AUTHOR", "PRICE", "STOCK"})
+        public Book.SortColumn sortBy;
+
+        @Param({"ASC"})
+        public SortOrder sortOrder;
+
+        BookQueryConditions conditions;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            conditions = new BookQueryConditions();
+            boolean all = shape.equals("all");
+            if (all || shape.equals("category")) {
+                conditions.setCategory("Computer Science");
+            }
+            if (all || shape.equals("title")) {
+                conditions.setTitle("Database");
+            }
+            if (all || shape.equals("pressAndYears")) {
+                conditions.setPress("Press-A");
+                conditions.setMinPublishYear(2005);
+                conditions.setMaxPublishYear(2015);
+            }
+            if (all || shape.equals("authorAndPrice")) {
+                conditions.setAuthor("Dou");
+                conditions.setMinPrice(20.0);
+                conditions.setMaxPrice(80.0);
+            }
+            conditions.setSortBy(sortBy);
+            conditions.setSortOrder(sortOrder);
+        }
+    }
+
+    @Benchmark
+    public ApiResult queryBook(Fixture fixture, Query query) {
+        return Library.check(fixture.library.queryBook(query.conditions));
+    }
+}
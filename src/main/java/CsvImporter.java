@@ -0,0 +1,176 @@
+import entities.Book;
+import entities.Card;
+import queries.ApiResult;
+import utils.CsvReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Imports books or cards from CSV, see {@link #books} and {@link #cards}
+ * for the columns. A header line is optional.
+ *
+ * Records are parsed while they are read and handed to the database's bulk
+ * loader in chunks of CHUNK_SIZE rows, one transaction per chunk; rows that
+ * already exist are counted as rejected. Without a bulk loader, or when a
+ * chunk fails to load, the chunk is stored with INSERTs instead, row by row
+ * if needed so that only the bad rows are rejected.
+ */
+public class CsvImporter<T> {
+
+    private static final Logger log = Logger.getLogger(CsvImporter.class.getName());
+    public static final int CHUNK_SIZE = 5000;
+    /* longer than any column, so that too long values are still refused by the database */
+    private static final int MAX_FIELD_LENGTH = 1024;
+
+    private final int fields;
+    private final String header;
+    private final Function<List<String>, T> parser;
+    private final Function<List<T>, ApiResult> bulkLoad;
+    private final Function<List<T>, ApiResult> storeAll;
+    private final Function<T, ApiResult> storeOne;
+    private final int chunkSize;
+    private long accepted;
+    private long rejected;
+
+    private CsvImporter(int fields, String header, Function<List<String>, T> parser,
+                        Function<List<T>, ApiResult> bulkLoad, Function<List<T>, ApiResult> storeAll,
+                        Function<T, ApiResult> storeOne, int chunkSize) {
+        this.fields = fields;
+        this.header = header;
+        this.parser = parser;
+        this.bulkLoad = bulkLoad;
+        this.storeAll = storeAll;
+        this.storeOne = storeOne;
+        this.chunkSize = chunkSize;
+    }
+
+    /* category,title,press,publish_year,author,price,stock */
+    public static CsvImporter<Book> books(LibraryManagementSystem library) {
+        return new CsvImporter<>(7, "category", CsvImporter::toBook, library::bulkLoadBooks,
+                library::storeBook, library::storeBook, CHUNK_SIZE);
+    }
+
+    /* name,department,type where type is S (student) or T (teacher) */
+    public static CsvImporter<Card> cards(LibraryManagementSystem library) {
+        return new CsvImporter<>(3, "name", CsvImporter::toCard, library::bulkLoadCards,
+                null, library::registerCard, CHUNK_SIZE);
+    }
+
+    public Result importCsv(Reader reader) throws IOException {
+        long start = System.currentTimeMillis();
+        accepted = 0;
+        rejected = 0;
+        CsvReader csv = new CsvReader(reader, MAX_FIELD_LENGTH, fields);
+        List<T> chunk = new ArrayList<>(chunkSize);
+        boolean first = true;
+        while (true) {
+            List<String> record;
+            try {
+                record = csv.next();
+            } catch (CsvReader.MalformedRecordException e) {
+                log.warning("Rejected csv record, " + e.getMessage());
+                rejected++;
+                continue;
+            }
+            if (record == null) {
+                break;
+            }
+            // 第一行可以是表头
+            if (first) {
+                first = false;
+                if (!record.isEmpty() && record.get(0).trim().equalsIgnoreCase(header)) {
+                    continue;
+                }
+            }
+            T item = record.size() == fields ? parser.apply(record) : null;
+            if (item == null) {
+                rejected++;
+                continue;
+            }
+            chunk.add(item);
+            if (chunk.size() >= chunkSize) {
+                store(chunk);
+            }
+        }
+        store(chunk);
+        return new Result(accepted, rejected, System.currentTimeMillis() - start);
+    }
+
+    private void store(List<T> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        ApiResult result = bulkLoad.apply(chunk);
+        if (result.ok) {
+            // 已存在或重复的行被跳过，算作拒绝
+            int stored = (Integer) result.payload;
+            accepted += stored;
+            rejected += chunk.size() - stored;
+        } else if (storeAll != null && storeAll.apply(chunk).ok) {
+            accepted += chunk.size();
+        } else {
+            // 整块失败时逐条存入，只拒绝出错的行
+            for (T item : chunk) {
+                if (storeOne.apply(item).ok) {
+                    accepted++;
+                } else {
+                    rejected++;
+                }
+            }
+        }
+        chunk.clear();
+    }
+
+    private static Book toBook(List<String> record) {
+        try {
+            Book book = new Book();
+            book.setCategory(record.get(0).trim());
+            book.setTitle(record.get(1).trim());
+            book.setPress(record.get(2).trim());
+            book.setPublishYear(Integer.parseInt(record.get(3).trim()));
+            book.setAuthor(record.get(4).trim());
+            book.setPrice(Double.parseDouble(record.get(5).trim()));
+            book.setStock(Integer.parseInt(record.get(6).trim()));
+            return book;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Card toCard(List<String> record) {
+        Card.CardType type = Card.CardType.values(record.get(2).trim().toUpperCase());
+        if (type == null) {
+            return null;
+        }
+        Card card = new Card();
+        card.setName(record.get(0).trim());
+        card.setDepartment(record.get(1).trim());
+        card.setType(type);
+        return card;
+    }
+
+    /**
+     * outcome of one import.
+     */
+    public static class Result {
+        public final long accepted;
+        public final long rejected;
+        public final long elapsedMillis;
+
+        public Result(long accepted, long rejected, long elapsedMillis) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String toJson() {
+            return "{\"accepted\": " + accepted + ", \"rejected\": " + rejected +
+                    ", \"elapsedMillis\": " + elapsedMillis + "}";
+        }
+    }
+}
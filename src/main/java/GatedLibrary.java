@@ -0,0 +1,157 @@
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.ResultHandler;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Lets at most as many callers into the library as the connection pool
+ * has connections, the others wait for a permit here.
+ *
+ * Meant for virtual threads: thousands of them can wait on the semaphore
+ * cheaply, while waiting in the connection pool is bounded by
+ * pool.maxWaitMillis and would fail the request.
+ */
+public class GatedLibrary implements LibraryManagementSystem {
+
+    private final LibraryManagementSystem library;
+    private final Semaphore permits;
+
+    public GatedLibrary(LibraryManagementSystem library, int permits) {
+        this.library = library;
+        this.permits = new Semaphore(permits, true);
+    }
+
+    private ApiResult call(Supplier<ApiResult> operation) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ApiResult(false, "Interrupted while waiting for the database");
+        }
+        try {
+            return operation.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /* callers waiting for a permit */
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public ApiResult storeBook(Book book) {
+        return call(() -> library.storeBook(book));
+    }
+
+    @Override
+    public ApiResult incBookStock(int bookId, int deltaStock) {
+        return call(() -> library.incBookStock(bookId, deltaStock));
+    }
+
+    @Override
+    public ApiResult storeBook(List<Book> books) {
+        return call(() -> library.storeBook(books));
+    }
+
+    @Override
+    public ApiResult bulkLoadBooks(List<Book> books) {
+        return call(() -> library.bulkLoadBooks(books));
+    }
+
+    @Override
+    public ApiResult removeBook(int bookId) {
+        return call(() -> library.removeBook(bookId));
+    }
+
+    @Override
+    public ApiResult modifyBookInfo(Book book) {
+        return call(() -> library.modifyBookInfo(book));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        return call(() -> library.queryBook(conditions));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, int limit, String cursor) {
+        return call(() -> library.queryBook(conditions, limit, cursor));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, ResultHandler<Book> handler) {
+        return call(() -> library.queryBook(conditions, handler));
+    }
+
+    @Override
+    public ApiResult borrowBook(Borrow borrow) {
+        return call(() -> library.borrowBook(borrow));
+    }
+
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        return call(() -> library.returnBook(borrow));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId) {
+        return call(() -> library.showBorrowHistory(cardId));
+    }
+
+    @Override
+    public ApiResult registerCard(Card card) {
+        return call(() -> library.registerCard(card));
+    }
+
+    @Override
+    public ApiResult bulkLoadCards(List<Card> cards) {
+        return call(() -> library.bulkLoadCards(cards));
+    }
+
+    @Override
+    public ApiResult removeCard(int cardId) {
+        return call(() -> library.removeCard(cardId));
+    }
+
+    @Override
+    public ApiResult showCards() {
+        return call(library::showCards);
+    }
+
+    @Override
+    public ApiResult showCards(int limit, String cursor) {
+        return call(() -> library.showCards(limit, cursor));
+    }
+
+    @Override
+    public ApiResult resetDatabase() {
+        return call(library::resetDatabase);
+    }
+
+    @Override
+    public ApiResult updateCard(Card card) {
+        return call(() -> library.updateCard(card));
+    }
+
+    @Override
+    public ApiResult showBooks() {
+        return call(library::showBooks);
+    }
+
+    @Override
+    public ApiResult showBooks(int limit, String cursor) {
+        return call(() -> library.showBooks(limit, cursor));
+    }
+}
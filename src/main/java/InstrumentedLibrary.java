@@ -0,0 +1,185 @@
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.ResultHandler;
+import utils.LatencyHistogram;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Records, per operation of the library, how long the calls take, how many
+ * succeeded or failed (by ApiResult.ok, an exception counts as failed) and
+ * how many are running right now.
+ *
+ * Overloads are told apart by name: storeBooks is the batch storeBook,
+ * queryBookPage / showBooksPage / showCardsPage the paged listings and
+ * queryBookStream the streaming query, whose time includes the caller's
+ * handler.
+ */
+public class InstrumentedLibrary implements LibraryManagementSystem {
+
+    private final LibraryManagementSystem library;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    public InstrumentedLibrary(LibraryManagementSystem library) {
+        this.library = library;
+    }
+
+    private ApiResult call(String name, Supplier<ApiResult> operation) {
+        Operation stats = operations.computeIfAbsent(name, key -> new Operation());
+        stats.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            ApiResult result = operation.get();
+            ok = result != null && result.ok;
+            return result;
+        } finally {
+            stats.latency.record(System.nanoTime() - start);
+            (ok ? stats.succeeded : stats.failed).increment();
+            stats.inFlight.decrementAndGet();
+        }
+    }
+
+    /* operations called so far, by name */
+    public Map<String, Operation> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    public static final class Operation {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency.snapshot();
+        }
+
+        public long getSucceeded() {
+            return succeeded.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+    }
+
+    @Override
+    public ApiResult storeBook(Book book) {
+        return call("storeBook", () -> library.storeBook(book));
+    }
+
+    @Override
+    public ApiResult incBookStock(int bookId, int deltaStock) {
+        return call("incBookStock", () -> library.incBookStock(bookId, deltaStock));
+    }
+
+    @Override
+    public ApiResult storeBook(List<Book> books) {
+        return call("storeBooks", () -> library.storeBook(books));
+    }
+
+    @Override
+    public ApiResult bulkLoadBooks(List<Book> books) {
+        return call("bulkLoadBooks", () -> library.bulkLoadBooks(books));
+    }
+
+    @Override
+    public ApiResult removeBook(int bookId) {
+        return call("removeBook", () -> library.removeBook(bookId));
+    }
+
+    @Override
+    public ApiResult modifyBookInfo(Book book) {
+        return call("modifyBookInfo", () -> library.modifyBookInfo(book));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        return call("queryBook", () -> library.queryBook(conditions));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, int limit, String cursor) {
+        return call("queryBookPage", () -> library.queryBook(conditions, limit, cursor));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, ResultHandler<Book> handler) {
+        return call("queryBookStream", () -> library.queryBook(conditions, handler));
+    }
+
+    @Override
+    public ApiResult borrowBook(Borrow borrow) {
+        return call("borrowBook", () -> library.borrowBook(borrow));
+    }
+
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        return call("returnBook", () -> library.returnBook(borrow));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId) {
+        return call("showBorrowHistory", () -> library.showBorrowHistory(cardId));
+    }
+
+    @Override
+    public ApiResult registerCard(Card card) {
+        return call("registerCard", () -> library.registerCard(card));
+    }
+
+    @Override
+    public ApiResult bulkLoadCards(List<Card> cards) {
+        return call("bulkLoadCards", () -> library.bulkLoadCards(cards));
+    }
+
+    @Override
+    public ApiResult removeCard(int cardId) {
+        return call("removeCard", () -> library.removeCard(cardId));
+    }
+
+    @Override
+    public ApiResult showCards() {
+        return call("showCards", library::showCards);
+    }
+
+    @Override
+    public ApiResult showCards(int limit, String cursor) {
+        return call("showCardsPage", () -> library.showCards(limit, cursor));
+    }
+
+    @Override
+    public ApiResult resetDatabase() {
+        return call("resetDatabase", library::resetDatabase);
+    }
+
+    @Override
+    public ApiResult updateCard(Card card) {
+        return call("updateCard", () -> library.updateCard(card));
+    }
+
+    @Override
+    public ApiResult showBooks() {
+        return call("showBooks", library::showBooks);
+    }
+
+    @Override
+    public ApiResult showBooks(int limit, String cursor) {
+        return call("showBooksPage", () -> library.showBooks(limit, cursor));
+    }
+}
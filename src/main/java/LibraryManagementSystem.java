@@ -3,6 +3,7 @@ import entities.Borrow;
 import entities.Card;
 import queries.ApiResult;
 import queries.BookQueryConditions;
+import queries.ResultHandler;
 
 import java.sql.PreparedStatement;
 import java.util.List;
@@ -69,6 +70,21 @@ public interface LibraryManagementSystem {
      */
     ApiResult storeBook(List<Book> books);
 
+    /**
+     * bulk load books with the native loader of the database,
+     * for imports too large for storeBook().
+     *
+     * Note that:
+     *      (1) books that already exist, or appear earlier in the list,
+     *          are skipped instead of failing the whole load.
+     *      (2) book_id is not stored to the books.
+     *
+     * @param books list of books to be loaded
+     * @return the number of books stored should be returned by
+     *         ApiResult.payload as an Integer
+     */
+    ApiResult bulkLoadBooks(List<Book> books);
+
     /**
      * remove this book from library system.
      *
@@ -107,6 +123,45 @@ public interface LibraryManagementSystem {
      */
     ApiResult queryBook(BookQueryConditions conditions);
 
+    /**
+     * query one page of books, in the same order as queryBook(conditions).
+     *
+     * Note that:
+     *      (1) cursor is null for the first page, then the nextCursor of
+     *          the previous page; it is only valid with the same sortBy
+     *          & sortOrder.
+     *      (2) a page costs the same whatever its position: rows before
+     *          the cursor are skipped by the DBMS through the sort order,
+     *          not read & dropped.
+     *
+     * @param conditions query conditions
+     * @param limit      page size, between 1 and 1000
+     * @param cursor     position after the last book of the previous page
+     *
+     * @return an instance of {@link queries.BookQueryResults} whose
+     *         nextCursor is null on the last page
+     */
+    ApiResult queryBook(BookQueryConditions conditions, int limit, String cursor);
+
+    /**
+     * query books like queryBook(conditions), but hand every book to
+     * handler as soon as it is read instead of collecting them.
+     *
+     * Note that:
+     *      (1) the rows are streamed from the DBMS, so memory use does not
+     *          depend on the size of the result.
+     *      (2) the connection is held until the last row is handled, the
+     *          handler must not wait on anything, its output included: to
+     *          send the books to a client, read them page by page with
+     *          queryBook(conditions, limit, cursor) instead.
+     *
+     * @param conditions query conditions
+     * @param handler    receives the books in order
+     * @return the number of books handled should be returned by
+     *         ApiResult.payload as an Integer
+     */
+    ApiResult queryBook(BookQueryConditions conditions, ResultHandler<Book> handler);
+
     /* Interface for borrow & return books */
 
     /**
@@ -148,6 +203,16 @@ public interface LibraryManagementSystem {
      */
     ApiResult registerCard(Card card);
 
+    /**
+     * bulk load cards with the native loader of the database,
+     * same rules as {@link #bulkLoadBooks(List)}.
+     *
+     * @param cards list of cards to be loaded
+     * @return the number of cards stored should be returned by
+     *         ApiResult.payload as an Integer
+     */
+    ApiResult bulkLoadCards(List<Card> cards);
+
     /**
      * simply remove a card.
      *
@@ -166,6 +231,16 @@ public interface LibraryManagementSystem {
      */
     ApiResult showCards();
 
+    /**
+     * list one page of cards order by card_id.
+     *
+     * @param limit  page size, between 1 and 1000
+     * @param cursor null for the first page, then the nextCursor of the previous page
+     * @return an instance of {@link queries.CardList} whose nextCursor
+     *         is null on the last page
+     */
+    ApiResult showCards(int limit, String cursor);
+
     /**
      * reset database to its initial state.
      * you are not allowed to complete & modify this function.
@@ -177,4 +252,7 @@ public interface LibraryManagementSystem {
 
     /* show all books order by book_id. */
     public ApiResult showBooks();
+
+    /* show one page of books order by book_id, see queryBook(conditions, limit, cursor). */
+    ApiResult showBooks(int limit, String cursor);
 }
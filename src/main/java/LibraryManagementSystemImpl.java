@@ -2,19 +2,83 @@ import entities.Book;
 import entities.Borrow;
 import entities.Card;
 import queries.*;
+import utils.BookCache;
+import utils.BorrowEngine;
+import utils.BulkLoader;
+import utils.ConnectConfig;
+import utils.ConnectionLease;
 import utils.DBInitializer;
 import utils.DatabaseConnector;
+import utils.ResultCache;
+import utils.RetryPolicy;
+import utils.SchemaMigrations;
+import utils.SqlErrors;
+import utils.TableVersions;
+import utils.TableVersions.Table;
+import utils.TrigramIndex;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
+    /* books checked & inserted per round trip by storeBook(List), keeps the
+       duplicate check below the 2100 parameters SQL Server accepts */
+    private static final int BATCH_SIZE = 400;
+    /* most rows returned by one page of showBooks/showCards/queryBook */
+    private static final int MAX_PAGE_SIZE = 1000;
+    /* most books a fuzzy queryBook is narrowed down to by the search index,
+       keeps the book_id IN list below the 2100 parameters SQL Server accepts */
+    private static final int MAX_SEARCH_CANDIDATES = 2048;
+    private static final Table[] NO_TABLES = {};
+
     private final DatabaseConnector connector;
+    private final BorrowEngine borrowEngine;
+    private final RetryPolicy retryPolicy;
+    private final TableVersions tableVersions = new TableVersions();
+    private final BookCache bookCache;
+    private final ResultCache<QueryKey, BookQueryResults> queryCache;
+    private final boolean searchIndexEnabled;
+    private final int maxSearchCandidates;
+    private final long searchIndexMaxAgeNanos;
+    /* trigram indexes of the books, and the ones being built while they are */
+    private volatile SearchIndex searchIndex = new SearchIndex();
+    private volatile SearchIndex rebuilding;
+    /* searchIndex holds every book while searchIndexBuilt == searchIndexChanges */
+    private final AtomicLong searchIndexChanges = new AtomicLong();
+    private volatile long searchIndexBuilt = -1;
+    /* System.nanoTime() when the book table was read for searchIndex */
+    private volatile long searchIndexBuiltAt;
+    private final Object searchIndexBuild = new Object();
 
     public LibraryManagementSystemImpl(DatabaseConnector connector) {
+        this(connector, connector.getConf().getBorrowEngine());
+    }
+
+    public LibraryManagementSystemImpl(DatabaseConnector connector, BorrowEngine borrowEngine) {
         this.connector = connector;
+        this.borrowEngine = borrowEngine;
+        ConnectConfig conf = connector.getConf();
+        this.retryPolicy = new RetryPolicy(conf.getRetryMaxAttempts(),
+                conf.getRetryBaseDelayMillis(), conf.getRetryMaxDelayMillis());
+        this.bookCache = new BookCache(conf.getCacheBooks());
+        this.queryCache = new ResultCache<>(conf.getCacheQueryResults(), conf.getCacheQueryTtlMillis());
+        this.searchIndexEnabled = conf.isSearchTrigramIndex();
+        this.maxSearchCandidates = Math.min(MAX_SEARCH_CANDIDATES, conf.getSearchMaxCandidates());
+        this.searchIndexMaxAgeNanos = TimeUnit.SECONDS.toNanos(conf.getSearchMaxAgeSeconds());
     }
 
 
@@ -23,10 +87,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult storeBook(Book book) {
-        Connection connection = connector.getConn();
-        try {
-            // 设置数据库连接的事务隔离
-            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        return transaction(Connection.TRANSACTION_SERIALIZABLE, Table.BOOK, lease -> {
             // book_id 是由数据库自动得到
             String category = book.getCategory(); // 得到category
             String title = book.getTitle(); // 得到title
@@ -38,7 +99,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             // checkEqual 用来查看数据库中是否已经有对应的书籍
             String checkEqual = "SELECT * FROM book WHERE category = ? AND title = ? AND press = ? AND publish_Year = ? AND author = ?";
             // 使用预编译语句pStmtCheckEqual
-            PreparedStatement pStmtCheckEqual = connection.prepareStatement(checkEqual);
+            PreparedStatement pStmtCheckEqual = lease.prepareStatement(checkEqual);
             // 传入参数
             pStmtCheckEqual.setString(1, category);
             pStmtCheckEqual.setString(2, title);
@@ -46,15 +107,16 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             pStmtCheckEqual.setInt(4, publishYear);
             pStmtCheckEqual.setString(5, author);
             // 执行查询后返回rsCheckEqual
-            ResultSet rsCheckEqual = pStmtCheckEqual.executeQuery();
-            // 如果rsCheckEqual非空，则有相同书籍
-            if (rsCheckEqual.next()) {
-                throw new SQLException("Book already exists");
+            try (ResultSet rsCheckEqual = pStmtCheckEqual.executeQuery()) {
+                // 如果rsCheckEqual非空，则有相同书籍
+                if (rsCheckEqual.next()) {
+                    throw new SQLException("Book already exists");
+                }
             }
             // insert 用来插入书籍
             String insert = "INSERT INTO book (category, title, press, publish_year, author, price, stock) VALUES(?,?,?,?,?,?,?)";
             // 使用预编译语句pStmtInsert
-            PreparedStatement pStmtInsert = connection.prepareStatement(insert, Statement.RETURN_GENERATED_KEYS);
+            PreparedStatement pStmtInsert = lease.prepareStatement(insert, Statement.RETURN_GENERATED_KEYS);
             // 传入参数
             pStmtInsert.setString(1, category);
             pStmtInsert.setString(2, title);
@@ -69,21 +131,18 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 // result 不等于1，说明插入语句出现错误
                 throw new SQLException("Failed to store book");
             }
-            // 使用commit来递交
-            commit(connection);
             // 得到数据库自增的book_id
-            ResultSet rsInsert = pStmtInsert.getGeneratedKeys();
-            if (rsInsert.next()) {
-                int bookId = rsInsert.getInt(1);
-                book.setBookId(bookId); // 设置bookId
-            } else {
-                throw new SQLException("Failed to store book");
+            try (ResultSet rsInsert = pStmtInsert.getGeneratedKeys()) {
+                if (rsInsert.next()) {
+                    int bookId = rsInsert.getInt(1);
+                    book.setBookId(bookId); // 设置bookId
+                } else {
+                    throw new SQLException("Failed to store book");
+                }
             }
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
-        return new ApiResult(true, "Successfully store a book");
+            lease.afterCommit(() -> indexBook(book));
+            return new ApiResult(true, "Successfully store a book");
+        });
     }
 
     /**
@@ -91,45 +150,67 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult incBookStock(int bookId, int deltaStock) {
-        Connection connection = connector.getConn();
-        try {
-            // 设置数据库连接的事务隔离
-            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            // getBook 查询bookId对应的书籍
-            String getBook = "SELECT * FROM book WHERE book_id = ?";
-            // 使用预编译语句pStmtGetBook
-            PreparedStatement pStmtGetBook = connection.prepareStatement(getBook);
-            // 传入参数
-            pStmtGetBook.setInt(1, bookId);
-            // 执行查询后返回rsGetBook
-            ResultSet rsGetBook = pStmtGetBook.executeQuery();
+        return transaction(Connection.TRANSACTION_SERIALIZABLE, Table.BOOK, lease -> {
+            updateBookStock(lease, bookId, deltaStock);
+            return new ApiResult(true, "Successfully increase the book's stock");
+        });
+    }
+
+    /**
+     * apply deltaStock to a book's stock inside the caller's transaction,
+     * shared by incBookStock(), borrowBook() and returnBook() so that they
+     * all run on the connection they leased.
+     */
+    private void updateBookStock(ConnectionLease lease, int bookId, int deltaStock) throws SQLException {
+        Book cached = bookCache.get(bookId);
+        if (cached != null && cached.getStock() + deltaStock >= 0) {
+            // 缓存中有这本书时不再查询，按缓存的库存比较并更新；库存已被改过或书已删除时不更新任何行，再查数据库
+            String casBookStock = "UPDATE book SET stock = ? WHERE book_id = ? AND stock = ?";
+            PreparedStatement pStmtCasBookStock = lease.prepareStatement(casBookStock);
+            pStmtCasBookStock.setInt(1, cached.getStock() + deltaStock);
+            pStmtCasBookStock.setInt(2, bookId);
+            pStmtCasBookStock.setInt(3, cached.getStock());
+            if (pStmtCasBookStock.executeUpdate() == 1) {
+                lease.afterCommit(() -> bookCache.updateStock(bookId, cached.getStock(), cached.getStock() + deltaStock));
+                return;
+            }
+        }
+        long stamp = bookCache.stamp(bookId);
+        // getBook 查询bookId对应的书籍
+        String getBook = "SELECT * FROM book WHERE book_id = ?";
+        // 使用预编译语句pStmtGetBook
+        PreparedStatement pStmtGetBook = lease.prepareStatement(getBook);
+        // 传入参数
+        pStmtGetBook.setInt(1, bookId);
+        // 执行查询后返回rsGetBook
+        Book book;
+        try (ResultSet rsGetBook = pStmtGetBook.executeQuery()) {
             // 不存在对应书籍
             if (!rsGetBook.next()) {
+                bookCache.invalidate(bookId);
                 throw new SQLException("Book does not exist");
             }
-            int stock = rsGetBook.getInt("stock");
-            // 新库存量小于0
-            if (stock + deltaStock < 0) {
-                throw new SQLException("Stock limit exceeded");
-            }
-            // updateBookStock 更新bookId的书籍的库存量
-            String updateBookStock = "UPDATE book SET stock = ? WHERE book_id = ?";
-            // 使用预编译语句pStmtUpdateBookStock
-            PreparedStatement pStmtUpdateBookStock = connection.prepareStatement(updateBookStock);
-            pStmtUpdateBookStock.setInt(1, stock + deltaStock);
-            pStmtUpdateBookStock.setInt(2, bookId);
-            // 更新结果为result
-            int result = pStmtUpdateBookStock.executeUpdate();
-            if (result != 1) {
-                throw new SQLException("Failed to store book");
-            }
-            // 使用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
+            book = readBook(rsGetBook);
+        }
+        int stock = book.getStock();
+        // 新库存量小于0
+        if (stock + deltaStock < 0) {
+            throw new SQLException("Stock limit exceeded");
         }
-        return new ApiResult(true, "Successfully increase the book's stock");
+        // updateBookStock 更新bookId的书籍的库存量
+        String updateBookStock = "UPDATE book SET stock = ? WHERE book_id = ?";
+        // 使用预编译语句pStmtUpdateBookStock
+        PreparedStatement pStmtUpdateBookStock = lease.prepareStatement(updateBookStock);
+        pStmtUpdateBookStock.setInt(1, stock + deltaStock);
+        pStmtUpdateBookStock.setInt(2, bookId);
+        // 更新结果为result
+        int result = pStmtUpdateBookStock.executeUpdate();
+        if (result != 1) {
+            throw new SQLException("Failed to store book");
+        }
+        // 提交后把读到的行连同新库存放进缓存
+        book.setStock(stock + deltaStock);
+        lease.afterCommit(() -> bookCache.fill(book, stamp));
     }
 
     /**
@@ -137,111 +218,194 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult storeBook(List<Book> books) {
-        Connection connection = connector.getConn();
-        try {
-            // 将每本书逐一插入，有一本书插入失败则全部回滚
+        return transaction(Table.BOOK, lease -> {
+            // 先检查这一批书内部是否有重复
+            Set<Book> distinct = new HashSet<>();
             for (Book book : books) {
-                // book_id 是由数据库自动得到
-                String category = book.getCategory(); // 得到category
-                String title = book.getTitle(); // 得到title
-                String press = book.getPress(); // 得到press
-                int publishYear = book.getPublishYear(); // 得到publishYear
-                String author = book.getAuthor(); // 得到author
-                double price = book.getPrice(); // 得到price
-                int stock = book.getStock(); // 得到stock
-                // checkEqual 用来查看数据库中是否已经有对应的书籍
-                String checkEqual = "SELECT * FROM book WHERE category = ? AND title = ? AND press = ? AND publish_Year = ? AND author = ?";
-                // 使用预编译语句pStmtCheckEqual
-                PreparedStatement pStmtCheckEqual = connection.prepareStatement(checkEqual);
-                // 传入参数
-                pStmtCheckEqual.setString(1, category);
-                pStmtCheckEqual.setString(2, title);
-                pStmtCheckEqual.setString(3, press);
-                pStmtCheckEqual.setInt(4, publishYear);
-                pStmtCheckEqual.setString(5, author);
-                // 执行查询后返回rsCheckEqual
-                ResultSet rsCheckEqual = pStmtCheckEqual.executeQuery();
-                // 如果rsCheckEqual非空，则有相同书籍
-                if (rsCheckEqual.next()) {
+                if (!distinct.add(book)) {
                     throw new SQLException("Book already exists");
                 }
-                // insert 用来插入书籍
-                String insert = "INSERT INTO book (category, title, press, publish_year, author, price, stock) VALUES(?,?,?,?,?,?,?)";
-                // 使用预编译语句pStmtInsert
-                PreparedStatement pStmtInsert = connection.prepareStatement(insert, Statement.RETURN_GENERATED_KEYS);
-                // 传入参数
-                pStmtInsert.setString(1, category);
-                pStmtInsert.setString(2, title);
-                pStmtInsert.setString(3, press);
-                pStmtInsert.setInt(4, publishYear);
-                pStmtInsert.setString(5, author);
-                pStmtInsert.setDouble(6, price);
-                pStmtInsert.setInt(7, stock);
-                // 执行插入语句，返回受影响的行数result
-                int result = pStmtInsert.executeUpdate();
-                if (result != 1) {
-                    // result 不等于1，说明插入语句出现错误
-                    throw new SQLException("Failed to store book");
-                }
-                // 得到数据库自增的book_id
-                ResultSet rsInsert = pStmtInsert.getGeneratedKeys();
-                if (rsInsert.next()) {
-                    int bookId = rsInsert.getInt(1);
-                    book.setBookId(bookId); // 设置bookId
+            }
+            // 分块插入，每块先用一条查询检查数据库中是否已经有对应的书籍，再批量插入；有一本书插入失败则全部回滚
+            for (int from = 0; from < books.size(); from += BATCH_SIZE) {
+                List<Book> chunk = books.subList(from, Math.min(books.size(), from + BATCH_SIZE));
+                checkBooksAbsent(lease, chunk);
+                insertBooks(lease, chunk);
+            }
+            lease.afterCommit(() -> books.forEach(this::indexBook));
+            return new ApiResult(true, "Successfully store a list of books");
+        });
+    }
+
+    /**
+     * look up a chunk of books by the unique key of book with a single query,
+     * fails if any of them is already stored.
+     */
+    private void checkBooksAbsent(ConnectionLease lease, List<Book> chunk) throws SQLException {
+        // checkEqual 形如 SELECT ... WHERE (...) OR (...)，每本书一组条件
+        StringBuilder checkEqual = new StringBuilder("SELECT book_id FROM book WHERE ");
+        for (int i = 0; i < chunk.size(); i++) {
+            if (i > 0) {
+                checkEqual.append(" OR ");
+            }
+            checkEqual.append("(category = ? AND title = ? AND press = ? AND publish_year = ? AND author = ?)");
+        }
+        PreparedStatement pStmtCheckEqual = lease.prepareStatement(checkEqual.toString());
+        int index = 1;
+        for (Book book : chunk) {
+            pStmtCheckEqual.setString(index++, book.getCategory());
+            pStmtCheckEqual.setString(index++, book.getTitle());
+            pStmtCheckEqual.setString(index++, book.getPress());
+            pStmtCheckEqual.setInt(index++, book.getPublishYear());
+            pStmtCheckEqual.setString(index++, book.getAuthor());
+        }
+        try (ResultSet rsCheckEqual = pStmtCheckEqual.executeQuery()) {
+            // 如果rsCheckEqual非空，则有相同书籍
+            if (rsCheckEqual.next()) {
+                throw new SQLException("Book already exists");
+            }
+        }
+    }
+
+    /**
+     * insert a chunk of books in one JDBC batch and assign the generated
+     * book_ids back in order. databases whose driver cannot return the keys
+     * of a batch get the rows one by one on the same statement.
+     */
+    private void insertBooks(ConnectionLease lease, List<Book> chunk) throws SQLException {
+        String insert = "INSERT INTO book (category, title, press, publish_year, author, price, stock) VALUES(?,?,?,?,?,?,?)";
+        PreparedStatement pStmtInsert = lease.prepareStatement(insert, Statement.RETURN_GENERATED_KEYS);
+        boolean batched = connector.getConf().getType().supportsBatchGeneratedKeys();
+        int stored = 0;
+        try {
+            for (Book book : chunk) {
+                pStmtInsert.setString(1, book.getCategory());
+                pStmtInsert.setString(2, book.getTitle());
+                pStmtInsert.setString(3, book.getPress());
+                pStmtInsert.setInt(4, book.getPublishYear());
+                pStmtInsert.setString(5, book.getAuthor());
+                pStmtInsert.setDouble(6, book.getPrice());
+                pStmtInsert.setInt(7, book.getStock());
+                if (batched) {
+                    pStmtInsert.addBatch();
                 } else {
-                    throw new SQLException("Failed to store book");
+                    if (pStmtInsert.executeUpdate() != 1) {
+                        throw new SQLException("Failed to store book");
+                    }
+                    stored += assignBookIds(pStmtInsert, chunk.subList(stored, stored + 1));
                 }
             }
-            // 使用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
+            if (batched) {
+                for (int result : pStmtInsert.executeBatch()) {
+                    // result 不等于1（或驱动无法给出行数），说明插入语句出现错误
+                    if (result != 1 && result != Statement.SUCCESS_NO_INFO) {
+                        throw new SQLException("Failed to store book");
+                    }
+                }
+                stored = assignBookIds(pStmtInsert, chunk);
+            }
+        } catch (SQLException e) {
+            // 检查之后被其他事务插入的相同书籍，或仅大小写不同的书籍，由唯一键拒绝
+            if (SqlErrors.isDuplicateKey(e)) {
+                throw new SQLException("Book already exists", e);
+            }
+            throw e;
+        }
+        if (stored != chunk.size()) {
+            throw new SQLException("Failed to store book");
         }
-        return new ApiResult(true, "Successfully store a list of books");
+    }
+
+    /* read the generated book_ids into books, in order, returns how many were assigned */
+    private int assignBookIds(PreparedStatement pStmtInsert, List<Book> books) throws SQLException {
+        int assigned = 0;
+        try (ResultSet rsInsert = pStmtInsert.getGeneratedKeys()) {
+            while (assigned < books.size() && rsInsert.next()) {
+                books.get(assigned++).setBookId(rsInsert.getInt(1));
+            }
+        }
+        return assigned;
     }
 
     /**
-     * remove this book from library system.
+     * bulk load books through the database's {@link BulkLoader}.
      */
     @Override
-    public ApiResult removeBook(int bookId) {
-        Connection connection = connector.getConn();
-        try {
-            // getBook 查看书库中是否有对应bookId的书籍
-            String getBook = "SELECT * FROM book WHERE book_id = ?";
-            PreparedStatement pStmtGetBook = connection.prepareStatement(getBook);
-            pStmtGetBook.setInt(1, bookId);
-            ResultSet rsGetBook = pStmtGetBook.executeQuery();
+    public ApiResult bulkLoadBooks(List<Book> books) {
+        BulkLoader loader = connector.getConf().getType().getBulkLoader();
+        if (loader == null) {
+            return new ApiResult(false, "Bulk load is not supported by the database");
+        }
+        return transaction(Table.BOOK, lease -> {
+            int stored = loader.loadBooks(lease.getConnection(), books);
+            // 不知道载入的书的book_id，下次模糊查询时重建索引
+            lease.afterCommit(this::staleSearchIndex);
+            return new ApiResult(true, "Successfully bulk load books", stored);
+        });
+    }
+
+    /**
+     * the book, fails unless it exists. a cached row is taken for it, the
+     * statement changing the book then finds out when it is gone after all.
+     */
+    private Book requireBook(ConnectionLease lease, int bookId) throws SQLException {
+        Book cached = bookCache.get(bookId);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = bookCache.stamp(bookId);
+        // getBook 查看书库中是否有对应bookId的书籍
+        String getBook = "SELECT * FROM book WHERE book_id = ?";
+        PreparedStatement pStmtGetBook = lease.prepareStatement(getBook);
+        pStmtGetBook.setInt(1, bookId);
+        try (ResultSet rsGetBook = pStmtGetBook.executeQuery()) {
             // 不存在对应书籍
             if (!rsGetBook.next()) {
                 throw new SQLException("Book does not exist");
             }
+            Book book = readBook(rsGetBook);
+            lease.afterCommit(() -> bookCache.fill(book, stamp));
+            return book;
+        }
+    }
+
+    /**
+     * remove this book from library system.
+     */
+    @Override
+    public ApiResult removeBook(int bookId) {
+        return transaction(Table.BOOK, lease -> {
+            Book removed = requireBook(lease, bookId);
             // bookNotReturned 查看是否bookId对应的书没有归还
             String bookNotReturned = "SELECT * FROM borrow WHERE book_id = ? AND return_time = 0";
-            PreparedStatement pStmtBookNotReturned = connection.prepareStatement(bookNotReturned);
+            PreparedStatement pStmtBookNotReturned = lease.prepareStatement(bookNotReturned);
             pStmtBookNotReturned.setInt(1, bookId);
-            ResultSet rsBookNotReturned = pStmtBookNotReturned.executeQuery();
-            // bookId的书没有被归还
-            if (rsBookNotReturned.next()) {
-                throw new SQLException("Book is not returned");
+            try (ResultSet rsBookNotReturned = pStmtBookNotReturned.executeQuery()) {
+                // bookId的书没有被归还
+                if (rsBookNotReturned.next()) {
+                    throw new SQLException("Book is not returned");
+                }
             }
             // removeBook 删除对应书籍
             String removeBook = "DELETE FROM book WHERE book_id = ?";
-            PreparedStatement pStmtRemoveBook = connection.prepareStatement(removeBook);
+            PreparedStatement pStmtRemoveBook = lease.prepareStatement(removeBook);
             pStmtRemoveBook.setInt(1, bookId);
             int result = pStmtRemoveBook.executeUpdate();
+            // 缓存中的书已经被删除
+            if (result == 0) {
+                bookCache.invalidate(bookId);
+                throw new SQLException("Book does not exist");
+            }
             // result 不为1说明删除失败
             if (result != 1) {
                 throw new SQLException("Failed to remove book");
             }
-            // 使用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
-        return new ApiResult(true, "Successfully remove book");
+            lease.afterCommit(() -> {
+                bookCache.invalidate(bookId);
+                unindexBook(removed);
+            });
+            return new ApiResult(true, "Successfully remove book");
+        });
     }
 
     /**
@@ -249,17 +413,8 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult modifyBookInfo(Book book) {
-        Connection connection = connector.getConn();
-        try {
-            // getBook 查询对应的书籍
-            String getBook = "SELECT * FROM book WHERE book_id = ?";
-            PreparedStatement pStmtGetBook = connection.prepareStatement(getBook);
-            pStmtGetBook.setInt(1, book.getBookId());
-            ResultSet rsGetBook = pStmtGetBook.executeQuery();
-            // 系统中没有对应书籍
-            if (!rsGetBook.next()) {
-                throw new SQLException("Book does not exist");
-            }
+        return transaction(Table.BOOK, lease -> {
+            Book old = requireBook(lease, book.getBookId());
             // 得到book的各个信息
             String category = book.getCategory();
             String title = book.getTitle();
@@ -269,7 +424,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             double price = book.getPrice();
             // updateBook 更新对应书籍的信息
             String updateBook = "UPDATE book SET category = ?, title = ?, press = ?, publish_year = ?, author = ?, price = ? WHERE book_id = ?";
-            PreparedStatement pStmtUpdateBook = connection.prepareStatement(updateBook);
+            PreparedStatement pStmtUpdateBook = lease.prepareStatement(updateBook);
             pStmtUpdateBook.setString(1, category);
             pStmtUpdateBook.setString(2, title);
             pStmtUpdateBook.setString(3, press);
@@ -278,17 +433,23 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             pStmtUpdateBook.setDouble(6, price);
             pStmtUpdateBook.setInt(7, book.getBookId());
             int result = pStmtUpdateBook.executeUpdate();
+            // 缓存中的书已经被删除
+            if (result == 0) {
+                bookCache.invalidate(book.getBookId());
+                throw new SQLException("Book does not exist");
+            }
             // 若result不等于1，说明update失败
             if (result != 1) {
                 throw new SQLException("Failed to update book");
             }
-            // 使用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
-        return new ApiResult(true, "Successfully modify book's info");
+            lease.afterCommit(() -> {
+                bookCache.invalidate(book.getBookId());
+                // 缓存中的旧书名可能已经过时，留下的多余条目只会多出候选，不会漏掉书
+                unindexBook(old);
+                indexBook(book);
+            });
+            return new ApiResult(true, "Successfully modify book's info");
+        });
     }
 
     /**
@@ -296,77 +457,357 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult queryBook(BookQueryConditions conditions) {
-        Connection connection = connector.getConn();
-        try {
-            String category = conditions.getCategory(); // 类别点查（精确查询）
-            String title = conditions.getTitle(); // 书名点查（模糊查询）
-            String press = conditions.getPress(); // 出版社点查（模糊查询）
-            Integer minPublishYear = conditions.getMinPublishYear(); // 年份范围
-            Integer maxPublishYear = conditions.getMaxPublishYear();
-            String author = conditions.getAuthor(); // 作者点查（模糊查询）
-            Double minPrice = conditions.getMinPrice(); // 价格范围
-            Double maxPrice = conditions.getMaxPrice();
-            // queryBook进行查询对应书籍
-            // 添加对应的条件，使用 = 来精确查询，使用 LIKE 来模糊查询，当为null时，使用True来占位
-            String queryBook = "SELECT * FROM book WHERE " + (conditions.getCategory() == null ? "True" : "category = ?") +
-                    " AND " + (conditions.getTitle() == null ? "True" : "title LIKE ?") +
-                    " AND " + (conditions.getPress() == null ? "True" : "press LIKE ?") +
-                    " AND " + (conditions.getAuthor() == null ? "True" : "author LIKE ?") +
-                    " AND " + (conditions.getMinPublishYear() == null ? "True" : "publish_year >= ?") +
-                    " AND " + (conditions.getMaxPublishYear() == null ? "True" : "publish_year <= ?") +
-                    " AND " + (conditions.getMinPrice() == null ? "True" : "price >= ?") +
-                    " AND " + (conditions.getMaxPrice() == null ? "True" : "price <= ?")
-                    + " ORDER BY " + conditions.getSortBy() + " " + conditions.getSortOrder() + ", book_id ASC"; // 最后确保排序的顺序
-            PreparedStatement pStmtQueryBook = connection.prepareStatement(queryBook);
-            // 传入参数，用index表示传入第几个参数
-            int index = 1;
-            if (category != null) {
-                pStmtQueryBook.setString(index++, category);
-            } // 精确查询
-            if (title != null) {
-                pStmtQueryBook.setString(index++, "%" + title + "%");
-            } // 模糊查询
-            if (press != null) {
-                pStmtQueryBook.setString(index++, "%" + press + "%");
-            } // 模糊查询
-            if (author != null) {
-                pStmtQueryBook.setString(index++, "%" + author + "%");
-            } // 模糊查询
-            if (minPublishYear != null) {
-                pStmtQueryBook.setInt(index++, minPublishYear);
-            }
-            if (maxPublishYear != null) {
-                pStmtQueryBook.setInt(index++, maxPublishYear);
-            }
-            if (minPrice != null) {
-                pStmtQueryBook.setDouble(index++, minPrice);
-            }
-            if (maxPrice != null) {
-                pStmtQueryBook.setDouble(index++, maxPrice);
-            }
-            // 执行对应的查询
-            ResultSet rsQueryBook = pStmtQueryBook.executeQuery();
-            // 将得到的书籍用Book形式存储
-            List<Book> books = new ArrayList<>();
-            while (rsQueryBook.next()) {
-                Book book = new Book();
-                book.setBookId(rsQueryBook.getInt("book_id"));
-                book.setCategory(rsQueryBook.getString("category"));
-                book.setTitle(rsQueryBook.getString("title"));
-                book.setPress(rsQueryBook.getString("press"));
-                book.setPublishYear(rsQueryBook.getInt("publish_year"));
-                book.setAuthor(rsQueryBook.getString("author"));
-                book.setPrice(rsQueryBook.getDouble("price"));
-                book.setStock(rsQueryBook.getInt("stock"));
-                books.add(book);
-            }
-            // 用commit递交
-            commit(connection);
-            BookQueryResults bookQueryResults = new BookQueryResults(books);
+        return cachedQuery(new QueryKey(conditions, 0, null), () -> transaction(lease -> {
+            BookQueryResults bookQueryResults = selectBooks(lease, conditions, null, 0);
             return new ApiResult(true, "Successfully query book", bookQueryResults);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
+        }));
+    }
+
+    /**
+     * query one page of books, starting after cursor.
+     */
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, int limit, String cursor) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ApiResult(false, "Page size should be between 1 and " + MAX_PAGE_SIZE);
+        }
+        PageCursor after = null;
+        if (cursor != null) {
+            after = PageCursor.decode(cursor);
+            // 游标只能用在同样排序的查询上
+            if (after == null || !after.matches(conditions.getSortBy().getValue(), conditions.getSortOrder())) {
+                return new ApiResult(false, "Invalid cursor");
+            }
+        }
+        PageCursor position = after;
+        return cachedQuery(new QueryKey(conditions, limit, cursor), () -> transaction(lease -> {
+            BookQueryResults bookQueryResults = selectBooks(lease, conditions, position, limit);
+            return new ApiResult(true, "Successfully query book", bookQueryResults);
+        }));
+    }
+
+    /**
+     * results of the query from the query cache while no book changed
+     * through this library, otherwise run it and cache results of at most
+     * MAX_PAGE_SIZE books. callers get copies of the cached books.
+     */
+    private ApiResult cachedQuery(QueryKey key, Supplier<ApiResult> query) {
+        // 先取版本号再查询，缓存的结果不会比它标的版本旧
+        long version = tableVersions.get(Table.BOOK);
+        BookQueryResults cached = queryCache.get(key, version);
+        if (cached != null) {
+            return new ApiResult(true, "Successfully query book", copyOf(cached));
+        }
+        ApiResult result = query.get();
+        if (result.ok && ((BookQueryResults) result.payload).getCount() <= MAX_PAGE_SIZE) {
+            queryCache.put(key, version, copyOf((BookQueryResults) result.payload));
+        }
+        return result;
+    }
+
+    private static BookQueryResults copyOf(BookQueryResults results) {
+        List<Book> books = new ArrayList<>(results.getResults().size());
+        for (Book book : results.getResults()) {
+            books.add(book.clone());
+        }
+        BookQueryResults copy = new BookQueryResults(books);
+        copy.setNextCursor(results.getNextCursor());
+        return copy;
+    }
+
+    /**
+     * query books and hand them to handler one by one while they are read.
+     */
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, ResultHandler<Book> handler) {
+        return transaction(lease -> {
+            PreparedStatement pStmtQueryBook = prepareBookQuery(lease, conditions, null, 0);
+            // 让驱动边读边返回，而不是把结果集整个缓存在内存里
+            pStmtQueryBook.setFetchSize(connector.getConf().getType().streamingFetchSize());
+            int count = 0;
+            try (ResultSet rsQueryBook = pStmtQueryBook.executeQuery()) {
+                while (rsQueryBook.next()) {
+                    handler.accept(readBook(rsQueryBook));
+                    count++;
+                }
+            } catch (SQLException e) {
+                // 已经交出去的行无法收回，这时不能整体重试
+                if (count > 0) {
+                    throw new Exception(e.getMessage(), e);
+                }
+                throw e;
+            } finally {
+                // 语句会被缓存复用，恢复默认的读取方式
+                if (!pStmtQueryBook.isClosed()) {
+                    pStmtQueryBook.setFetchSize(0);
+                }
+            }
+            return new ApiResult(true, "Successfully query book", count);
+        });
+    }
+
+    /**
+     * books matching conditions in their order. when limit > 0, only the
+     * first limit books after the cursor position (if any), together with
+     * the cursor of the next page.
+     */
+    private BookQueryResults selectBooks(ConnectionLease lease, BookQueryConditions conditions,
+                                         PageCursor after, int limit) throws SQLException {
+        PreparedStatement pStmtQueryBook = prepareBookQuery(lease, conditions, after, limit);
+        // 执行对应的查询
+        // 将得到的书籍用Book形式存储
+        List<Book> books = new ArrayList<>();
+        try (ResultSet rsQueryBook = pStmtQueryBook.executeQuery()) {
+            while (rsQueryBook.next()) {
+                books.add(readBook(rsQueryBook));
+            }
+        }
+        String nextCursor = null;
+        if (limit > 0 && books.size() > limit) {
+            books.remove(limit);
+            Book last = books.get(limit - 1);
+            nextCursor = PageCursor.after(last, conditions.getSortBy(), conditions.getSortOrder()).encode();
+        }
+        BookQueryResults bookQueryResults = new BookQueryResults(books);
+        bookQueryResults.setNextCursor(nextCursor);
+        return bookQueryResults;
+    }
+
+    /**
+     * statement of queryBook with its parameters bound, see selectBooks().
+     */
+    private PreparedStatement prepareBookQuery(ConnectionLease lease, BookQueryConditions conditions,
+                                               PageCursor after, int limit) throws SQLException {
+        String category = conditions.getCategory(); // 类别点查（精确查询）
+        String title = conditions.getTitle(); // 书名点查（模糊查询）
+        String press = conditions.getPress(); // 出版社点查（模糊查询）
+        Integer minPublishYear = conditions.getMinPublishYear(); // 年份范围
+        Integer maxPublishYear = conditions.getMaxPublishYear();
+        String author = conditions.getAuthor(); // 作者点查（模糊查询）
+        Double minPrice = conditions.getMinPrice(); // 价格范围
+        Double maxPrice = conditions.getMaxPrice();
+        Book.SortColumn sortBy = conditions.getSortBy();
+        String column = sortBy.getValue();
+        boolean asc = conditions.getSortOrder() == SortOrder.ASC;
+        // 翻页时只取游标之后的行
+        String keyset = "True";
+        if (after != null) {
+            if (sortBy == Book.SortColumn.BOOK_ID) {
+                keyset = asc ? "book_id > ?" : "book_id < ?";
+            } else {
+                // 先按排序列划出范围（可以走索引），同值的行再按book_id接着往后
+                keyset = column + (asc ? " >= ?" : " <= ?") + " AND (" + column + (asc ? " > ?" : " < ?") + " OR book_id > ?)";
+            }
+        }
+        // 模糊查询先用三元组索引找出可能匹配的书，数据库只对这些书做LIKE
+        int[] candidates = searchCandidates(lease, conditions);
+        int slots = candidates == null || candidates.length <= 1 ? 1 : Integer.highestOneBit(candidates.length - 1) << 1;
+        String narrowed = "True";
+        if (candidates != null) {
+            // IN 列表的长度取2的幂，重复最后一个book_id补齐，缓存的语句不会太多
+            narrowed = candidates.length == 0 ? "False" : "book_id IN (?" + String.join("", Collections.nCopies(slots - 1, ", ?")) + ")";
+        }
+        // queryBook进行查询对应书籍
+        // 添加对应的条件，使用 = 来精确查询，使用 LIKE 来模糊查询，当为null时，使用True来占位
+        String queryBook = "SELECT * FROM book WHERE " + (conditions.getCategory() == null ? "True" : "category = ?") +
+                " AND " + (conditions.getTitle() == null ? "True" : "title LIKE ?") +
+                " AND " + (conditions.getPress() == null ? "True" : "press LIKE ?") +
+                " AND " + (conditions.getAuthor() == null ? "True" : "author LIKE ?") +
+                " AND " + (conditions.getMinPublishYear() == null ? "True" : "publish_year >= ?") +
+                " AND " + (conditions.getMaxPublishYear() == null ? "True" : "publish_year <= ?") +
+                " AND " + (conditions.getMinPrice() == null ? "True" : "price >= ?") +
+                " AND " + (conditions.getMaxPrice() == null ? "True" : "price <= ?")
+                + " AND " + narrowed
+                + " AND " + keyset
+                + " ORDER BY " + column + " " + conditions.getSortOrder().getValue()
+                + (sortBy == Book.SortColumn.BOOK_ID ? "" : ", book_id ASC") // 最后确保排序的顺序
+                + (limit > 0 ? " " + connector.getConf().getType().limitClause() : "");
+        PreparedStatement pStmtQueryBook = lease.prepareStatement(queryBook);
+        // 传入参数，用index表示传入第几个参数
+        int index = 1;
+        if (category != null) {
+            pStmtQueryBook.setString(index++, category);
+        } // 精确查询
+        if (title != null) {
+            pStmtQueryBook.setString(index++, "%" + title + "%");
+        } // 模糊查询
+        if (press != null) {
+            pStmtQueryBook.setString(index++, "%" + press + "%");
+        } // 模糊查询
+        if (author != null) {
+            pStmtQueryBook.setString(index++, "%" + author + "%");
+        } // 模糊查询
+        if (minPublishYear != null) {
+            pStmtQueryBook.setInt(index++, minPublishYear);
+        }
+        if (maxPublishYear != null) {
+            pStmtQueryBook.setInt(index++, maxPublishYear);
+        }
+        if (minPrice != null) {
+            pStmtQueryBook.setDouble(index++, minPrice);
+        }
+        if (maxPrice != null) {
+            pStmtQueryBook.setDouble(index++, maxPrice);
+        }
+        if (candidates != null && candidates.length > 0) {
+            for (int i = 0; i < slots; i++) {
+                pStmtQueryBook.setInt(index++, candidates[Math.min(i, candidates.length - 1)]);
+            }
+        }
+        if (after != null) {
+            if (sortBy != Book.SortColumn.BOOK_ID) {
+                bindSortValue(pStmtQueryBook, index++, sortBy, after.getValue());
+                bindSortValue(pStmtQueryBook, index++, sortBy, after.getValue());
+            }
+            pStmtQueryBook.setInt(index++, after.getId());
+        }
+        if (limit > 0) {
+            // 多取一行，用来判断后面还有没有
+            pStmtQueryBook.setInt(index++, limit + 1);
+        }
+        return pStmtQueryBook;
+    }
+
+    /**
+     * ids, ascending, of the books that may match the fuzzy conditions of
+     * the query, from the search index. null when it cannot narrow the query
+     * down to at most maxSearchCandidates books.
+     */
+    private int[] searchCandidates(ConnectionLease lease, BookQueryConditions conditions) throws SQLException {
+        String[] terms = {conditions.getTitle(), conditions.getPress(), conditions.getAuthor()};
+        boolean narrows = false;
+        for (String term : terms) {
+            narrows |= term != null && TrigramIndex.narrows(term);
+        }
+        if (!searchIndexEnabled || !narrows) {
+            return null;
+        }
+        SearchIndex index = ensureSearchIndex(lease);
+        TrigramIndex[] columns = {index.title, index.press, index.author};
+        int[] candidates = null;
+        for (int i = 0; i < terms.length; i++) {
+            int[] matching = terms[i] == null ? null : columns[i].candidates(terms[i]);
+            if (matching != null) {
+                candidates = candidates == null ? matching : TrigramIndex.intersect(candidates, matching);
+            }
+        }
+        return candidates.length > maxSearchCandidates ? null : candidates;
+    }
+
+    /**
+     * the search index, built from the book table first unless it holds
+     * every book changed through this process and is younger than the max
+     * age. books changed while the table is read are added to the new
+     * index by their transactions too, at worst twice.
+     */
+    private SearchIndex ensureSearchIndex(ConnectionLease lease) throws SQLException {
+        if (searchIndexBuilt == searchIndexChanges.get() && !searchIndexExpired()) {
+            return searchIndex;
+        }
+        synchronized (searchIndexBuild) {
+            long changes = searchIndexChanges.get();
+            if (searchIndexBuilt == changes && !searchIndexExpired()) {
+                return searchIndex;
+            }
+            // 新索引建好之前，查询继续用旧的，修改两边都记
+            SearchIndex built = new SearchIndex();
+            rebuilding = built;
+            long builtAt = System.nanoTime();
+            try {
+                PreparedStatement pStmtReadBooks = lease.prepareStatement("SELECT book_id, title, press, author FROM book");
+                pStmtReadBooks.setFetchSize(connector.getConf().getType().streamingFetchSize());
+                try (ResultSet rsReadBooks = pStmtReadBooks.executeQuery()) {
+                    while (rsReadBooks.next()) {
+                        int bookId = rsReadBooks.getInt(1);
+                        built.title.add(bookId, rsReadBooks.getString(2));
+                        built.press.add(bookId, rsReadBooks.getString(3));
+                        built.author.add(bookId, rsReadBooks.getString(4));
+                    }
+                } finally {
+                    if (!pStmtReadBooks.isClosed()) {
+                        pStmtReadBooks.setFetchSize(0);
+                    }
+                }
+                searchIndex = built;
+                searchIndexBuiltAt = builtAt;
+                searchIndexBuilt = changes;
+            } finally {
+                rebuilding = null;
+            }
+            return built;
+        }
+    }
+
+    /* other processes may have written books since the index was built, read them again */
+    private boolean searchIndexExpired() {
+        return searchIndexMaxAgeNanos > 0 && System.nanoTime() - searchIndexBuiltAt >= searchIndexMaxAgeNanos;
+    }
+
+    /* after a committed insert of book, or a change of its title, press or author */
+    private void indexBook(Book book) {
+        if (!searchIndexEnabled) {
+            return;
+        }
+        // 先读rebuilding：读到null时要么新索引还没开始读表，要么已经换上
+        for (SearchIndex index : new SearchIndex[]{rebuilding, searchIndex}) {
+            if (index != null) {
+                index.title.add(book.getBookId(), book.getTitle());
+                index.press.add(book.getBookId(), book.getPress());
+                index.author.add(book.getBookId(), book.getAuthor());
+            }
+        }
+    }
+
+    /* after a committed removal of book, or before a change of it is indexed */
+    private void unindexBook(Book book) {
+        if (!searchIndexEnabled) {
+            return;
+        }
+        for (SearchIndex index : new SearchIndex[]{rebuilding, searchIndex}) {
+            if (index != null) {
+                index.title.remove(book.getBookId(), book.getTitle());
+                index.press.remove(book.getBookId(), book.getPress());
+                index.author.remove(book.getBookId(), book.getAuthor());
+            }
+        }
+    }
+
+    /* after changes of books that are not known one by one, the next fuzzy query builds the index again */
+    private void staleSearchIndex() {
+        searchIndexChanges.incrementAndGet();
+    }
+
+    /* the book in the current row of rs */
+    private static Book readBook(ResultSet rs) throws SQLException {
+        Book book = new Book();
+        book.setBookId(rs.getInt("book_id"));
+        book.setCategory(rs.getString("category"));
+        book.setTitle(rs.getString("title"));
+        book.setPress(rs.getString("press"));
+        book.setPublishYear(rs.getInt("publish_year"));
+        book.setAuthor(rs.getString("author"));
+        book.setPrice(rs.getDouble("price"));
+        book.setStock(rs.getInt("stock"));
+        return book;
+    }
+
+    private static void bindSortValue(PreparedStatement stmt, int index, Book.SortColumn sortBy, String value)
+            throws SQLException {
+        try {
+            switch (sortBy) {
+                case PUBLISH_YEAR:
+                case STOCK:
+                    stmt.setInt(index, Integer.parseInt(value));
+                    break;
+                case PRICE:
+                    // 价格是decimal，用BigDecimal精确比较
+                    stmt.setBigDecimal(index, new BigDecimal(value));
+                    break;
+                default:
+                    stmt.setString(index, value);
+            }
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid cursor");
         }
     }
 
@@ -375,28 +816,34 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult borrowBook(Borrow borrow) {
-        Connection connection = connector.getConn();
-        try {
-            // 设置数据库连接的事务隔离
-            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        if (borrowEngine == BorrowEngine.GUARDED) {
+            return borrowBookGuarded(borrow);
+        }
+        return transaction(Connection.TRANSACTION_SERIALIZABLE, Table.BOOK, lease -> {
             // checkBorrow 检查是否该卡之前借过这本书但未归还
             String checkBorrow = "SELECT * FROM borrow WHERE card_id = ? AND book_id = ? AND return_time = 0";
-            PreparedStatement pStmtCheckBorrow = connection.prepareStatement(checkBorrow);
+            PreparedStatement pStmtCheckBorrow = lease.prepareStatement(checkBorrow);
             pStmtCheckBorrow.setInt(1, borrow.getCardId());
             pStmtCheckBorrow.setInt(2, borrow.getBookId());
-            ResultSet rsCheckBorrow = pStmtCheckBorrow.executeQuery();
-            // 借过这本书但未归还
-            if (rsCheckBorrow.next()) {
-                throw new SQLException("There's already a borrowed book not returned");
+            try (ResultSet rsCheckBorrow = pStmtCheckBorrow.executeQuery()) {
+                // 借过这本书但未归还
+                if (rsCheckBorrow.next()) {
+                    throw new SQLException("There's already a borrowed book not returned");
+                }
             }
             // 需要将库存量-1，并且判断是否能够库存量-1，如果不能则回滚
-            if (incBookStock(borrow.getBookId(), -1).ok == false) {
-                throw new SQLException("No more stock for the book");
+            try {
+                updateBookStock(lease, borrow.getBookId(), -1);
+            } catch (SQLException e) {
+                // 只改写业务错误的提示，死锁等数据库错误原样抛出
+                if (e.getSQLState() != null) {
+                    throw e;
+                }
+                throw new SQLException("No more stock for the book", e);
             }
-            ;
             // borrowBook 执行插入一条借书
             String borrowBook = "INSERT INTO borrow(card_id, book_id, borrow_time) VALUES(?, ?, ?)";
-            PreparedStatement pStmtBorrow = connection.prepareStatement(borrowBook);
+            PreparedStatement pStmtBorrow = lease.prepareStatement(borrowBook);
             pStmtBorrow.setInt(1, borrow.getCardId());
             pStmtBorrow.setInt(2, borrow.getBookId());
             pStmtBorrow.setLong(3, borrow.getBorrowTime());
@@ -405,13 +852,48 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (result != 1) {
                 throw new SQLException("Failed to borrow book");
             }
-            // 用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
-        return new ApiResult(true, "Successfully borrow book");
+            return new ApiResult(true, "Successfully borrow book");
+        });
+    }
+
+    /**
+     * borrowBook() of the guarded engine: one conditional update claims a copy,
+     * then the unique key on open loans rejects a second loan of the same book.
+     * runs at READ COMMITTED, the row lock taken by the update is enough.
+     */
+    private ApiResult borrowBookGuarded(Borrow borrow) {
+        return transaction(Connection.TRANSACTION_READ_COMMITTED, Table.BOOK, lease -> {
+            // claimStock 仅当还有库存时库存量-1，先锁book行再插入borrow，避免外键检查引起的死锁
+            String claimStock = "UPDATE book SET stock = stock - 1 WHERE book_id = ? AND stock > 0";
+            PreparedStatement pStmtClaimStock = lease.prepareStatement(claimStock);
+            pStmtClaimStock.setInt(1, borrow.getBookId());
+            // 没有更新任何行说明书不存在或没有库存
+            if (pStmtClaimStock.executeUpdate() != 1) {
+                throw new SQLException("No more stock for the book");
+            }
+            // 相对更新不知道新的库存，提交后让缓存的行失效
+            lease.afterCommit(() -> bookCache.invalidate(borrow.getBookId()));
+            // borrowBook 执行插入一条借书，该卡有未归还的这本书时违反唯一键
+            String borrowBook = "INSERT INTO borrow(card_id, book_id, borrow_time) VALUES(?, ?, ?)";
+            PreparedStatement pStmtBorrow = lease.prepareStatement(borrowBook);
+            pStmtBorrow.setInt(1, borrow.getCardId());
+            pStmtBorrow.setInt(2, borrow.getBookId());
+            pStmtBorrow.setLong(3, borrow.getBorrowTime());
+            int result;
+            try {
+                result = pStmtBorrow.executeUpdate();
+            } catch (SQLException e) {
+                if (SqlErrors.isDuplicateKey(e)) {
+                    throw new SQLException("There's already a borrowed book not returned", e);
+                }
+                throw e;
+            }
+            // result 不等于1则说明插入失败
+            if (result != 1) {
+                throw new SQLException("Failed to borrow book");
+            }
+            return new ApiResult(true, "Successfully borrow book");
+        });
     }
 
     /**
@@ -419,22 +901,22 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult returnBook(Borrow borrow) {
-        Connection connection = connector.getConn();
-        try {
+        return transaction(Table.BOOK, lease -> {
             // checkBorrow 检查是否有对应卡借的书
             String checkBorrow = "SELECT * FROM borrow WHERE card_id = ? AND book_id = ? AND borrow_time = ?";
-            PreparedStatement pStmtCheckBorrow = connection.prepareStatement(checkBorrow);
+            PreparedStatement pStmtCheckBorrow = lease.prepareStatement(checkBorrow);
             pStmtCheckBorrow.setInt(1, borrow.getCardId());
             pStmtCheckBorrow.setInt(2, borrow.getBookId());
             pStmtCheckBorrow.setLong(3, borrow.getBorrowTime());
-            ResultSet rsCheckBorrow = pStmtCheckBorrow.executeQuery();
-            // 说明这张卡没有借对应的书
-            if (!rsCheckBorrow.next()) {
-                throw new SQLException("No such card borrow the according book");
-            }
-            // returnBook 表示还书并更新returnTime
-            String returnBook = "UPDATE borrow SET return_time = ? WHERE card_id = ? AND book_id = ? AND borrow_time = ?";
-            PreparedStatement pStmtReturnBook = connection.prepareStatement(returnBook);
+            try (ResultSet rsCheckBorrow = pStmtCheckBorrow.executeQuery()) {
+                // 说明这张卡没有借对应的书
+                if (!rsCheckBorrow.next()) {
+                    throw new SQLException("No such card borrow the according book");
+                }
+            }
+            // returnBook 表示还书并更新returnTime，同时清除open_loan以释放未归还借书的唯一键
+            String returnBook = "UPDATE borrow SET return_time = ?, open_loan = NULL WHERE card_id = ? AND book_id = ? AND borrow_time = ?";
+            PreparedStatement pStmtReturnBook = lease.prepareStatement(returnBook);
             pStmtReturnBook.setLong(1, borrow.getReturnTime());
             pStmtReturnBook.setInt(2, borrow.getCardId());
             pStmtReturnBook.setInt(3, borrow.getBookId());
@@ -445,14 +927,20 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 throw new SQLException("Failed to return book");
             }
             // 库存量 + 1
-            incBookStock(borrow.getBookId(), 1);
-            // 用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
-        return new ApiResult(true, "Successfully return book");
+            if (borrowEngine == BorrowEngine.GUARDED) {
+                // 相对更新，不需要先读出库存
+                String restoreStock = "UPDATE book SET stock = stock + 1 WHERE book_id = ?";
+                PreparedStatement pStmtRestoreStock = lease.prepareStatement(restoreStock);
+                pStmtRestoreStock.setInt(1, borrow.getBookId());
+                if (pStmtRestoreStock.executeUpdate() != 1) {
+                    throw new SQLException("Book does not exist");
+                }
+                lease.afterCommit(() -> bookCache.invalidate(borrow.getBookId()));
+            } else {
+                updateBookStock(lease, borrow.getBookId(), 1);
+            }
+            return new ApiResult(true, "Successfully return book");
+        });
     }
 
     /**
@@ -460,37 +948,32 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult showBorrowHistory(int cardId) {
-        Connection connection = connector.getConn();
-        try {
+        return transaction(lease -> {
             // cardBorrow 查询对应cardId借的书，按照借书时间递减、书号递增的方式排序
             String cardBorrow = "SELECT * FROM borrow NATURAL JOIN book WHERE card_id = ? ORDER BY borrow_time DESC, book_id ASC";
-            PreparedStatement pStmtCheckBorrow = connection.prepareStatement(cardBorrow);
+            PreparedStatement pStmtCheckBorrow = lease.prepareStatement(cardBorrow);
             pStmtCheckBorrow.setInt(1, cardId);
-            ResultSet rsCardBorrow = pStmtCheckBorrow.executeQuery();
             // 将所有查询到的item加入histories当中
             List<BorrowHistories.Item> histories = new ArrayList<>();
-            while (rsCardBorrow.next()) {
-                BorrowHistories.Item item = new BorrowHistories.Item();
-                item.setCardId(rsCardBorrow.getInt("card_id"));
-                item.setBookId(rsCardBorrow.getInt("book_id"));
-                item.setCategory(rsCardBorrow.getString("category"));
-                item.setTitle(rsCardBorrow.getString("title"));
-                item.setPress(rsCardBorrow.getString("press"));
-                item.setPublishYear(rsCardBorrow.getInt("publish_year"));
-                item.setAuthor(rsCardBorrow.getString("author"));
-                item.setPrice(rsCardBorrow.getDouble("price"));
-                item.setBorrowTime(rsCardBorrow.getLong("borrow_time"));
-                item.setReturnTime(rsCardBorrow.getLong("return_time"));
-                histories.add(item);
-            }
-            // 用commit递交
-            commit(connection);
+            try (ResultSet rsCardBorrow = pStmtCheckBorrow.executeQuery()) {
+                while (rsCardBorrow.next()) {
+                    BorrowHistories.Item item = new BorrowHistories.Item();
+                    item.setCardId(rsCardBorrow.getInt("card_id"));
+                    item.setBookId(rsCardBorrow.getInt("book_id"));
+                    item.setCategory(rsCardBorrow.getString("category"));
+                    item.setTitle(rsCardBorrow.getString("title"));
+                    item.setPress(rsCardBorrow.getString("press"));
+                    item.setPublishYear(rsCardBorrow.getInt("publish_year"));
+                    item.setAuthor(rsCardBorrow.getString("author"));
+                    item.setPrice(rsCardBorrow.getDouble("price"));
+                    item.setBorrowTime(rsCardBorrow.getLong("borrow_time"));
+                    item.setReturnTime(rsCardBorrow.getLong("return_time"));
+                    histories.add(item);
+                }
+            }
             BorrowHistories borrowHistories = new BorrowHistories(histories);
             return new ApiResult(true, "Successfully show borrow history", borrowHistories);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     /**
@@ -498,25 +981,25 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult registerCard(Card card) {
-        Connection connection = connector.getConn();
-        try {
+        return transaction(Table.CARD, lease -> {
             String name = card.getName();
             String department = card.getDepartment();
             String cardType = card.getType().getStr();
             // checkCard 检查是否已经有相同的card
             String checkCard = "SELECT * FROM card WHERE name = ? AND department = ? AND type = ?";
-            PreparedStatement pStmtCheckCard = connection.prepareStatement(checkCard);
+            PreparedStatement pStmtCheckCard = lease.prepareStatement(checkCard);
             pStmtCheckCard.setString(1, name);
             pStmtCheckCard.setString(2, department);
             pStmtCheckCard.setString(3, cardType);
-            ResultSet rsCard = pStmtCheckCard.executeQuery();
-            // rsCard非空说明已经有相同的card
-            if (rsCard.next()) {
-                throw new SQLException("Card already exists");
+            try (ResultSet rsCard = pStmtCheckCard.executeQuery()) {
+                // rsCard非空说明已经有相同的card
+                if (rsCard.next()) {
+                    throw new SQLException("Card already exists");
+                }
             }
             // registerCard 用来插入一条新card，注意card_id是自增的
             String registerCard = "INSERT INTO card(name, department, type) VALUES(?, ?, ?)";
-            PreparedStatement pStmtRegisterCard = connection.prepareStatement(registerCard, Statement.RETURN_GENERATED_KEYS);
+            PreparedStatement pStmtRegisterCard = lease.prepareStatement(registerCard, Statement.RETURN_GENERATED_KEYS);
             pStmtRegisterCard.setString(1, name);
             pStmtRegisterCard.setString(2, department);
             pStmtRegisterCard.setString(3, cardType);
@@ -525,18 +1008,29 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (result != 1) {
                 throw new SQLException("Failed to register card");
             }
-            // 用commit递交
-            commit(connection);
             // 得到自增的cardId
-            ResultSet rsInsert = pStmtRegisterCard.getGeneratedKeys();
-            if (rsInsert.next()) {
-                card.setCardId(rsInsert.getInt(1));
+            try (ResultSet rsInsert = pStmtRegisterCard.getGeneratedKeys()) {
+                if (rsInsert.next()) {
+                    card.setCardId(rsInsert.getInt(1));
+                }
             }
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
+            return new ApiResult(true, "Successfully register a new card");
+        });
+    }
+
+    /**
+     * bulk load cards through the database's {@link BulkLoader}.
+     */
+    @Override
+    public ApiResult bulkLoadCards(List<Card> cards) {
+        BulkLoader loader = connector.getConf().getType().getBulkLoader();
+        if (loader == null) {
+            return new ApiResult(false, "Bulk load is not supported by the database");
         }
-        return new ApiResult(true, "Successfully register a new card");
+        return transaction(Table.CARD, lease -> {
+            int stored = loader.loadCards(lease.getConnection(), cards);
+            return new ApiResult(true, "Successfully bulk load cards", stored);
+        });
     }
 
     /**
@@ -544,75 +1038,66 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult removeCard(int cardId) {
-        Connection connection = connector.getConn();
-        try {
+        return transaction(Table.CARD, lease -> {
             // checkCard 检查是否有cardId的card
             String checkCard = "SELECT * FROM card WHERE card_id = ?";
-            PreparedStatement pStmtCheckCard = connection.prepareStatement(checkCard);
+            PreparedStatement pStmtCheckCard = lease.prepareStatement(checkCard);
             pStmtCheckCard.setInt(1, cardId);
-            ResultSet rsCard = pStmtCheckCard.executeQuery();
-            // 没有对应的card
-            if (!rsCard.next()) {
-                throw new SQLException("Card does not exist");
+            try (ResultSet rsCard = pStmtCheckCard.executeQuery()) {
+                // 没有对应的card
+                if (!rsCard.next()) {
+                    throw new SQLException("Card does not exist");
+                }
             }
             // checkNotReturned 检查是否有书未还
             String checkNotReturned = "SELECT * FROM borrow WHERE card_id = ? AND borrow.return_time = 0";
-            PreparedStatement pStmtCheckNotReturned = connection.prepareStatement(checkNotReturned);
+            PreparedStatement pStmtCheckNotReturned = lease.prepareStatement(checkNotReturned);
             pStmtCheckNotReturned.setInt(1, cardId);
-            ResultSet rsNotReturned = pStmtCheckNotReturned.executeQuery();
-            // 非空说明还有书未还，无法删除
-            if (rsNotReturned.next()) {
-                throw new SQLException("There's a book not returned with this card");
+            try (ResultSet rsNotReturned = pStmtCheckNotReturned.executeQuery()) {
+                // 非空说明还有书未还，无法删除
+                if (rsNotReturned.next()) {
+                    throw new SQLException("There's a book not returned with this card");
+                }
             }
             // removeCard 删除对应card
             String removeCard = "DELETE FROM card WHERE card_id = ?";
-            PreparedStatement pStmtRemoveCard = connection.prepareStatement(removeCard);
+            PreparedStatement pStmtRemoveCard = lease.prepareStatement(removeCard);
             pStmtRemoveCard.setInt(1, cardId);
             int result = pStmtRemoveCard.executeUpdate();
             // result 不等于1说明删除失败
             if (result != 1) {
                 throw new SQLException("Failed to remove card");
             }
-            // 用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
-        return new ApiResult(true, "Successfully remove a card");
+            return new ApiResult(true, "Successfully remove a card");
+        });
     }
 
     /**
      * show all books order by book_id.
      */
     public ApiResult showBooks() {
-        Connection connection = connector.getConn();
-        try {
+        return transaction(lease -> {
             // listBooks 查询所有book并以bookId生序
             String listBooks = "SELECT * FROM book ORDER BY book_id ASC";
-            PreparedStatement pStmtShowBooks = connection.prepareStatement(listBooks);
-            ResultSet rsShowBooks = pStmtShowBooks.executeQuery();
+            PreparedStatement pStmtShowBooks = lease.prepareStatement(listBooks);
             // books 存储所有对应book
             List<Book> books = new ArrayList<>();
-            while (rsShowBooks.next()) {
-                Book book = new Book();
-                book.setBookId(rsShowBooks.getInt("book_id"));
-                book.setCategory(rsShowBooks.getString("category"));
-                book.setTitle(rsShowBooks.getString("title"));
-                book.setPress(rsShowBooks.getString("press"));
-                book.setPublishYear(rsShowBooks.getInt("publish_year"));
-                book.setAuthor(rsShowBooks.getString("author"));
-                book.setPrice(rsShowBooks.getDouble("price"));
-                book.setStock(rsShowBooks.getInt("stock"));
-                books.add(book);
-            }
-            // 用commit递交
-            commit(connection);
+            try (ResultSet rsShowBooks = pStmtShowBooks.executeQuery()) {
+                while (rsShowBooks.next()) {
+                    Book book = new Book();
+                    book.setBookId(rsShowBooks.getInt("book_id"));
+                    book.setCategory(rsShowBooks.getString("category"));
+                    book.setTitle(rsShowBooks.getString("title"));
+                    book.setPress(rsShowBooks.getString("press"));
+                    book.setPublishYear(rsShowBooks.getInt("publish_year"));
+                    book.setAuthor(rsShowBooks.getString("author"));
+                    book.setPrice(rsShowBooks.getDouble("price"));
+                    book.setStock(rsShowBooks.getInt("stock"));
+                    books.add(book);
+                }
+            }
             return new ApiResult(true, "Successfully show books", books);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     /**
@@ -620,32 +1105,79 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult showCards() {
-        Connection connection = connector.getConn();
-        try {
+        return transaction(lease -> {
             // listCards 查询所有card并以cardId生序
             String listCards = "SELECT * FROM card ORDER BY card_id ASC";
-            PreparedStatement pStmtShowCards = connection.prepareStatement(listCards);
-            ResultSet rsShowCards = pStmtShowCards.executeQuery();
+            PreparedStatement pStmtShowCards = lease.prepareStatement(listCards);
             // cards 存储所有对应card
             List<Card> cards = new ArrayList<>();
-            while (rsShowCards.next()) {
-                Card card = new Card();
-                card.setCardId(rsShowCards.getInt("card_id"));
-                card.setName(rsShowCards.getString("name"));
-                card.setDepartment(rsShowCards.getString("department"));
-                Card.CardType cardType = Card.CardType.values(rsShowCards.getString("type"));
-                card.setType(cardType);
-                cards.add(card);
-            }
-            // 用commit递交
-            commit(connection);
+            try (ResultSet rsShowCards = pStmtShowCards.executeQuery()) {
+                while (rsShowCards.next()) {
+                    Card card = new Card();
+                    card.setCardId(rsShowCards.getInt("card_id"));
+                    card.setName(rsShowCards.getString("name"));
+                    card.setDepartment(rsShowCards.getString("department"));
+                    Card.CardType cardType = Card.CardType.values(rsShowCards.getString("type"));
+                    card.setType(cardType);
+                    cards.add(card);
+                }
+            }
             // 创建CardList
             CardList CL = new CardList(cards);
             return new ApiResult(true, "Successfully show cards", CL);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
+        });
+    }
+
+    /**
+     * list one page of books order by book_id.
+     */
+    @Override
+    public ApiResult showBooks(int limit, String cursor) {
+        return queryBook(new BookQueryConditions(), limit, cursor);
+    }
+
+    /**
+     * list one page of cards order by card_id, starting after cursor.
+     */
+    @Override
+    public ApiResult showCards(int limit, String cursor) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ApiResult(false, "Page size should be between 1 and " + MAX_PAGE_SIZE);
+        }
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor);
+        if (cursor != null && (after == null || !after.matches("card_id", SortOrder.ASC))) {
+            return new ApiResult(false, "Invalid cursor");
         }
+        return transaction(lease -> {
+            // 按card_id走主键，从游标处开始取，多取一行判断是否还有下一页
+            String listCards = "SELECT * FROM card" + (after == null ? "" : " WHERE card_id > ?") +
+                    " ORDER BY card_id ASC " + connector.getConf().getType().limitClause();
+            PreparedStatement pStmtShowCards = lease.prepareStatement(listCards);
+            int index = 1;
+            if (after != null) {
+                pStmtShowCards.setInt(index++, after.getId());
+            }
+            pStmtShowCards.setInt(index, limit + 1);
+            List<Card> cards = new ArrayList<>();
+            try (ResultSet rsShowCards = pStmtShowCards.executeQuery()) {
+                while (rsShowCards.next()) {
+                    Card card = new Card();
+                    card.setCardId(rsShowCards.getInt("card_id"));
+                    card.setName(rsShowCards.getString("name"));
+                    card.setDepartment(rsShowCards.getString("department"));
+                    card.setType(Card.CardType.values(rsShowCards.getString("type")));
+                    cards.add(card);
+                }
+            }
+            String nextCursor = null;
+            if (cards.size() > limit) {
+                cards.remove(limit);
+                nextCursor = new PageCursor("card_id", SortOrder.ASC, null, cards.get(limit - 1).getCardId()).encode();
+            }
+            CardList CL = new CardList(cards);
+            CL.setNextCursor(nextCursor);
+            return new ApiResult(true, "Successfully show cards", CL);
+        });
     }
 
     /**
@@ -653,19 +1185,19 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     public ApiResult updateCard(Card card) {
         // id 不能修改
-        Connection connection = connector.getConn();
-        try {
+        return transaction(Table.CARD, lease -> {
             // checkCard 检查是否有对应的id
             String checkCard = "SELECT * FROM card WHERE card_id = ?";
-            PreparedStatement pStmtCheckCard = connection.prepareStatement(checkCard);
+            PreparedStatement pStmtCheckCard = lease.prepareStatement(checkCard);
             pStmtCheckCard.setInt(1, card.getCardId());
-            ResultSet rsCard = pStmtCheckCard.executeQuery();
-            if (!rsCard.next()) {
-                throw new SQLException("Card does not exist");
+            try (ResultSet rsCard = pStmtCheckCard.executeQuery()) {
+                if (!rsCard.next()) {
+                    throw new SQLException("Card does not exist");
+                }
             }
             // updateCard 执行更新card信息，注意不能修改id
             String updateCard = "UPDATE card SET name = ?, department = ?, type = ? WHERE card_id = ?";
-            PreparedStatement pStmtUpdateCard = connection.prepareStatement(updateCard);
+            PreparedStatement pStmtUpdateCard = lease.prepareStatement(updateCard);
             pStmtUpdateCard.setString(1, card.getName());
             pStmtUpdateCard.setString(2, card.getDepartment());
             pStmtUpdateCard.setString(3, card.getType().getStr());
@@ -675,13 +1207,8 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (result != 1) {
                 throw new SQLException("Failed to update card");
             }
-            // 用commit递交
-            commit(connection);
-        } catch (Exception e) {
-            rollback(connection);
-            return new ApiResult(false, e.getMessage());
-        }
-        return new ApiResult(true, "Successfully update card");
+            return new ApiResult(true, "Successfully update card");
+        });
     }
 
     /**
@@ -689,40 +1216,305 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
      */
     @Override
     public ApiResult resetDatabase() {
-        Connection conn = connector.getConn();
-        try {
-            Statement stmt = conn.createStatement();
-            DBInitializer initializer = connector.getConf().getType().getDbInitializer();
-            stmt.addBatch(initializer.sqlDropBorrow());
-            stmt.addBatch(initializer.sqlDropBook());
-            stmt.addBatch(initializer.sqlDropCard());
-            stmt.addBatch(initializer.sqlCreateCard());
-            stmt.addBatch(initializer.sqlCreateBook());
-            stmt.addBatch(initializer.sqlCreateBorrow());
-            stmt.executeBatch();
-            commit(conn);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
+        return transaction(Connection.TRANSACTION_NONE, Table.values(), lease -> {
+            // DDL会隐式提交，无论成败都先清空缓存
+            bookCache.clear();
+            staleSearchIndex();
+            lease.afterCommit(() -> {
+                bookCache.clear();
+                staleSearchIndex();
+            });
+            Connection conn = lease.getConnection();
+            try (Statement stmt = conn.createStatement()) {
+                DBInitializer initializer = connector.getConf().getType().getDbInitializer();
+                // 逐条执行：rewriteBatchedStatements 会把批量的语句拼成一条多语句查询
+                String[] ddl = {initializer.sqlDropBorrow(), initializer.sqlDropBook(), initializer.sqlDropCard(),
+                        initializer.sqlDropSchemaVersion(),
+                        initializer.sqlCreateCard(), initializer.sqlCreateBook(), initializer.sqlCreateBorrow()};
+                for (String sql : ddl) {
+                    stmt.execute(sql);
+                }
+            }
+            // 建好的是版本1的表，再执行全部迁移
+            SchemaMigrations.migrate(conn, connector.getConf().getType().getDbInitializer());
+            return new ApiResult(true, null);
+        });
+    }
+
+    /**
+     * create the tables when the database has none of them yet, e.g. a new
+     * embedded H2 database. a database holding some of the tables is left
+     * as it is. returns true in payload if the tables were created.
+     */
+    public ApiResult createTablesIfMissing() {
+        ApiResult found = transaction(lease -> {
+            boolean any = false;
+            try (ResultSet rs = lease.getConnection().getMetaData().getTables(
+                    lease.getConnection().getCatalog(), null, "%", new String[]{"TABLE"})) {
+                while (rs.next() && !any) {
+                    String name = rs.getString("TABLE_NAME");
+                    any = name.equalsIgnoreCase("book") || name.equalsIgnoreCase("card")
+                            || name.equalsIgnoreCase("borrow");
+                }
+            }
+            return new ApiResult(true, null, any);
+        });
+        if (!found.ok) {
+            return found;
+        }
+        if ((Boolean) found.payload) {
+            return new ApiResult(true, null, false);
         }
-        return new ApiResult(true, null);
+        ApiResult reset = resetDatabase();
+        return reset.ok ? new ApiResult(true, "Created the tables", true) : reset;
     }
 
-    private void rollback(Connection conn) {
+    /**
+     * run the schema migrations the tables have not had yet, without
+     * touching their rows. returns the version the schema had in payload.
+     */
+    public ApiResult migrateSchema() {
+        return transaction(lease -> {
+            DBInitializer initializer = connector.getConf().getType().getDbInitializer();
+            int from = SchemaMigrations.migrate(lease.getConnection(), initializer);
+            int to = SchemaMigrations.latestVersion(initializer);
+            return new ApiResult(true, from == to ? null : "Migrated the schema from version " + from + " to " + to, from);
+        });
+    }
+
+    /**
+     * fill the book cache with up to its capacity of books, threads ranges
+     * of book_id read at the same time on connections of their own.
+     * returns the number of books read in payload.
+     */
+    public ApiResult warmUpBookCache(int threads) {
+        if (!bookCache.isEnabled() || threads < 1) {
+            return new ApiResult(true, null, 0);
+        }
+        long[] stamps = bookCache.stamps();
+        ApiResult bounds = transaction(lease -> {
+            PreparedStatement pStmtBounds = lease.prepareStatement("SELECT MIN(book_id), MAX(book_id) FROM book");
+            try (ResultSet rsBounds = pStmtBounds.executeQuery()) {
+                rsBounds.next();
+                // 空表时MIN为NULL
+                long min = rsBounds.getLong(1);
+                return new ApiResult(true, null, rsBounds.wasNull() ? null : new long[]{min, rsBounds.getLong(2)});
+            }
+        });
+        if (!bounds.ok || bounds.payload == null) {
+            return bounds.ok ? new ApiResult(true, null, 0) : bounds;
+        }
+        long min = ((long[]) bounds.payload)[0];
+        long max = ((long[]) bounds.payload)[1];
+        long span = (max - min + threads) / threads;
+        int rowsPerRange = (bookCache.getCapacity() + threads - 1) / threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
         try {
-            conn.rollback();
-        } catch (Exception e) {
-            e.printStackTrace();
+            List<Future<ApiResult>> ranges = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                long from = min + i * span;
+                long to = Math.min(max, from + span - 1);
+                ranges.add(pool.submit(() -> transaction(lease -> {
+                    String readRange = "SELECT * FROM book WHERE book_id >= ? AND book_id <= ? ORDER BY book_id "
+                            + connector.getConf().getType().limitClause();
+                    PreparedStatement pStmtReadRange = lease.prepareStatement(readRange);
+                    pStmtReadRange.setLong(1, from);
+                    pStmtReadRange.setLong(2, to);
+                    pStmtReadRange.setInt(3, rowsPerRange);
+                    int read = 0;
+                    try (ResultSet rsReadRange = pStmtReadRange.executeQuery()) {
+                        while (rsReadRange.next()) {
+                            bookCache.fill(readBook(rsReadRange), stamps);
+                            read++;
+                        }
+                    }
+                    return new ApiResult(true, null, read);
+                })));
+            }
+            int read = 0;
+            for (Future<ApiResult> range : ranges) {
+                ApiResult result = range.get();
+                if (!result.ok) {
+                    return result;
+                }
+                read += (Integer) result.payload;
+            }
+            return new ApiResult(true, "Successfully warm up the book cache", read);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ApiResult(false, "Interrupted");
+        } catch (ExecutionException e) {
+            return new ApiResult(false, e.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * build the search index of fuzzy queryBook now rather than on the
+     * first fuzzy query. returns the number of distinct trigrams in payload.
+     */
+    public ApiResult buildSearchIndex() {
+        if (!searchIndexEnabled) {
+            return new ApiResult(true, null, 0);
+        }
+        return transaction(lease -> {
+            SearchIndex index = ensureSearchIndex(lease);
+            return new ApiResult(true, "Successfully build the search index",
+                    index.title.size() + index.press.size() + index.author.size());
+        });
+    }
+
+    /* book rows cached by this library, with their hit & miss counters */
+    public BookCache getBookCache() {
+        return bookCache;
+    }
+
+    /* results of queryBook cached by this library, with their hit & miss counters */
+    public ResultCache<?, ?> getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * run work as one transaction on a leased connection, at the connection's
+     * default isolation level.
+     */
+    private ApiResult transaction(Work work) {
+        return transaction(Connection.TRANSACTION_NONE, NO_TABLES, work);
+    }
+
+    private ApiResult transaction(int isolation, Work work) {
+        return transaction(isolation, NO_TABLES, work);
+    }
+
+    /* a transaction that may change the table, see transaction(int, Table[], Work) */
+    private ApiResult transaction(Table changes, Work work) {
+        return transaction(Connection.TRANSACTION_NONE, new Table[]{changes}, work);
+    }
+
+    private ApiResult transaction(int isolation, Table changes, Work work) {
+        return transaction(isolation, new Table[]{changes}, work);
+    }
+
+    /**
+     * run work as one transaction on a leased connection: commit when it
+     * returns, roll back when it throws. deadlocks & serialization failures
+     * are retried as a whole with a fresh lease, other errors are reported
+     * as a failed ApiResult.
+     * TRANSACTION_NONE stands for the connection's default isolation level.
+     * the versions of the changed tables are bumped once a commit was tried,
+     * a commit that failed may still have been applied.
+     */
+    private ApiResult transaction(int isolation, Table[] changes, Work work) {
+        for (int attempt = 1; ; attempt++) {
+            ConnectionLease lease = null;
+            Exception failure;
+            boolean committing = false;
+            try {
+                lease = connector.lease();
+                if (isolation == Connection.TRANSACTION_NONE) {
+                    lease.useDefaultTransactionIsolation();
+                } else {
+                    lease.setTransactionIsolation(isolation);
+                }
+                ApiResult result = work.run(lease);
+                committing = true;
+                commit(lease.getConnection());
+                lease.committed();
+                retryPolicy.succeeded(attempt);
+                return result;
+            } catch (Exception e) {
+                rollback(lease);
+                failure = e;
+            } finally {
+                release(lease);
+                // 提交之后才增加版本号，先取版本号再查询的读者不会把新版本号给旧数据
+                if (committing) {
+                    tableVersions.bump(changes);
+                }
+            }
+            // 等待时不占用连接，其他事务可以先完成
+            if (!retryPolicy.retry(failure, attempt)) {
+                return new ApiResult(false, failure.getMessage());
+            }
         }
     }
 
-    private void commit(Connection conn) {
+    private void rollback(ConnectionLease lease) {
+        if (lease == null) {
+            return;
+        }
         try {
-            conn.commit();
+            lease.getConnection().rollback();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    private void release(ConnectionLease lease) {
+        if (lease != null) {
+            lease.close();
+        }
+    }
+
+    /* a failed commit is a failed transaction, serialization failures may only show up here */
+    private void commit(Connection conn) throws SQLException {
+        conn.commit();
+    }
+
+    /* versions of the tables changed through this library */
+    public TableVersions getTableVersions() {
+        return tableVersions;
+    }
+
+    /* retry counters of this library */
+    public RetryPolicy.Stats getRetryStats() {
+        return retryPolicy.getStats();
+    }
+
+    /**
+     * body of a transaction, see transaction().
+     */
+    private interface Work {
+        ApiResult run(ConnectionLease lease) throws Exception;
+    }
+
+    /* trigram indexes of the fuzzy columns of book */
+    private static final class SearchIndex {
+        private final TrigramIndex title = new TrigramIndex();
+        private final TrigramIndex press = new TrigramIndex();
+        private final TrigramIndex author = new TrigramIndex();
+    }
+
+    /**
+     * key of the query cache: the canonical conditions, and for one page
+     * its size & cursor (limit 0 for all results).
+     */
+    private static final class QueryKey {
+        private final BookQueryConditions conditions;
+        private final int limit;
+        private final String cursor;
+
+        QueryKey(BookQueryConditions conditions, int limit, String cursor) {
+            this.conditions = conditions.canonical();
+            this.limit = limit;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            QueryKey key = (QueryKey) o;
+            return limit == key.limit &&
+                    conditions.equals(key.conditions) &&
+                    Objects.equals(cursor, key.cursor);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(conditions, limit, cursor);
+        }
+    }
 
 }
@@ -1,3 +1,4 @@
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -6,15 +7,37 @@ import entities.Book;
 import entities.Borrow;
 import entities.Card;
 import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.BookQueryResults;
 import queries.BorrowHistories;
 import queries.CardList;
+import queries.SortOrder;
+import utils.BookCache;
 import utils.ConnectConfig;
+import utils.ContentEncoding;
 import utils.DatabaseConnector;
+import utils.JsonReader;
+import utils.JsonWriter;
+import utils.LatencyHistogram;
+import utils.ResultCache;
+import utils.RetryPolicy;
+import utils.SlowQueryLog;
+import utils.StatementCache;
+import utils.TableVersions;
+import utils.TableVersions.Table;
+import utils.VirtualThreads;
+import utils.WorkerPool;
 
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLOutput;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 public class Main {
@@ -22,6 +45,16 @@ public class Main {
     private static final Logger log = Logger.getLogger(Main.class.getName());
     private static LibraryManagementSystem library;
     private static DatabaseConnector connector;
+    private static LibraryManagementSystemImpl libraryImpl;
+    private static MemoryLibrary memory;
+    private static TableVersions tableVersions;
+    private static WorkerPool workers;
+    private static GatedLibrary gate;
+    private static InstrumentedLibrary instrumented;
+    private static ExecutorService virtualThreads;
+    private static int maxJsonLength;
+    private static boolean compression;
+    private static int compressionMinSize;
 
     public static void main(String[] args) {
 
@@ -30,14 +63,65 @@ public class Main {
             // parse connection config from "resources/application.yaml"
             ConnectConfig conf = new ConnectConfig();
             log.info("Success to parse connect config. " + conf.toString());
-            // connect to database
-            connector = new DatabaseConnector(conf); // 创建数据库连接器
-            boolean connStatus = connector.connect();
-            if (!connStatus) {
-                log.severe("Failed to connect database.");
-                System.exit(1);
-            }
-            library = new LibraryManagementSystemImpl(connector);
+            maxJsonLength = conf.getServerMaxJsonLength();
+            compression = conf.isServerCompression();
+            compressionMinSize = conf.getServerCompressionMinSize();
+            if (conf.isMemoryEngine()) {
+                // 数据全部在内存中，不连接数据库；dir为空时不落盘
+                memory = conf.getMemoryDir().isEmpty() ? new MemoryLibrary()
+                        : new MemoryLibrary(new File(conf.getMemoryDir()), conf.getMemorySnapshotIntervalSeconds(),
+                        conf.isMemorySyncJournal());
+                library = memory;
+                tableVersions = memory.getTableVersions();
+                log.info("Serving the library from memory.");
+            } else {
+                // connect to database
+                connector = new DatabaseConnector(conf); // 创建数据库连接器
+                // 连接池在启动时打开一次，之后每个请求从池中借用连接
+                boolean connStatus = connector.connect();
+                if (!connStatus) {
+                    log.severe("Failed to connect database.");
+                    System.exit(1);
+                }
+                libraryImpl = new LibraryManagementSystemImpl(connector);
+                library = libraryImpl;
+                tableVersions = libraryImpl.getTableVersions();
+                // 新建的数据库（如内嵌的H2）还没有表，先建表
+                ApiResult tables = libraryImpl.createTablesIfMissing();
+                if (!tables.ok) {
+                    log.severe("Failed to create tables: " + tables.message);
+                    System.exit(1);
+                } else if (Boolean.TRUE.equals(tables.payload)) {
+                    log.info("Created the tables of an empty database.");
+                }
+                // 已有的表只执行还没有做过的迁移（加索引等），不删除数据
+                ApiResult migrated = libraryImpl.migrateSchema();
+                if (!migrated.ok) {
+                    log.severe("Failed to migrate the schema: " + migrated.message);
+                    System.exit(1);
+                } else if (migrated.message != null) {
+                    log.info(migrated.message + ".");
+                }
+                // 启动时并行读入书籍，借书等操作的存在性检查不必再访问数据库
+                int warmUpThreads = Math.min(conf.getCacheWarmUpThreads(), conf.getPoolMaxSize());
+                long warmUpStart = System.nanoTime();
+                ApiResult warmUp = libraryImpl.warmUpBookCache(warmUpThreads);
+                if (!warmUp.ok) {
+                    log.warning("Failed to warm up the book cache: " + warmUp.message);
+                } else if ((Integer) warmUp.payload > 0) {
+                    log.info("Warmed up the book cache with " + warmUp.payload + " books in "
+                            + (System.nanoTime() - warmUpStart) / 1000000 + " ms.");
+                }
+                // 模糊查询的三元组索引，不在启动时建好就由第一次模糊查询来建
+                long indexStart = System.nanoTime();
+                ApiResult index = libraryImpl.buildSearchIndex();
+                if (!index.ok) {
+                    log.warning("Failed to build the search index: " + index.message);
+                } else if ((Integer) index.payload > 0) {
+                    log.info("Built the search index of " + index.payload + " trigrams in "
+                            + (System.nanoTime() - indexStart) / 1000000 + " ms.");
+                }
+            }
             ;// 连接图书管理系统
 
 
@@ -45,11 +129,43 @@ public class Main {
             // 这里是8000，建议不要80端口，容易和其他的撞
             HttpServer server = HttpServer.create(new InetSocketAddress(8000), 0);
 
+            if (conf.isServerVirtualThreads() && VirtualThreads.isSupported()) {
+                // 每个请求一个虚拟线程，访问数据库前按连接池大小排队，等待时只挂起虚拟线程
+                gate = new GatedLibrary(library, conf.getPoolMaxSize());
+                library = gate;
+                virtualThreads = VirtualThreads.newThreadPerTaskExecutor();
+                server.setExecutor(virtualThreads);
+                log.info("Serving requests on virtual threads.");
+            } else {
+                if (conf.isServerVirtualThreads()) {
+                    log.warning("Virtual threads need JDK 21 or later, serving requests on the worker pool.");
+                }
+                // 请求在有界的线程池中处理，队列满时直接返回503
+                workers = new WorkerPool("http-worker", conf.getServerCoreThreads(), conf.getServerMaxThreads(),
+                        conf.getServerQueueCapacity(), conf.getServerKeepAliveSeconds());
+                server.setExecutor(workers);
+            }
+            // 最外层记录每个操作的耗时和结果，包括等待连接的时间
+            instrumented = new InstrumentedLibrary(library);
+            library = instrumented;
+            Filter overload = new OverloadFilter(conf.getServerRetryAfterSeconds());
+
             // 添加handler，这里就绑定到/card路由
             // 所以localhost:8000/card是会有handler来处理
-            server.createContext("/card", new CardHandler());
-            server.createContext("/book", new BookHandler());
-            server.createContext("/borrow", new BorrowHandler());
+            server.createContext("/card", new CardHandler()).getFilters().add(overload);
+            server.createContext("/book", new BookHandler()).getFilters().add(overload);
+            server.createContext("/borrow", new BorrowHandler()).getFilters().add(overload);
+            // 按条件在数据库里查书，只返回一页结果
+            server.createContext("/book/search", new SearchHandler()).getFilters().add(overload);
+            // CSV 批量导入，请求体边读边入库
+            server.createContext("/book/import", new ImportHandler(() -> CsvImporter.books(library)))
+                    .getFilters().add(overload);
+            server.createContext("/card/import", new ImportHandler(() -> CsvImporter.cards(library)))
+                    .getFilters().add(overload);
+            // 运行指标，过载时也要能访问，所以不加overload过滤
+            server.createContext("/metrics", new MetricsHandler());
+            // 按SQL形状汇总的语句耗时，同样不加overload过滤
+            server.createContext("/admin/slow-queries", new SlowQueryHandler());
 
             // 启动服务器
             server.start();
@@ -57,17 +173,370 @@ public class Main {
             // 标识一下，这样才知道我的后端启动了
             System.out.println("Server is listening on port 8000");
 
-            // release database connection handler
-            if (connector.release()) {
-                log.info("Success to release connection.");
-            } else {
-                log.warning("Failed to release connection.");
-            }
+            // release database connection pool on shutdown
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(0);
+                if (workers != null) {
+                    workers.shutdown();
+                }
+                if (virtualThreads != null) {
+                    virtualThreads.shutdown();
+                }
+                if (connector != null) {
+                    if (connector.release()) {
+                        log.info("Success to release connection.");
+                    } else {
+                        log.warning("Failed to release connection.");
+                    }
+                }
+                if (memory != null) {
+                    // 最后写一次快照，下次启动不用重放日志
+                    try {
+                        memory.close();
+                    } catch (IOException e) {
+                        log.warning("Failed to close the memory library: " + e);
+                    }
+                }
+            }));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * sends 200 with a chunked JSON body, the returned writer must be closed
+     * to end the response.
+     */
+    private static JsonWriter startJson(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "application/json; charset=utf-8");
+        if (!compression) {
+            // 长度为0表示分块传输，第一块数据写满缓冲区就发出
+            exchange.sendResponseHeaders(200, 0);
+            return new JsonWriter(exchange.getResponseBody());
+        }
+        // 同一个URL的响应随Accept-Encoding不同，缓存要分开存
+        headers.add("Vary", "Accept-Encoding");
+        List<String> accepted = exchange.getRequestHeaders().get("Accept-Encoding");
+        ContentEncoding encoding = accepted == null ? null : ContentEncoding.negotiate(String.join(",", accepted));
+        return new JsonWriter(new ResponseBody(exchange, encoding, compressionMinSize));
+    }
+
+    /**
+     * body of a 200 response whose headers are sent with its first
+     * minSize + 1 bytes: longer bodies are compressed with the negotiated
+     * coding and sent chunked, shorter ones are sent as they are with their
+     * length once the stream is closed.
+     */
+    static final class ResponseBody extends OutputStream {
+
+        private final HttpExchange exchange;
+        private final ContentEncoding encoding;
+        private byte[] pending;
+        private int count;
+        private OutputStream out;
+
+        /* encoding null: not compressed at all, still sent with its length when short */
+        ResponseBody(HttpExchange exchange, ContentEncoding encoding, int minSize) {
+            this.exchange = exchange;
+            this.encoding = encoding;
+            this.pending = new byte[minSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null) {
+                if (count + len <= pending.length) {
+                    System.arraycopy(b, off, pending, count, len);
+                    count += len;
+                    return;
+                }
+                // 超过阈值，发出响应头之后边压缩边分块发送
+                if (encoding != null) {
+                    exchange.getResponseHeaders().set("Content-Encoding", encoding.getName());
+                }
+                exchange.sendResponseHeaders(200, 0);
+                out = encoding == null ? exchange.getResponseBody() : encoding.open(exchange.getResponseBody());
+                out.write(pending, 0, count);
+                pending = null;
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                // 响应很短，不压缩，直接带上长度发出
+                exchange.sendResponseHeaders(200, count == 0 ? -1 : count);
+                out = exchange.getResponseBody();
+                out.write(pending, 0, count);
+                pending = null;
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * JSON array response that starts with its first element, so that a
+     * query failing before any row is read can still be answered with an error.
+     */
+    static final class JsonArrayResponse {
+
+        private final HttpExchange exchange;
+        private JsonWriter json;
+
+        JsonArrayResponse(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        /* writer for the next element */
+        JsonWriter next() throws IOException {
+            if (json == null) {
+                json = startJson(exchange);
+                json.beginArray();
+            }
+            return json;
+        }
+
+        boolean isStarted() {
+            return json != null;
+        }
+
+        /* ends the array and the response */
+        void finish() throws IOException {
+            next().endArray();
+            json.close();
+        }
+    }
+
+    /**
+     * sets the ETag of the table's current version, answers 304 when the
+     * request's If-None-Match already names it. the version is read before
+     * the query runs, so a tag is never newer than the rows sent with it.
+     */
+    private static boolean notModified(HttpExchange exchange, Table table) throws IOException {
+        String etag = tableVersions.etag(table);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        // 客户端每次都要来确认，版本没变时只回304
+        headers.set("Cache-Control", "no-cache");
+        List<String> ifNoneMatch = exchange.getRequestHeaders().get("If-None-Match");
+        if (ifNoneMatch == null || !etagMatches(String.join(",", ifNoneMatch), etag)) {
+            return false;
+        }
+        if (compression) {
+            headers.add("Vary", "Accept-Encoding");
+        }
+        exchange.sendResponseHeaders(304, -1);
+        return true;
+    }
+
+    /* weak comparison of an If-None-Match list with a tag (RFC 9110 section 13.1.2) */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] response = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        outputStream.write(response);
+        outputStream.close();
+    }
+
+    private static void writeCard(JsonWriter json, Card card) throws IOException {
+        json.beginObject()
+                .name("id").value(card.getCardId())
+                .name("name").value(card.getName())
+                .name("department").value(card.getDepartment())
+                .name("type").value(card.getType() == null ? null : card.getType().getStr())
+                .endObject();
+    }
+
+    private static void writeBook(JsonWriter json, Book book) throws IOException {
+        json.beginObject()
+                .name("id").value(book.getBookId())
+                .name("category").value(book.getCategory())
+                .name("title").value(book.getTitle())
+                .name("press").value(book.getPress())
+                .name("publishYear").value(book.getPublishYear())
+                .name("author").value(book.getAuthor())
+                .name("price").value(book.getPrice())
+                .name("stock").value(book.getStock())
+                .endObject();
+    }
+
+    private static void writeBorrowItem(JsonWriter json, BorrowHistories.Item item) throws IOException {
+        json.beginObject()
+                .name("cardID").value(item.getCardId())
+                .name("bookID").value(item.getBookId())
+                .name("borrowTime").value(item.getBorrowTime())
+                .name("returnTime").value(item.getReturnTime())
+                .endObject();
+    }
+
+    /* query string parameters of the request, url-decoded */
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            try {
+                params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+                // 编码不对的参数直接忽略
+            }
+        }
+        return params;
+    }
+
+    /* page size from the limit parameter, null if it is not a number */
+    private static Integer pageSize(String limit) {
+        try {
+            return Integer.valueOf(limit.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static JsonReader openJson(HttpExchange exchange) {
+        return new JsonReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8), maxJsonLength);
+    }
+
+    /* {id?, category, title, press, publishYear, author, price, stock}, a book without id is a new one */
+    private static Book readBook(JsonReader json) throws IOException {
+        Book book = new Book();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id":
+                    book.setBookId(json.nextInt());
+                    break;
+                case "category":
+                    book.setCategory(json.nextString());
+                    break;
+                case "title":
+                    book.setTitle(json.nextString());
+                    break;
+                case "press":
+                    book.setPress(json.nextString());
+                    break;
+                case "publishYear":
+                    book.setPublishYear(json.nextInt());
+                    break;
+                case "author":
+                    book.setAuthor(json.nextString());
+                    break;
+                case "price":
+                    book.setPrice(json.nextDouble());
+                    break;
+                case "stock":
+                    book.setStock(json.nextInt());
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        required(book.getCategory(), "category");
+        required(book.getTitle(), "title");
+        required(book.getPress(), "press");
+        required(book.getAuthor(), "author");
+        return book;
+    }
+
+    /* {id?, name?, department?, type?}, type is "学生" or "S" for students */
+    private static Card readCard(JsonReader json) throws IOException {
+        Card card = new Card();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id":
+                    card.setCardId(json.nextInt());
+                    break;
+                case "name":
+                    card.setName(json.nextString());
+                    break;
+                case "department":
+                    card.setDepartment(json.nextString());
+                    break;
+                case "type":
+                    String type = json.nextString();
+                    if (type != null) {
+                        card.setType(type.equals("学生") || type.equals("S") ? Card.CardType.Student : Card.CardType.Teacher);
+                    }
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        return card;
+    }
+
+    /* {book_id, card_id, borrow_time, return_time?} */
+    private static Borrow readBorrow(JsonReader json) throws IOException {
+        Borrow borrow = new Borrow();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "book_id":
+                    borrow.setBookId(json.nextInt());
+                    break;
+                case "card_id":
+                    borrow.setCardId(json.nextInt());
+                    break;
+                case "borrow_time":
+                    borrow.setBorrowTime(json.nextLong());
+                    break;
+                case "return_time":
+                    borrow.setReturnTime(json.nextLong());
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        return borrow;
+    }
+
+    private static void required(Object value, String name) throws JsonReader.InvalidValueException {
+        if (value == null) {
+            throw new JsonReader.InvalidValueException("missing " + name);
+        }
+    }
+
     static class CardHandler implements HttpHandler {
         // 关键重写handle方法
         @Override
@@ -76,13 +545,14 @@ public class Main {
             Headers headers = exchange.getResponseHeaders();
             headers.add("Access-Control-Allow-Origin", "*");
             headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
+            headers.add("Access-Control-Expose-Headers", "X-Next-Cursor, ETag");
             // 解析请求的方法，看GET还是POST
             String requestMethod = exchange.getRequestMethod();
             // 注意判断要用equals方法而不是==
             if (requestMethod.equals("OPTIONS")) {
                 headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-                headers.add("Access-Control-Allow-Headers", "Content-Type");
+                headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
                 exchange.sendResponseHeaders(200, -1);
             } else if (requestMethod.equals("GET")) {
                 // 处理GET
@@ -97,114 +567,69 @@ public class Main {
         }
 
         private void handleGetRequest(HttpExchange exchange) throws IOException {
-            // 响应头，因为是JSON通信
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            // 状态码为200，也就是status ok
-            exchange.sendResponseHeaders(200, 0);
-            // 获取输出流，java用流对象来进行io操作
-            OutputStream outputStream = exchange.getResponseBody();
-            // 构建JSON响应数据，这里简化为字符串
-
-            // TEST: 这里写的一个固定的JSON，实际可以查表获取数据，然后再拼出想要的JSON
-            //            String response = "[{\"cardId\": 1, \"name\": \"John Doe\", \"department\": \"Computer Science\", \"type\": \"Student\"}," +
-            //                    "{\"cardId\": 2, \"name\": \"Jane Smith\", \"department\": \"Electrical Engineering\", \"type\": \"Faculty\"}]";
-            //            outputStream.write(response.getBytes());
-
             // 写入响应数据,调用showCards,把数据库中所有的卡片显示出来
-            boolean connStatus = connector.connect();
-            if (!connStatus) {
-                log.severe("Failed to connect database in cardGET.");
-                System.exit(1);
+            // 带limit参数时分页，cursor是上一页响应头X-Next-Cursor的值
+            // 表没有变化时直接返回304，不查数据库
+            if (notModified(exchange, Table.CARD)) {
+                return;
+            }
+            Map<String, String> params = queryParams(exchange);
+            ApiResult result;
+            if (params.get("limit") == null) {
+                result = library.showCards();
+            } else {
+                Integer limit = pageSize(params.get("limit"));
+                result = limit == null ? new ApiResult(false, "Invalid limit")
+                        : library.showCards(limit, params.get("cursor"));
+            }
+            if (!result.ok) {
+                sendError(exchange, params.get("limit") == null ? 500 : 400, result.message);
+                return;
             }
-            ApiResult result = library.showCards();
             CardList resCardList = (CardList) result.payload;
-            String response = "[]";
-            if (resCardList.getCards().size() != 0) {
-                response = "[";
-                for (int i = 0; i < resCardList.getCards().size(); i++) {
-                    // 这里是拼接JSON字符串
-                    int cardId = resCardList.getCards().get(i).getCardId();
-                    String name = resCardList.getCards().get(i).getName();
-                    String department = resCardList.getCards().get(i).getDepartment();
-                    String cardType = resCardList.getCards().get(i).getType().getStr();
-                    String temp = "{\"id\": " + cardId + ", \"name\": \"" + name + "\", \"department\": \"" + department + "\", \"type\": \"" + cardType + "\"}";
-                    response = response.concat(temp);
-                    if (i != resCardList.getCards().size() - 1) {
-                        response += ",";
-                    }
-                }
-                response += "]";
+            if (resCardList.getNextCursor() != null) {
+                exchange.getResponseHeaders().set("X-Next-Cursor", resCardList.getNextCursor());
             }
-            System.out.println(response);
-            // 写
-            outputStream.write(response.getBytes());
-            // 流一定要close！！！小心泄漏
-            outputStream.close();
-            if (connector.release()) {
-                log.info("Success to release connection.");
-            } else {
-                log.warning("Failed to release connection.");
+            // 边序列化边写出，分块传输，不在内存里拼整个字符串
+            try (JsonWriter json = startJson(exchange)) {
+                json.beginArray();
+                for (Card card : resCardList.getCards()) {
+                    writeCard(json, card);
+                }
+                json.endArray();
             }
         }
 
         private void handlePostRequest(HttpExchange exchange) throws IOException {
-            // 读取POST请求体
-            InputStream requestBody = exchange.getRequestBody();
-            // 用这个请求体（输入流）构造个buffered reader
-            BufferedReader reader = new BufferedReader(new InputStreamReader(requestBody));
-            // 拼字符串的
-            StringBuilder requestBodyBuilder = new StringBuilder();
-            // 用来读的
-            String line;
-            // 没读完，一直读，拼到string builder里
-            while ((line = reader.readLine()) != null) {
-                requestBodyBuilder.append(line);
-            }
-
-            // 将读到的数据加入数据库
-            String contents = requestBodyBuilder.toString();
-            System.out.println(contents);
-            if (contents.contains("id") && !contents.contains("name")) {
-                // 这里是删除操作
-                System.out.println("这是删除");
-                int cardId = Integer.parseInt(contents.split("\"id\":")[1].replace("}", "").trim());
-                System.out.println(cardId);
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in cardPOST");
-                    System.exit(1);
-                }
-                library.removeCard(cardId);
-            } else {
-                System.out.println("这是POST");
-                String name = contents.split("\"name\":\"")[1].split("\"")[0];
-                String department = contents.split("\"department\":\"")[1].split("\"")[0];
-                String type = contents.split("\"type\":\"")[1].split("\"")[0];
-                if (type.equals("学生")) {
-                    type = "S";
-                } else {
-                    type = "T";
-                }
-                Card.CardType cardType = Card.CardType.values(type);
-                Card card = new Card();
-                card.setName(name);
-                card.setDepartment(department);
-                card.setType(cardType);
-                System.out.println(card.toString());
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in cardPOST");
-                    System.exit(1);
-                }
-                if (!contents.contains("id")) {
-                    // register
-                    library.registerCard(card);
+            // 读取POST请求体，解析成借书证
+            ApiResult result;
+            try (JsonReader json = openJson(exchange)) {
+                Card card = readCard(json);
+                if (card.getCardId() != 0 && card.getName() == null) {
+                    // 只有id，这里是删除操作
+                    result = library.removeCard(card.getCardId());
                 } else {
-                    // update
-                    int cardId = Integer.parseInt(contents.split("\"id\":")[1].split(",")[0]);
-                    card.setCardId(cardId);
-                    library.updateCard(card);
+                    required(card.getName(), "name");
+                    required(card.getDepartment(), "department");
+                    required(card.getType(), "type");
+                    if (card.getCardId() == 0) {
+                        // register
+                        result = library.registerCard(card);
+                    } else {
+                        // update
+                        result = library.updateCard(card);
+                    }
                 }
+            } catch (JsonReader.TooLargeException e) {
+                sendError(exchange, 413, e.getMessage());
+                return;
+            } catch (JsonReader.MalformedJsonException | JsonReader.InvalidValueException e) {
+                sendError(exchange, 400, "Invalid request: " + e.getMessage());
+                return;
+            }
+            if (!result.ok) {
+                sendError(exchange, 400, result.message);
+                return;
             }
             // 响应头
             exchange.getResponseHeaders().set("Content-Type", "text/plain");
@@ -215,11 +640,6 @@ public class Main {
             OutputStream outputStream = exchange.getResponseBody();
             outputStream.write("Card created successfully".getBytes());
             outputStream.close();
-            if (connector.release()) {
-                log.info("Success to release connection.");
-            } else {
-                log.warning("Failed to release connection.");
-            }
         }
 
     }
@@ -252,48 +672,23 @@ public class Main {
         }
 
         private void handleGetRequest(HttpExchange exchange) throws IOException {
-            // 响应头，因为是JSON通信
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            // 状态码为200，也就是status ok
-            exchange.sendResponseHeaders(200, 0);
-            // 获取输出流，java用流对象来进行io操作
-            OutputStream outputStream = exchange.getResponseBody();
             // 获取cardId参数
             String content = exchange.getRequestURI().getQuery();
             int cardId = Integer.parseInt(content.split("=")[1]);
             // 查询数据库获取借书记录
-            boolean connStatus = connector.connect();
-            if (!connStatus) {
-                log.severe("Failed to connect database in BookGET");
-                System.exit(1);
-            }
             ApiResult result = library.showBorrowHistory(cardId); // 传入cardId
+            if (!result.ok) {
+                sendError(exchange, 500, result.message);
+                return;
+            }
             BorrowHistories histories = (BorrowHistories) result.payload;
-            List<BorrowHistories.Item> items = histories.getItems();
-            // 构建JSON响应数据
-            String response = "[";
-            for (BorrowHistories.Item item : items) {
-                int bookId = item.getBookId();
-                Long borrowTime = item.getBorrowTime();
-                Long returnTime = item.getReturnTime();
-                String temp = "{" + "\"cardID\": " + cardId + ", \"bookID\": " + bookId + ", \"borrowTime\": " + borrowTime + ", \"returnTime\": " + returnTime + "}";
-                System.out.println(temp);
-                response = response.concat(temp);
-                if (items.indexOf(item) != items.size() - 1) {
-                    response += ",";
+            try (JsonWriter json = startJson(exchange)) {
+                json.beginArray();
+                for (BorrowHistories.Item item : histories.getItems()) {
+                    writeBorrowItem(json, item);
                 }
+                json.endArray();
             }
-            response += "]";
-            System.out.println(response);
-            // 写
-            outputStream.write(response.getBytes());
-            outputStream.close();
-            if (connector.release()) {
-                log.info("Success to release connection.");
-            } else {
-                log.warning("Failed to release connection.");
-            }
-
         }
 
         private void handlePostRequest(HttpExchange exchange) throws IOException {
@@ -302,6 +697,10 @@ public class Main {
     }
 
     static class BookHandler implements HttpHandler {
+
+        /* books read per transaction when listing the whole catalog */
+        private static final int LIST_PAGE_SIZE = 1000;
+
         // 关键重写handle方法
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -309,13 +708,14 @@ public class Main {
             Headers headers = exchange.getResponseHeaders();
             headers.add("Access-Control-Allow-Origin", "*");
             headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
+            headers.add("Access-Control-Expose-Headers", "X-Next-Cursor, ETag");
             // 解析请求的方法，看GET还是POST
             String requestMethod = exchange.getRequestMethod();
             // 注意判断要用equals方法而不是==
             if (requestMethod.equals("OPTIONS")) {
                 headers.add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-                headers.add("Access-Control-Allow-Headers", "Content-Type");
+                headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
                 exchange.sendResponseHeaders(200, -1);
             } else if (requestMethod.equals("GET")) {
                 // 处理GET
@@ -330,306 +730,496 @@ public class Main {
         }
 
         private void handleGetRequest(HttpExchange exchange) throws IOException {
-            // 响应头，因为是JSON通信
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            // 状态码为200，也就是status ok
-            exchange.sendResponseHeaders(200, 0);
-            // 获取输出流，java用流对象来进行io操作
-            OutputStream outputStream = exchange.getResponseBody();
-            // 构建JSON响应数据，这里简化为字符串
-
-            // 写入响应数据,调用showCards,把数据库中所有的卡片显示出来
-            boolean connStatus = connector.connect();
-            if (!connStatus) {
-                log.severe("Failed to connect database in BookGET");
-                System.exit(1);
-            }
-            ApiResult result = library.showBooks();
-            List<Book> books = (List<Book>) result.payload;
-            String response = "[";
-            for (int i = 0; i < books.size(); i++) {
-                // 这里是拼接JSON字符串
-                int bookId = books.get(i).getBookId();
-                String category = books.get(i).getCategory();
-                String title = books.get(i).getTitle();
-                String press = books.get(i).getPress();
-                int publishYear = books.get(i).getPublishYear();
-                String author = books.get(i).getAuthor();
-                double price = books.get(i).getPrice();
-                int stock = books.get(i).getStock();
-                String temp = "{\"id\": " + bookId + ", \"category\": \"" + category + "\", \"title\": \"" + title + "\", \"press\": \"" + press + "\", \"publishYear\": " + publishYear + ", \"author\": \"" + author + "\", \"price\": " + price + ", \"stock\": " + stock + "}";
-                response = response.concat(temp);
-                if (i != books.size() - 1) {
-                    response += ",";
-                }
+            // 写入响应数据,调用showBooks,把数据库中所有的图书显示出来
+            // 带limit参数时分页，cursor是上一页响应头X-Next-Cursor的值
+            // 表没有变化时直接返回304，不查数据库
+            if (notModified(exchange, Table.BOOK)) {
+                return;
             }
-            response += "]";
-            // 写
-            outputStream.write(response.getBytes());
-            // 流一定要close！！！小心泄漏
-            outputStream.close();
-
-            if (connector.release()) {
-                log.info("Success to release connection.");
-            } else {
-                log.warning("Failed to release connection.");
+            Map<String, String> params = queryParams(exchange);
+            if (params.get("limit") == null) {
+                // 不分页时按book_id一页一页地查，每页的事务结束后才写给客户端，
+                // 慢的客户端不会占着数据库连接，内存里也只有一页
+                JsonArrayResponse response = new JsonArrayResponse(exchange);
+                String cursor = null;
+                do {
+                    ApiResult result = library.showBooks(LIST_PAGE_SIZE, cursor);
+                    if (!result.ok) {
+                        if (!response.isStarted()) {
+                            sendError(exchange, 500, result.message);
+                        } else {
+                            // 响应已经发出一部分，只能中断连接
+                            log.warning("Failed to list books: " + result.message);
+                            exchange.close();
+                        }
+                        return;
+                    }
+                    BookQueryResults page = (BookQueryResults) result.payload;
+                    for (Book book : page.getResults()) {
+                        writeBook(response.next(), book);
+                    }
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+                response.finish();
+                return;
+            }
+            Integer limit = pageSize(params.get("limit"));
+            ApiResult result = limit == null ? new ApiResult(false, "Invalid limit")
+                    : library.showBooks(limit, params.get("cursor"));
+            if (!result.ok) {
+                sendError(exchange, 400, result.message);
+                return;
+            }
+            BookQueryResults page = (BookQueryResults) result.payload;
+            if (page.getNextCursor() != null) {
+                exchange.getResponseHeaders().set("X-Next-Cursor", page.getNextCursor());
+            }
+            try (JsonWriter json = startJson(exchange)) {
+                json.beginArray();
+                for (Book book : page.getResults()) {
+                    writeBook(json, book);
+                }
+                json.endArray();
             }
         }
 
         private void handlePostRequest(HttpExchange exchange) throws IOException {
-            // 读取POST请求体
-            InputStream requestBody = exchange.getRequestBody();
-            // 用这个请求体（输入流）构造个buffered reader
-            BufferedReader reader = new BufferedReader(new InputStreamReader(requestBody));
-            // 拼字符串的
-            StringBuilder requestBodyBuilder = new StringBuilder();
-            // 用来读的
-            String line;
-            // 没读完，一直读，拼到string builder里
-            while ((line = reader.readLine()) != null) {
-                requestBodyBuilder.append(line);
-            }
-            String contents = requestBodyBuilder.toString();
-            System.out.println(contents);
-
             // 根据请求路径区分逻辑
             String path = exchange.getRequestURI().getPath();
-            if (path.contains("/borrow")) {
-                System.out.println("Borrow");
-                // 处理借书逻辑
-                int bookId = Integer.parseInt(contents.split("\"book_id\":")[1].split(",")[0].trim());
-                int cardId = Integer.parseInt(contents.split("\"card_id\":\"")[1].split("\"")[0].trim());
-                int borrowTime = Integer.parseInt(contents.split("\"borrow_time\":\"")[1].split("\"")[0].trim());
-                int returnTime = Integer.parseInt(contents.split("\"return_time\":")[1].replace("}", "").trim());
-                Borrow borrow = new Borrow();
-                borrow.setBookId(bookId);
-                borrow.setCardId(cardId);
-                borrow.setBorrowTime(borrowTime);
-                borrow.setReturnTime(returnTime);
-                System.out.println(bookId + cardId + borrowTime + returnTime);
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in borrowPOST");
-                    exchange.sendResponseHeaders(500, 0);
-                    exchange.getResponseBody().close();
-                    return;
-                }
-                ApiResult result = library.borrowBook(borrow);
-
-                if (!result.ok) {
-                    String errorMessage = result.message;
-                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
-                    exchange.sendResponseHeaders(400, errorMessage.getBytes().length);
-                    OutputStream outputStream = exchange.getResponseBody();
-                    outputStream.write(errorMessage.getBytes());
-                    outputStream.close();
-                    if (connector.release()) {
-                        log.info("Success to release connection.");
-                    } else {
-                        log.warning("Failed to release connection.");
+            ApiResult result = new ApiResult(true, (Object) null);
+            // 请求体按JSON边读边解析，直接绑定到实体上
+            try (JsonReader json = openJson(exchange)) {
+                if (path.contains("/borrow")) {
+                    // 处理借书逻辑
+                    result = library.borrowBook(readBorrow(json));
+                } else if (path.contains("/return")) {
+                    // 处理还书逻辑
+                    result = library.returnBook(readBorrow(json));
+                } else if (path.contains("/delete") || path.contains("increase-stock")) {
+                    // 删除图书 {bookId}，增加库存 {bookId, amount}
+                    int bookId = 0;
+                    int amount = 0;
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        switch (json.nextName()) {
+                            case "bookId":
+                                bookId = json.nextInt();
+                                break;
+                            case "amount":
+                                amount = json.nextInt();
+                                break;
+                            default:
+                                json.skipValue();
+                        }
                     }
-                    return;
-                }
-            } else if (path.contains("/return")) {
-                System.out.println("Return");
-                // 处理还书逻辑
-                int bookId = Integer.parseInt(contents.split("\"book_id\":")[1].split(",")[0].trim());
-                int cardId = Integer.parseInt(contents.split("\"card_id\":\"")[1].split("\"")[0].trim());
-                int borrowTime = Integer.parseInt(contents.split("\"borrow_time\":\"")[1].split("\"")[0].trim());
-                int returnTime = Integer.parseInt(contents.split("\"return_time\":\"")[1].split("\"}")[0].trim());
-
-                Borrow borrow = new Borrow();
-                borrow.setBookId(bookId);
-                borrow.setCardId(cardId);
-                borrow.setBorrowTime(borrowTime);
-                borrow.setReturnTime(returnTime);
+                    json.endObject();
+                    json.endDocument();
+                    result = path.contains("/delete") ? library.removeBook(bookId) : library.incBookStock(bookId, amount);
+                } else if (path.contains("/edit")) {
+                    // 处理编辑图书逻辑
+                    result = library.modifyBookInfo(readBook(json));
+                } else if (path.contains("/batch-import")) {
+                    // 处理批量入库逻辑
+                    String filePath = null;
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        if (json.nextName().equals("filePath")) {
+                            filePath = json.nextString();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                    json.endDocument();
+                    required(filePath, "filePath");
+                    log.info("Batch import of " + filePath);
 
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in borrowPOST");
-                    exchange.sendResponseHeaders(500, 0);
-                    exchange.getResponseBody().close();
-                    return;
-                }
-                ApiResult result = library.returnBook(borrow);
-
-                if (!result.ok) {
-                    String errorMessage = result.message;
-                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
-                    exchange.sendResponseHeaders(400, errorMessage.getBytes().length);
-                    OutputStream outputStream = exchange.getResponseBody();
-                    outputStream.write(errorMessage.getBytes());
-                    outputStream.close();
-                    if (connector.release()) {
-                        log.info("Success to release connection.");
-                    } else {
-                        log.warning("Failed to release connection.");
+                    // 按 CSV 格式流式解析文件，分块批量入库
+                    try (Reader fileReader = new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)) {
+                        CsvImporter.Result imported = CsvImporter.books(library).importCsv(fileReader);
+                        log.info("Batch import finished: " + imported.toJson());
+                    } catch (Exception e) {
+                        log.severe("Failed to process batch import: " + e.getMessage());
+                        exchange.sendResponseHeaders(500, 0);
+                        exchange.getResponseBody().close();
+                        return;
                     }
-                    return;
+                } else {
+                    result = library.storeBook(readBook(json)); // 存入图书
                 }
-            } else if (path.contains("/delete")) {
-                System.out.println("Delete");
-                // 处理删除逻辑
-                int bookId = Integer.parseInt(contents.split("\"bookId\":")[1].split("}")[0].trim());
-                System.out.println(bookId);
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in borrowPOST");
-                    exchange.sendResponseHeaders(500, 0);
-                    exchange.getResponseBody().close();
-                    return;
+            } catch (JsonReader.TooLargeException e) {
+                sendError(exchange, 413, e.getMessage());
+                return;
+            } catch (JsonReader.MalformedJsonException | JsonReader.InvalidValueException e) {
+                sendError(exchange, 400, "Invalid request: " + e.getMessage());
+                return;
+            }
+            if (!result.ok) {
+                sendError(exchange, 400, result.message);
+                return;
+            }
+
+            // 响应头
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            // 响应状态码200
+            exchange.sendResponseHeaders(200, 0);
+
+            // 剩下三个和GET一样
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write("Card created successfully".getBytes());
+            outputStream.close();
+        }
+    }
+
+    /**
+     * GET /book/search, books matching the query parameters, one page at a time.
+     *
+     * parameters: category (exact), title, press, author (fuzzy),
+     * minPublishYear, maxPublishYear, minPrice, maxPrice (closed ranges),
+     * sortBy (a book field), sortOrder (asc/desc), limit and cursor as for
+     * GET /book. empty parameters are ignored.
+     */
+    static class SearchHandler implements HttpHandler {
+
+        /* page size when no limit is given, a search is never unbounded */
+        private static final int DEFAULT_LIMIT = 50;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // 允许所有域的请求，cors处理
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+            headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match");
+            headers.add("Access-Control-Expose-Headers", "X-Next-Cursor, ETag");
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("OPTIONS")) {
+                exchange.sendResponseHeaders(200, -1);
+            } else if (requestMethod.equals("GET")) {
+                handleGetRequest(exchange);
+            } else {
+                // 其他请求返回405 Method Not Allowed
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+
+        private void handleGetRequest(HttpExchange exchange) throws IOException {
+            // 表没有变化时直接返回304，不查数据库
+            if (notModified(exchange, Table.BOOK)) {
+                return;
+            }
+            Map<String, String> params = queryParams(exchange);
+            // 空字符串当作没有填写
+            params.values().removeIf(String::isEmpty);
+            BookQueryConditions conditions = new BookQueryConditions();
+            int limit = DEFAULT_LIMIT;
+            try {
+                conditions.setCategory(params.get("category"));
+                conditions.setTitle(params.get("title"));
+                conditions.setPress(params.get("press"));
+                conditions.setAuthor(params.get("author"));
+                conditions.setMinPublishYear(intParam(params, "minPublishYear"));
+                conditions.setMaxPublishYear(intParam(params, "maxPublishYear"));
+                conditions.setMinPrice(doubleParam(params, "minPrice"));
+                conditions.setMaxPrice(doubleParam(params, "maxPrice"));
+                if (params.containsKey("sortBy")) {
+                    conditions.setSortBy(sortColumn(params.get("sortBy")));
                 }
-                ApiResult result = library.removeBook(bookId);
-                if (!result.ok) {
-                    String errorMessage = result.message;
-                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
-                    exchange.sendResponseHeaders(400, errorMessage.getBytes().length);
-                    OutputStream outputStream = exchange.getResponseBody();
-                    outputStream.write(errorMessage.getBytes());
-                    outputStream.close();
-                    if (connector.release()) {
-                        log.info("Success to release connection.");
-                    } else {
-                        log.warning("Failed to release connection.");
-                    }
-                    return;
+                if (params.containsKey("sortOrder")) {
+                    conditions.setSortOrder(sortOrder(params.get("sortOrder")));
                 }
-            } else if (path.contains("increase-stock")) {
-                System.out.println("Increase Stock");
-                // 处理增加库存逻辑
-                int bookId = Integer.parseInt(contents.split("\"bookId\":")[1].split(",")[0].trim());
-                int stock = Integer.parseInt(contents.split("\"amount\":")[1].split("\"")[1].trim());
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in BookIncrease");
-                    System.exit(1);
+                if (params.containsKey("limit")) {
+                    limit = intParam(params, "limit");
                 }
-                ApiResult result = library.incBookStock(bookId, stock);
-                if (!result.ok) {
-                    String errorMessage = result.message;
-                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
-                    exchange.sendResponseHeaders(400, errorMessage.getBytes().length);
-                    OutputStream outputStream = exchange.getResponseBody();
-                    outputStream.write(errorMessage.getBytes());
-                    outputStream.close();
-                    if (connector.release()) {
-                        log.info("Success to release connection.");
-                    } else {
-                        log.warning("Failed to release connection.");
-                    }
-                    return;
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Invalid parameter: " + e.getMessage());
+                return;
+            }
+            ApiResult result = library.queryBook(conditions, limit, params.get("cursor"));
+            if (!result.ok) {
+                sendError(exchange, 400, result.message);
+                return;
+            }
+            BookQueryResults page = (BookQueryResults) result.payload;
+            if (page.getNextCursor() != null) {
+                exchange.getResponseHeaders().set("X-Next-Cursor", page.getNextCursor());
+            }
+            try (JsonWriter json = startJson(exchange)) {
+                json.beginArray();
+                for (Book book : page.getResults()) {
+                    writeBook(json, book);
                 }
-            } else if (path.contains("/edit")) {
-                System.out.println("Edit Book");
-                // 处理编辑图书逻辑
-                int bookId = Integer.parseInt(contents.split("\"id\":")[1].split(",")[0].trim());
-                String category = contents.split("\"category\":\"")[1].split("\",")[0];
-                String title = contents.split("\"title\":\"")[1].split("\",")[0];
-                String press = contents.split("\"press\":\"")[1].split("\",")[0];
-                int publishYear = Integer.parseInt(contents.split("\"publishYear\":")[1].split(",")[0].trim());
-                String author = contents.split("\"author\":\"")[1].split("\",")[0];
-                double price = Double.parseDouble(contents.split("\"price\":")[1].split(",")[0].trim());
-                int stock = Integer.parseInt(contents.split("\"stock\":")[1].split("}")[0].trim());
-
-                Book book = new Book();
-                book.setBookId(bookId);
-                book.setCategory(category);
-                book.setTitle(title);
-                book.setPress(press);
-                book.setPublishYear(publishYear);
-                book.setAuthor(author);
-                book.setPrice(price);
-                book.setStock(stock);
+                json.endArray();
+            }
+        }
 
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in BookGET");
-                    System.exit(1);
-                }
-                library.modifyBookInfo(book); // 更新图书
-            } else if (path.contains("/batch-import")) {
-                System.out.println("Batch Import");
-                // 处理批量入库逻辑
-                String filePath = contents.split("\"filePath\":\"")[1].split("\"")[0];
-                System.out.println("File Path: " + filePath);
+        private static Integer intParam(Map<String, String> params, String name) {
+            String value = params.get(name);
+            try {
+                return value == null ? null : Integer.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name);
+            }
+        }
 
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in BatchImport");
-                    exchange.sendResponseHeaders(500, 0);
-                    exchange.getResponseBody().close();
-                    return;
-                }
-                try {
-                    // 假设文件是 CSV 格式，解析文件内容
-                    BufferedReader fileReader = new BufferedReader(new FileReader(filePath));
-                    String fileLine;
-                    while ((fileLine = fileReader.readLine()) != null) {
-                        String[] bookData = fileLine.split(","); // 假设 CSV 文件以逗号分隔
-                        Book book = new Book();
-                        book.setCategory(bookData[0].trim());
-                        book.setTitle(bookData[1].trim());
-                        book.setPress(bookData[2].trim());
-                        book.setPublishYear(Integer.parseInt(bookData[3].trim()));
-                        book.setAuthor(bookData[4].trim());
-                        book.setPrice(Double.parseDouble(bookData[5].trim()));
-                        book.setStock(Integer.parseInt(bookData[6].trim()));
-                        // 将图书存储到数据库
-                        library.storeBook(book);
-                    }
-                    fileReader.close();
-                } catch (Exception e) {
-                    log.severe("Failed to process batch import: " + e.getMessage());
-                    exchange.sendResponseHeaders(500, 0);
-                    exchange.getResponseBody().close();
-                    return;
+        private static Double doubleParam(Map<String, String> params, String name) {
+            String value = params.get(name);
+            try {
+                return value == null ? null : Double.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name);
+            }
+        }
+
+        /* "publishYear", "publish_year" and "PUBLISH_YEAR" all name the same column */
+        private static Book.SortColumn sortColumn(String name) {
+            String key = name.replace("_", "");
+            for (Book.SortColumn column : Book.SortColumn.values()) {
+                if (column.getValue().replace("_", "").equalsIgnoreCase(key)) {
+                    return column;
                 }
-            } else {
-                System.out.println("Book");
-                String category = contents.split("\"category\":\"")[1].split("\",")[0];
-                String title = contents.split("\"title\":\"")[1].split("\",")[0];
-                String press = contents.split("\"press\":\"")[1].split("\",")[0];
-                int publishYear = Integer.parseInt(contents.split("\"publishYear\":\"")[1].split("\",")[0]);
-                String author = contents.split("\"author\":\"")[1].split("\",")[0];
-                double price = Double.parseDouble(contents.split("\"price\":\"")[1].split("\",")[0]);
-                int stock = Integer.parseInt(contents.split("\"stock\":\"")[1].split("\"")[0]);
-
-                Book book = new Book();
-                book.setCategory(category);
-                book.setTitle(title);
-                book.setPress(press);
-                book.setPublishYear(publishYear);
-                book.setAuthor(author);
-                book.setPrice(price);
-                book.setStock(stock);
-                boolean connStatus = connector.connect();
-                if (!connStatus) {
-                    log.severe("Failed to connect database in BookGET");
-                    System.exit(1);
+            }
+            throw new IllegalArgumentException("sortBy");
+        }
+
+        private static SortOrder sortOrder(String name) {
+            for (SortOrder order : SortOrder.values()) {
+                if (order.getValue().equalsIgnoreCase(name)) {
+                    return order;
                 }
-                library.storeBook(book); // 存入图书
             }
+            throw new IllegalArgumentException("sortOrder");
+        }
+    }
 
+    static class ImportHandler implements HttpHandler {
 
-            // 响应头
-            exchange.getResponseHeaders().set("Content-Type", "text/plain");
-            // 响应状态码200
-            exchange.sendResponseHeaders(200, 0);
+        private final Supplier<CsvImporter<?>> importers;
 
-            // 剩下三个和GET一样
+        ImportHandler(Supplier<CsvImporter<?>> importers) {
+            this.importers = importers;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // 允许所有域的请求，cors处理
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.add("Access-Control-Allow-Methods", "POST, OPTIONS");
+            headers.add("Access-Control-Allow-Headers", "Content-Type");
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("OPTIONS")) {
+                exchange.sendResponseHeaders(200, -1);
+            } else if (requestMethod.equals("POST")) {
+                handlePostRequest(exchange);
+            } else {
+                // 其他请求返回405 Method Not Allowed
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+
+        /**
+         * the request body is the CSV itself (plain or chunked), it is parsed
+         * while being received so the upload is never held in memory.
+         */
+        private void handlePostRequest(HttpExchange exchange) throws IOException {
+            CsvImporter.Result result;
+            try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                result = importers.get().importCsv(reader);
+            }
+            log.info("Import of " + exchange.getRequestURI().getPath() + " finished: " + result.toJson());
+            byte[] response = result.toJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
             OutputStream outputStream = exchange.getResponseBody();
-            outputStream.write("Card created successfully".getBytes());
+            outputStream.write(response);
             outputStream.close();
-            if (connector.release()) {
-                log.info("Success to release connection.");
-            } else {
-                log.warning("Failed to release connection.");
+        }
+    }
+
+    /**
+     * answers 503 to requests the worker pool had no room for, without
+     * running their handler. they all go through the pool's one overflow
+     * thread, once its queue is full too the connections are closed.
+     */
+    static class OverloadFilter extends Filter {
+
+        private final int retryAfterSeconds;
+
+        OverloadFilter(int retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (!WorkerPool.isOverloaded()) {
+                chain.doFilter(exchange);
+                return;
             }
+            byte[] response = "Server is busy, please retry later".getBytes(StandardCharsets.UTF_8);
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Access-Control-Allow-Origin", "*");
+            headers.set("Retry-After", Integer.toString(retryAfterSeconds));
+            headers.set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(503, response.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(response);
+            outputStream.close();
+        }
 
+        @Override
+        public String description() {
+            return "Answers 503 when the worker pool is full";
+        }
+    }
+
+    /**
+     * GET /admin/slow-queries, the statement shapes that took the most time
+     * since start (or the last DELETE), at most limit (default 20) of them.
+     * DELETE clears the totals.
+     */
+    static class SlowQueryHandler implements HttpHandler {
+
+        private static final int DEFAULT_LIMIT = 20;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            SlowQueryLog slowQueryLog = connector == null ? null : connector.getSlowQueryLog();
+            if (slowQueryLog == null) {
+                sendError(exchange, 404, "Slow query log is disabled");
+                return;
+            }
+            String requestMethod = exchange.getRequestMethod();
+            if (requestMethod.equals("DELETE")) {
+                slowQueryLog.reset();
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            if (!requestMethod.equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<String, String> params = queryParams(exchange);
+            Integer limit = params.get("limit") == null ? Integer.valueOf(DEFAULT_LIMIT) : pageSize(params.get("limit"));
+            if (limit == null || limit < 1) {
+                sendError(exchange, 400, "Invalid parameter: limit");
+                return;
+            }
+            try (JsonWriter json = startJson(exchange)) {
+                json.beginArray();
+                for (SlowQueryLog.Shape shape : slowQueryLog.top(limit)) {
+                    long calls = shape.getCalls();
+                    json.beginObject();
+                    json.name("sql").value(shape.getSql());
+                    json.name("calls").value(calls);
+                    json.name("slowCalls").value(shape.getSlowCalls());
+                    json.name("totalMillis").value(shape.getTotalNanos() / 1e6);
+                    json.name("meanMillis").value(calls == 0 ? 0 : shape.getTotalNanos() / 1e6 / calls);
+                    json.name("maxMillis").value(shape.getMaxNanos() / 1e6);
+                    json.name("rows").value(shape.getRows());
+                    json.endObject();
+                }
+                json.endArray();
+            }
         }
     }
-}
 
+    /**
+     * GET /metrics, one "name value" line per metric.
+     */
+    static class MetricsHandler implements HttpHandler {
 
+        private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder metrics = new StringBuilder();
+            // http worker pool, or the gate in front of the database with virtual threads
+            if (workers != null) {
+                metric(metrics, "http_workers_active", workers.getActiveWorkers());
+                metric(metrics, "http_workers_pool_size", workers.getPoolSize());
+                metric(metrics, "http_workers_max", workers.getMaxWorkers());
+                metric(metrics, "http_queue_depth", workers.getQueueDepth());
+                metric(metrics, "http_queue_capacity", workers.getQueueCapacity());
+                metric(metrics, "http_requests_completed_total", workers.getCompletedTasks());
+                metric(metrics, "http_requests_rejected_total", workers.getRejections());
+                metric(metrics, "http_requests_dropped_total", workers.getDropped());
+            }
+            if (gate != null) {
+                metric(metrics, "db_gate_waiting", gate.getWaiting());
+                metric(metrics, "db_gate_available", gate.getAvailablePermits());
+            }
+            // database connection pool & transaction retries, none with the memory engine
+            if (connector != null) {
+                metric(metrics, "db_connections_open", connector.getOpenConnections());
+                metric(metrics, "db_connections_idle", connector.getIdleConnections());
+                StatementCache.Stats statements = connector.getStatementCacheStats();
+                metric(metrics, "db_statement_cache_hits_total", statements.getHits());
+                metric(metrics, "db_statement_cache_misses_total", statements.getMisses());
+                RetryPolicy.Stats retries = libraryImpl.getRetryStats();
+                metric(metrics, "db_transaction_retries_total", retries.getRetries());
+                metric(metrics, "db_transaction_recovered_total", retries.getRecovered());
+                metric(metrics, "db_transaction_exhausted_total", retries.getExhausted());
+                BookCache books = libraryImpl.getBookCache();
+                metric(metrics, "book_cache_size", books.size());
+                metric(metrics, "book_cache_capacity", books.getCapacity());
+                metric(metrics, "book_cache_hits_total", books.getHits());
+                metric(metrics, "book_cache_misses_total", books.getMisses());
+                metric(metrics, "book_cache_evictions_total", books.getEvictions());
+                sample(metrics, "book_cache_hit_ratio", books.getHitRatio());
+                ResultCache<?, ?> queries = libraryImpl.getQueryCache();
+                metric(metrics, "query_cache_size", queries.size());
+                metric(metrics, "query_cache_capacity", queries.getMaxEntries());
+                metric(metrics, "query_cache_hits_total", queries.getHits());
+                metric(metrics, "query_cache_misses_total", queries.getMisses());
+                metric(metrics, "query_cache_evictions_total", queries.getEvictions());
+                sample(metrics, "query_cache_hit_ratio", queries.getHitRatio());
+            }
+            // per library operation: latency quantiles, results and calls in flight
+            Map<String, InstrumentedLibrary.Operation> operations = instrumented.getOperations();
+            metrics.append("# HELP library_operation_seconds Latency of library operations since start.\n");
+            metrics.append("# TYPE library_operation_seconds summary\n");
+            for (Map.Entry<String, InstrumentedLibrary.Operation> entry : operations.entrySet()) {
+                String label = "operation=\"" + entry.getKey() + '"';
+                LatencyHistogram.Snapshot latency = entry.getValue().getLatency();
+                for (double quantile : QUANTILES) {
+                    sample(metrics, "library_operation_seconds{" + label + ",quantile=\"" + quantile + "\"}",
+                            latency.valueAt(quantile) / 1e9);
+                }
+                sample(metrics, "library_operation_seconds_sum{" + label + '}', latency.getSum() / 1e9);
+                metric(metrics, "library_operation_seconds_count{" + label + '}', latency.getCount());
+            }
+            metrics.append("# HELP library_operations_total Library operations by ApiResult.ok.\n");
+            metrics.append("# TYPE library_operations_total counter\n");
+            for (Map.Entry<String, InstrumentedLibrary.Operation> entry : operations.entrySet()) {
+                String label = "operation=\"" + entry.getKey() + '"';
+                metric(metrics, "library_operations_total{" + label + ",result=\"ok\"}", entry.getValue().getSucceeded());
+                metric(metrics, "library_operations_total{" + label + ",result=\"failed\"}", entry.getValue().getFailed());
+            }
+            metrics.append("# HELP library_operations_in_flight Library operations running now.\n");
+            metrics.append("# TYPE library_operations_in_flight gauge\n");
+            for (Map.Entry<String, InstrumentedLibrary.Operation> entry : operations.entrySet()) {
+                metric(metrics, "library_operations_in_flight{operation=\"" + entry.getKey() + "\"}",
+                        entry.getValue().getInFlight());
+            }
+            byte[] response = metrics.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(response);
+            outputStream.close();
+        }
 
+        private static void metric(StringBuilder metrics, String name, long value) {
+            metrics.append(name).append(' ').append(value).append('\n');
+        }
 
+        private static void sample(StringBuilder metrics, String name, double value) {
+            metrics.append(name).append(' ').append(value).append('\n');
+        }
+    }
+}
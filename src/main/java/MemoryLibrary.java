@@ -0,0 +1,1170 @@
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.*;
+import utils.Journal;
+import utils.TableVersions;
+import utils.TableVersions.Table;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * LibraryManagementSystem kept entirely in memory, for catalog terminals
+ * that read a lot and should not depend on a database server.
+ *
+ * Books and cards sit in concurrent hash maps by id, next to the unique keys
+ * that the database enforces (compared ignoring case, like MySQL's default
+ * collation) and one sorted index per Book.SortColumn, from which queryBook
+ * reads its order and pages directly. Open loans are indexed per card and
+ * per book. Changes are serialized by a write lock, queries share the read
+ * lock and only ever see whole operations. Stored entities are never handed
+ * out, callers get copies.
+ *
+ * Given a directory, every change is appended to a journal before it is
+ * applied and a snapshot of the whole state is written periodically, see
+ * {@link Journal}. Without one the state lives as long as the object.
+ */
+public class MemoryLibrary implements LibraryManagementSystem, Closeable {
+
+    private static final Logger log = Logger.getLogger(MemoryLibrary.class.getName());
+    /* most rows returned by one page of showBooks/showCards/queryBook */
+    private static final int MAX_PAGE_SIZE = 1000;
+    /* varchar(63) & decimal(7, 2) of the database schema */
+    private static final int MAX_TEXT_LENGTH = 63;
+    private static final double MAX_PRICE = 99999.99;
+
+    /* journal records, one per successful change */
+    private static final byte STORE_BOOKS = 1;
+    private static final byte SET_STOCK = 2;
+    private static final byte REMOVE_BOOK = 3;
+    private static final byte MODIFY_BOOK = 4;
+    private static final byte BORROW = 5;
+    private static final byte RETURN = 6;
+    private static final byte REGISTER_CARDS = 7;
+    private static final byte REMOVE_CARD = 8;
+    private static final byte UPDATE_CARD = 9;
+    private static final byte RESET = 10;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Book> books = new ConcurrentHashMap<>();
+    /* unique key of book -> book_id */
+    private final Map<String, Integer> bookKeys = new ConcurrentHashMap<>();
+    /* books ordered by one column, then book_id */
+    private final Map<Book.SortColumn, NavigableSet<Book>> sorted = new EnumMap<>(Book.SortColumn.class);
+    private final Map<Integer, Card> cards = new ConcurrentHashMap<>();
+    private final NavigableSet<Integer> cardIds = new ConcurrentSkipListSet<>();
+    /* unique key of card -> card_id */
+    private final Map<String, Integer> cardKeys = new ConcurrentHashMap<>();
+    /* card_id -> loans of the card in the order they were made */
+    private final Map<Integer, List<Loan>> loansByCard = new ConcurrentHashMap<>();
+    /* book_id -> cards that have loans of the book */
+    private final Map<Integer, Set<Integer>> borrowersByBook = new ConcurrentHashMap<>();
+    /* open loans: card_id -> book_id -> loan, and book_id -> card_ids */
+    private final Map<Integer, Map<Integer, Loan>> openByCard = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> openByBook = new ConcurrentHashMap<>();
+    private int nextBookId = 1;
+    private int nextCardId = 1;
+    private final TableVersions tableVersions = new TableVersions();
+
+    private final Journal journal;
+    private final ScheduledExecutorService snapshots;
+    private final Object snapshotLock = new Object();
+    /* records written since the last snapshot */
+    private long changes;
+
+    /**
+     * a library that keeps nothing on disk.
+     */
+    public MemoryLibrary() {
+        for (Book.SortColumn column : Book.SortColumn.values()) {
+            Comparator<Book> order = column.getComparator();
+            sorted.put(column, new ConcurrentSkipListSet<>(column == Book.SortColumn.BOOK_ID ? order
+                    : order.thenComparingInt(Book::getBookId)));
+        }
+        journal = null;
+        snapshots = null;
+    }
+
+    /**
+     * a library recovered from dir (snapshot & journal), that journals its
+     * changes there and writes a snapshot every snapshotIntervalSeconds.
+     *
+     * @param syncJournal force every journal record to the disk, see {@link Journal}
+     */
+    public MemoryLibrary(File dir, long snapshotIntervalSeconds, boolean syncJournal) throws IOException {
+        for (Book.SortColumn column : Book.SortColumn.values()) {
+            Comparator<Book> order = column.getComparator();
+            sorted.put(column, new ConcurrentSkipListSet<>(column == Book.SortColumn.BOOK_ID ? order
+                    : order.thenComparingInt(Book::getBookId)));
+        }
+        journal = new Journal(dir, syncJournal);
+        changes = journal.recover(this::readSnapshot, this::replay);
+        log.info("Recovered " + books.size() + " books, " + cards.size() + " cards from " + dir
+                + " (" + changes + " journal records)");
+        snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "library-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshots.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                log.warning("Failed to write a snapshot: " + e);
+            }
+        }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /* a change: checks, journals & applies, or fails without changing anything */
+    private interface Change {
+        ApiResult apply() throws IOException;
+    }
+
+    /* run change under the write lock, a failed journal write fails it */
+    private ApiResult write(Change change) {
+        lock.writeLock().lock();
+        try {
+            return change.apply();
+        } catch (IOException e) {
+            return new ApiResult(false, "Failed to write the journal: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void journal(byte type, Journal.Writer record) throws IOException {
+        if (journal != null) {
+            journal.append(out -> {
+                out.writeByte(type);
+                record.write(out);
+            });
+            changes++;
+        }
+    }
+
+    /**
+     * register a book to library.
+     */
+    @Override
+    public ApiResult storeBook(Book book) {
+        return write(() -> {
+            String invalid = invalidBook(book);
+            if (invalid != null) {
+                return new ApiResult(false, invalid);
+            }
+            if (bookKeys.containsKey(bookKey(book))) {
+                return new ApiResult(false, "Book already exists");
+            }
+            Book stored = stored(book, nextBookId, book.getStock());
+            journal(STORE_BOOKS, out -> writeBooks(out, Collections.singletonList(stored)));
+            applyStoreBook(stored);
+            book.setBookId(stored.getBookId());
+            tableVersions.bump(Table.BOOK);
+            return new ApiResult(true, "Successfully store a book");
+        });
+    }
+
+    /**
+     * increase the book's inventory by bookId & deltaStock.
+     */
+    @Override
+    public ApiResult incBookStock(int bookId, int deltaStock) {
+        return write(() -> {
+            Book book = books.get(bookId);
+            if (book == null) {
+                return new ApiResult(false, "Book does not exist");
+            }
+            long stock = (long) book.getStock() + deltaStock;
+            if (stock < 0 || stock > Integer.MAX_VALUE) {
+                return new ApiResult(false, "Stock limit exceeded");
+            }
+            journal(SET_STOCK, out -> {
+                out.writeInt(bookId);
+                out.writeInt((int) stock);
+            });
+            applySetStock(bookId, (int) stock);
+            tableVersions.bump(Table.BOOK);
+            return new ApiResult(true, "Successfully increase the book's stock");
+        });
+    }
+
+    /**
+     * batch store books, none of them if one fails.
+     */
+    @Override
+    public ApiResult storeBook(List<Book> books) {
+        return write(() -> {
+            Set<String> keys = new HashSet<>();
+            for (Book book : books) {
+                String invalid = invalidBook(book);
+                if (invalid != null) {
+                    return new ApiResult(false, invalid);
+                }
+                String key = bookKey(book);
+                if (!keys.add(key) || bookKeys.containsKey(key)) {
+                    return new ApiResult(false, "Book already exists");
+                }
+            }
+            List<Book> stored = new ArrayList<>(books.size());
+            for (Book book : books) {
+                stored.add(stored(book, nextBookId + stored.size(), book.getStock()));
+            }
+            journal(STORE_BOOKS, out -> writeBooks(out, stored));
+            for (int i = 0; i < stored.size(); i++) {
+                applyStoreBook(stored.get(i));
+                books.get(i).setBookId(stored.get(i).getBookId());
+            }
+            tableVersions.bump(Table.BOOK);
+            return new ApiResult(true, "Successfully store a list of books");
+        });
+    }
+
+    /**
+     * store the books that are not stored yet, book_ids are not assigned back.
+     */
+    @Override
+    public ApiResult bulkLoadBooks(List<Book> books) {
+        return write(() -> {
+            Set<String> keys = new HashSet<>();
+            List<Book> stored = new ArrayList<>();
+            for (Book book : books) {
+                // 不合法、已存在或前面出现过的书跳过
+                if (invalidBook(book) == null && keys.add(bookKey(book)) && !bookKeys.containsKey(bookKey(book))) {
+                    stored.add(stored(book, nextBookId + stored.size(), book.getStock()));
+                }
+            }
+            if (!stored.isEmpty()) {
+                journal(STORE_BOOKS, out -> writeBooks(out, stored));
+                stored.forEach(this::applyStoreBook);
+                tableVersions.bump(Table.BOOK);
+            }
+            return new ApiResult(true, "Successfully bulk load books", stored.size());
+        });
+    }
+
+    /**
+     * remove this book, unless someone has not returned it.
+     */
+    @Override
+    public ApiResult removeBook(int bookId) {
+        return write(() -> {
+            if (!books.containsKey(bookId)) {
+                return new ApiResult(false, "Book does not exist");
+            }
+            if (openByBook.containsKey(bookId)) {
+                return new ApiResult(false, "Book is not returned");
+            }
+            journal(REMOVE_BOOK, out -> out.writeInt(bookId));
+            applyRemoveBook(bookId);
+            tableVersions.bump(Table.BOOK);
+            return new ApiResult(true, "Successfully remove book");
+        });
+    }
+
+    /**
+     * modify a book's information by book_id, except its stock.
+     */
+    @Override
+    public ApiResult modifyBookInfo(Book book) {
+        return write(() -> {
+            Book old = books.get(book.getBookId());
+            if (old == null) {
+                return new ApiResult(false, "Book does not exist");
+            }
+            String invalid = invalidBook(book);
+            if (invalid != null) {
+                return new ApiResult(false, invalid);
+            }
+            Integer owner = bookKeys.get(bookKey(book));
+            if (owner != null && owner != book.getBookId()) {
+                return new ApiResult(false, "Book already exists");
+            }
+            Book modified = stored(book, book.getBookId(), old.getStock());
+            journal(MODIFY_BOOK, out -> writeBook(out, modified));
+            applyReplaceBook(modified);
+            tableVersions.bump(Table.BOOK);
+            return new ApiResult(true, "Successfully modify book's info");
+        });
+    }
+
+    /**
+     * query books according to different query conditions.
+     */
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        return new ApiResult(true, "Successfully query book", select(conditions, null, 0));
+    }
+
+    /**
+     * query one page of books, starting after cursor.
+     */
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, int limit, String cursor) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ApiResult(false, "Page size should be between 1 and " + MAX_PAGE_SIZE);
+        }
+        Book after = null;
+        if (cursor != null) {
+            PageCursor position = PageCursor.decode(cursor);
+            // 游标只能用在同样排序的查询上
+            if (position == null || !position.matches(conditions.getSortBy().getValue(), conditions.getSortOrder())) {
+                return new ApiResult(false, "Invalid cursor");
+            }
+            after = probe(conditions.getSortBy(), position.getValue(), position.getId());
+            if (after == null) {
+                return new ApiResult(false, "Invalid cursor");
+            }
+        }
+        return new ApiResult(true, "Successfully query book", select(conditions, after, limit));
+    }
+
+    /**
+     * query books and hand them to handler one by one. the matching books
+     * are collected under the read lock first, so that a slow handler
+     * does not hold up changes.
+     */
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, ResultHandler<Book> handler) {
+        List<Book> results = select(conditions, null, 0).getResults();
+        int count = 0;
+        try {
+            for (Book book : results) {
+                handler.accept(book);
+                count++;
+            }
+        } catch (Exception e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        return new ApiResult(true, "Successfully query book", count);
+    }
+
+    /**
+     * books matching conditions in their order, read from the index of the
+     * sort column. when limit > 0, only the first limit books after the
+     * position of after (if any), with the cursor of the next page.
+     */
+    private BookQueryResults select(BookQueryConditions conditions, Book after, int limit) {
+        Predicate<Book> filter = filter(conditions);
+        List<Book> results = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Iterator<Book> it = ordered(conditions.getSortBy(), conditions.getSortOrder(), after);
+            while (it.hasNext() && (limit == 0 || results.size() <= limit)) {
+                Book book = it.next();
+                if (filter.test(book)) {
+                    results.add(book.clone());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        String nextCursor = null;
+        if (limit > 0 && results.size() > limit) {
+            results.remove(limit);
+            nextCursor = PageCursor.after(results.get(limit - 1), conditions.getSortBy(),
+                    conditions.getSortOrder()).encode();
+        }
+        BookQueryResults bookQueryResults = new BookQueryResults(results);
+        bookQueryResults.setNextCursor(nextCursor);
+        return bookQueryResults;
+    }
+
+    /**
+     * books in the order of queryBook: by the column, ties by book_id
+     * ascending in both orders, starting after the position of after.
+     */
+    private Iterator<Book> ordered(Book.SortColumn sortBy, SortOrder order, Book after) {
+        NavigableSet<Book> index = sorted.get(sortBy);
+        if (order == SortOrder.ASC) {
+            return (after == null ? index : index.tailSet(after, false)).iterator();
+        }
+        if (sortBy == Book.SortColumn.BOOK_ID) {
+            return (after == null ? index : index.headSet(after, false)).descendingIterator();
+        }
+        if (after == null) {
+            return new TiesAscending(index.descendingIterator(), sortBy.getComparator());
+        }
+        // 先是游标所在的同值的书中book_id更大的，再是值更小的
+        Book lastOfValue = after.clone();
+        lastOfValue.setBookId(Integer.MAX_VALUE);
+        Book firstOfValue = after.clone();
+        firstOfValue.setBookId(Integer.MIN_VALUE);
+        Iterator<Book> rest = index.subSet(after, false, lastOfValue, true).iterator();
+        Iterator<Book> below = new TiesAscending(index.headSet(firstOfValue, false).descendingIterator(),
+                sortBy.getComparator());
+        return new Iterator<Book>() {
+            @Override
+            public boolean hasNext() {
+                return rest.hasNext() || below.hasNext();
+            }
+
+            @Override
+            public Book next() {
+                return rest.hasNext() ? rest.next() : below.next();
+            }
+        };
+    }
+
+    /* a descending iteration with the runs of equal values turned around, so ties stay in book_id order */
+    private static final class TiesAscending implements Iterator<Book> {
+
+        private final Iterator<Book> descending;
+        private final Comparator<Book> column;
+        private final List<Book> run = new ArrayList<>();
+        private Book pending;
+        private int next;
+
+        TiesAscending(Iterator<Book> descending, Comparator<Book> column) {
+            this.descending = descending;
+            this.column = column;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next > 0 || pending != null || descending.hasNext();
+        }
+
+        @Override
+        public Book next() {
+            if (next == 0) {
+                run.clear();
+                Book first = pending != null ? pending : descending.next();
+                pending = null;
+                run.add(first);
+                while (descending.hasNext()) {
+                    Book book = descending.next();
+                    if (column.compare(book, first) != 0) {
+                        pending = book;
+                        break;
+                    }
+                    run.add(book);
+                }
+                next = run.size();
+            }
+            if (next == 0) {
+                throw new NoSuchElementException();
+            }
+            return run.get(--next);
+        }
+    }
+
+    /* the conditions of queryBook, strings compared ignoring case */
+    private static Predicate<Book> filter(BookQueryConditions conditions) {
+        String category = lower(conditions.getCategory());
+        String title = lower(conditions.getTitle());
+        String press = lower(conditions.getPress());
+        String author = lower(conditions.getAuthor());
+        Integer minPublishYear = conditions.getMinPublishYear();
+        Integer maxPublishYear = conditions.getMaxPublishYear();
+        Double minPrice = conditions.getMinPrice();
+        Double maxPrice = conditions.getMaxPrice();
+        return book -> (category == null || lower(book.getCategory()).equals(category))
+                && (title == null || lower(book.getTitle()).contains(title))
+                && (press == null || lower(book.getPress()).contains(press))
+                && (author == null || lower(book.getAuthor()).contains(author))
+                && (minPublishYear == null || book.getPublishYear() >= minPublishYear)
+                && (maxPublishYear == null || book.getPublishYear() <= maxPublishYear)
+                && (minPrice == null || book.getPrice() >= minPrice)
+                && (maxPrice == null || book.getPrice() <= maxPrice);
+    }
+
+    /* a book placed where the cursor points in the index of sortBy, null if the value does not parse */
+    private static Book probe(Book.SortColumn sortBy, String value, int id) {
+        Book book = new Book("", "", "", 0, "", 0, 0);
+        book.setBookId(id);
+        try {
+            switch (sortBy) {
+                case CATEGORY:
+                    book.setCategory(value);
+                    break;
+                case TITLE:
+                    book.setTitle(value);
+                    break;
+                case PRESS:
+                    book.setPress(value);
+                    break;
+                case AUTHOR:
+                    book.setAuthor(value);
+                    break;
+                case PUBLISH_YEAR:
+                    book.setPublishYear(Integer.parseInt(value));
+                    break;
+                case STOCK:
+                    book.setStock(Integer.parseInt(value));
+                    break;
+                case PRICE:
+                    book.setPrice(Double.parseDouble(value));
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return book;
+    }
+
+    /**
+     * a user borrows one book with the specific card.
+     */
+    @Override
+    public ApiResult borrowBook(Borrow borrow) {
+        return write(() -> {
+            int cardId = borrow.getCardId();
+            int bookId = borrow.getBookId();
+            if (!cards.containsKey(cardId)) {
+                return new ApiResult(false, "Card does not exist");
+            }
+            Book book = books.get(bookId);
+            if (book == null) {
+                return new ApiResult(false, "Book does not exist");
+            }
+            if (openByCard.getOrDefault(cardId, Collections.emptyMap()).containsKey(bookId)) {
+                return new ApiResult(false, "There's already a borrowed book not returned");
+            }
+            if (book.getStock() <= 0) {
+                return new ApiResult(false, "No more stock for the book");
+            }
+            // 主键(card_id, book_id, borrow_time)
+            for (Loan loan : loansByCard.getOrDefault(cardId, Collections.emptyList())) {
+                if (loan.bookId == bookId && loan.borrowTime == borrow.getBorrowTime()) {
+                    return new ApiResult(false, "Failed to borrow book");
+                }
+            }
+            journal(BORROW, out -> {
+                out.writeInt(cardId);
+                out.writeInt(bookId);
+                out.writeLong(borrow.getBorrowTime());
+            });
+            applyBorrow(cardId, bookId, borrow.getBorrowTime());
+            tableVersions.bump(Table.BOOK);
+            return new ApiResult(true, "Successfully borrow book");
+        });
+    }
+
+    /**
+     * A user return one book with specific card.
+     */
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        return write(() -> {
+            int cardId = borrow.getCardId();
+            int bookId = borrow.getBookId();
+            Loan loan = openByCard.getOrDefault(cardId, Collections.emptyMap()).get(bookId);
+            if (loan == null || loan.borrowTime != borrow.getBorrowTime()) {
+                return new ApiResult(false, "No such card borrow the according book");
+            }
+            // return_time为0表示未归还
+            if (borrow.getReturnTime() <= borrow.getBorrowTime() || borrow.getReturnTime() == 0) {
+                return new ApiResult(false, "Return time should be after borrow time");
+            }
+            journal(RETURN, out -> {
+                out.writeInt(cardId);
+                out.writeInt(bookId);
+                out.writeLong(borrow.getReturnTime());
+            });
+            applyReturn(cardId, bookId, borrow.getReturnTime());
+            tableVersions.bump(Table.BOOK);
+            return new ApiResult(true, "Successfully return book");
+        });
+    }
+
+    /**
+     * list all borrow histories for a specific card,
+     * by borrow_time DESC, book_id ASC.
+     */
+    @Override
+    public ApiResult showBorrowHistory(int cardId) {
+        List<BorrowHistories.Item> histories = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Loan loan : loansByCard.getOrDefault(cardId, Collections.emptyList())) {
+                Borrow borrow = new Borrow(loan.bookId, cardId);
+                borrow.setBorrowTime(loan.borrowTime);
+                borrow.setReturnTime(loan.returnTime);
+                histories.add(new BorrowHistories.Item(cardId, books.get(loan.bookId), borrow));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        histories.sort(Comparator.comparingLong(BorrowHistories.Item::getBorrowTime).reversed()
+                .thenComparingInt(BorrowHistories.Item::getBookId));
+        return new ApiResult(true, "Successfully show borrow history", new BorrowHistories(histories));
+    }
+
+    /**
+     * create a new borrow card.
+     */
+    @Override
+    public ApiResult registerCard(Card card) {
+        return write(() -> {
+            String invalid = invalidCard(card);
+            if (invalid != null) {
+                return new ApiResult(false, invalid);
+            }
+            if (cardKeys.containsKey(cardKey(card))) {
+                return new ApiResult(false, "Card already exists");
+            }
+            Card stored = stored(card, nextCardId);
+            journal(REGISTER_CARDS, out -> writeCards(out, Collections.singletonList(stored)));
+            applyRegisterCard(stored);
+            card.setCardId(stored.getCardId());
+            tableVersions.bump(Table.CARD);
+            return new ApiResult(true, "Successfully register a new card");
+        });
+    }
+
+    /**
+     * register the cards that are not registered yet, card_ids are not assigned back.
+     */
+    @Override
+    public ApiResult bulkLoadCards(List<Card> cards) {
+        return write(() -> {
+            Set<String> keys = new HashSet<>();
+            List<Card> stored = new ArrayList<>();
+            for (Card card : cards) {
+                if (invalidCard(card) == null && keys.add(cardKey(card)) && !cardKeys.containsKey(cardKey(card))) {
+                    stored.add(stored(card, nextCardId + stored.size()));
+                }
+            }
+            if (!stored.isEmpty()) {
+                journal(REGISTER_CARDS, out -> writeCards(out, stored));
+                stored.forEach(this::applyRegisterCard);
+                tableVersions.bump(Table.CARD);
+            }
+            return new ApiResult(true, "Successfully bulk load cards", stored.size());
+        });
+    }
+
+    /**
+     * remove a card and its loans, unless it has books not returned.
+     */
+    @Override
+    public ApiResult removeCard(int cardId) {
+        return write(() -> {
+            if (!cards.containsKey(cardId)) {
+                return new ApiResult(false, "Card does not exist");
+            }
+            if (openByCard.containsKey(cardId)) {
+                return new ApiResult(false, "There's a book not returned with this card");
+            }
+            journal(REMOVE_CARD, out -> out.writeInt(cardId));
+            applyRemoveCard(cardId);
+            tableVersions.bump(Table.CARD);
+            return new ApiResult(true, "Successfully remove a card");
+        });
+    }
+
+    /**
+     * list all cards order by card_id.
+     */
+    @Override
+    public ApiResult showCards() {
+        List<Card> list = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Integer cardId : cardIds) {
+                list.add(cards.get(cardId).clone());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ApiResult(true, "Successfully show cards", new CardList(list));
+    }
+
+    /**
+     * list one page of cards order by card_id, starting after cursor.
+     */
+    @Override
+    public ApiResult showCards(int limit, String cursor) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return new ApiResult(false, "Page size should be between 1 and " + MAX_PAGE_SIZE);
+        }
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor);
+        if (cursor != null && (after == null || !after.matches("card_id", SortOrder.ASC))) {
+            return new ApiResult(false, "Invalid cursor");
+        }
+        List<Card> list = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Integer cardId : after == null ? cardIds : cardIds.tailSet(after.getId(), false)) {
+                if (list.size() > limit) {
+                    break;
+                }
+                list.add(cards.get(cardId).clone());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        String nextCursor = null;
+        if (list.size() > limit) {
+            list.remove(limit);
+            nextCursor = new PageCursor("card_id", SortOrder.ASC, null, list.get(limit - 1).getCardId()).encode();
+        }
+        CardList cardList = new CardList(list);
+        cardList.setNextCursor(nextCursor);
+        return new ApiResult(true, "Successfully show cards", cardList);
+    }
+
+    /**
+     * reset the library to empty, ids start from 1 again.
+     */
+    @Override
+    public ApiResult resetDatabase() {
+        return write(() -> {
+            journal(RESET, out -> {
+            });
+            applyReset();
+            tableVersions.bump(Table.values());
+            return new ApiResult(true, null);
+        });
+    }
+
+    /**
+     * update card, except its id.
+     */
+    @Override
+    public ApiResult updateCard(Card card) {
+        return write(() -> {
+            if (!cards.containsKey(card.getCardId())) {
+                return new ApiResult(false, "Card does not exist");
+            }
+            String invalid = invalidCard(card);
+            if (invalid != null) {
+                return new ApiResult(false, invalid);
+            }
+            Integer owner = cardKeys.get(cardKey(card));
+            if (owner != null && owner != card.getCardId()) {
+                return new ApiResult(false, "Card already exists");
+            }
+            Card updated = stored(card, card.getCardId());
+            journal(UPDATE_CARD, out -> writeCard(out, updated));
+            applyReplaceCard(updated);
+            tableVersions.bump(Table.CARD);
+            return new ApiResult(true, "Successfully update card");
+        });
+    }
+
+    /**
+     * show all books order by book_id.
+     */
+    @Override
+    public ApiResult showBooks() {
+        return new ApiResult(true, "Successfully show books", select(new BookQueryConditions(), null, 0).getResults());
+    }
+
+    /**
+     * list one page of books order by book_id.
+     */
+    @Override
+    public ApiResult showBooks(int limit, String cursor) {
+        return queryBook(new BookQueryConditions(), limit, cursor);
+    }
+
+    /* versions of the tables changed through this library */
+    public TableVersions getTableVersions() {
+        return tableVersions;
+    }
+
+    /**
+     * write a snapshot of the current state, if anything changed since the
+     * last one. the write lock is held only while the state is copied.
+     */
+    public void snapshot() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            long first;
+            int books;
+            int cards;
+            List<Book> bookList;
+            List<Card> cardList;
+            List<Loan> loanList = new ArrayList<>();
+            lock.writeLock().lock();
+            try {
+                if (changes == 0) {
+                    return;
+                }
+                first = journal.rotate();
+                changes = 0;
+                books = nextBookId;
+                cards = nextCardId;
+                bookList = new ArrayList<>(sorted.get(Book.SortColumn.BOOK_ID));
+                cardList = new ArrayList<>();
+                for (Integer cardId : cardIds) {
+                    cardList.add(this.cards.get(cardId));
+                    for (Loan loan : loansByCard.getOrDefault(cardId, Collections.emptyList())) {
+                        loanList.add(loan.copy());
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            journal.writeSnapshot(first, out -> {
+                out.writeInt(books);
+                out.writeInt(cards);
+                writeBooks(out, bookList);
+                writeCards(out, cardList);
+                out.writeInt(loanList.size());
+                for (Loan loan : loanList) {
+                    out.writeInt(loan.cardId);
+                    out.writeInt(loan.bookId);
+                    out.writeLong(loan.borrowTime);
+                    out.writeLong(loan.returnTime);
+                }
+            });
+        }
+    }
+
+    /**
+     * stop the periodic snapshots, write a last one and close the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        snapshots.shutdownNow();
+        try {
+            snapshot();
+        } finally {
+            journal.close();
+        }
+    }
+
+    private void readSnapshot(DataInputStream in) throws IOException {
+        int books = in.readInt();
+        int cards = in.readInt();
+        readBooks(in).forEach(this::applyStoreBook);
+        readCards(in).forEach(this::applyRegisterCard);
+        for (int n = in.readInt(); n > 0; n--) {
+            Loan loan = new Loan(in.readInt(), in.readInt(), in.readLong());
+            loan.returnTime = in.readLong();
+            addLoan(loan);
+        }
+        nextBookId = books;
+        nextCardId = cards;
+    }
+
+    /* apply one journal record again */
+    private void replay(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case STORE_BOOKS:
+                readBooks(in).forEach(this::applyStoreBook);
+                break;
+            case SET_STOCK:
+                applySetStock(in.readInt(), in.readInt());
+                break;
+            case REMOVE_BOOK:
+                applyRemoveBook(in.readInt());
+                break;
+            case MODIFY_BOOK:
+                applyReplaceBook(readBook(in));
+                break;
+            case BORROW:
+                applyBorrow(in.readInt(), in.readInt(), in.readLong());
+                break;
+            case RETURN:
+                applyReturn(in.readInt(), in.readInt(), in.readLong());
+                break;
+            case REGISTER_CARDS:
+                readCards(in).forEach(this::applyRegisterCard);
+                break;
+            case REMOVE_CARD:
+                applyRemoveCard(in.readInt());
+                break;
+            case UPDATE_CARD:
+                applyReplaceCard(readCard(in));
+                break;
+            case RESET:
+                applyReset();
+                break;
+            default:
+                throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+    /* the apply methods change the state without any check, callers hold the write lock */
+
+    private void applyStoreBook(Book book) {
+        books.put(book.getBookId(), book);
+        bookKeys.put(bookKey(book), book.getBookId());
+        for (NavigableSet<Book> index : sorted.values()) {
+            index.add(book);
+        }
+        nextBookId = Math.max(nextBookId, book.getBookId() + 1);
+    }
+
+    /* book takes the place of the stored book with its id */
+    private void applyReplaceBook(Book book) {
+        Book old = books.get(book.getBookId());
+        for (NavigableSet<Book> index : sorted.values()) {
+            index.remove(old);
+        }
+        bookKeys.remove(bookKey(old));
+        applyStoreBook(book);
+    }
+
+    private void applySetStock(int bookId, int stock) {
+        Book book = books.get(bookId).clone();
+        book.setStock(stock);
+        applyReplaceBook(book);
+    }
+
+    /* the book goes with its loans, like the cascading foreign key */
+    private void applyRemoveBook(int bookId) {
+        Book old = books.remove(bookId);
+        for (NavigableSet<Book> index : sorted.values()) {
+            index.remove(old);
+        }
+        bookKeys.remove(bookKey(old));
+        Set<Integer> borrowers = borrowersByBook.remove(bookId);
+        if (borrowers != null) {
+            for (Integer cardId : borrowers) {
+                List<Loan> loans = loansByCard.get(cardId);
+                loans.removeIf(loan -> loan.bookId == bookId);
+                if (loans.isEmpty()) {
+                    loansByCard.remove(cardId);
+                }
+            }
+        }
+    }
+
+    private void applyBorrow(int cardId, int bookId, long borrowTime) {
+        addLoan(new Loan(cardId, bookId, borrowTime));
+        applySetStock(bookId, books.get(bookId).getStock() - 1);
+    }
+
+    private void addLoan(Loan loan) {
+        loansByCard.computeIfAbsent(loan.cardId, k -> new ArrayList<>()).add(loan);
+        borrowersByBook.computeIfAbsent(loan.bookId, k -> ConcurrentHashMap.newKeySet()).add(loan.cardId);
+        if (loan.returnTime == 0) {
+            openByCard.computeIfAbsent(loan.cardId, k -> new ConcurrentHashMap<>()).put(loan.bookId, loan);
+            openByBook.computeIfAbsent(loan.bookId, k -> ConcurrentHashMap.newKeySet()).add(loan.cardId);
+        }
+    }
+
+    private void applyReturn(int cardId, int bookId, long returnTime) {
+        Map<Integer, Loan> open = openByCard.get(cardId);
+        Loan loan = open.remove(bookId);
+        loan.returnTime = returnTime;
+        if (open.isEmpty()) {
+            openByCard.remove(cardId);
+        }
+        Set<Integer> borrowers = openByBook.get(bookId);
+        borrowers.remove(cardId);
+        if (borrowers.isEmpty()) {
+            openByBook.remove(bookId);
+        }
+        applySetStock(bookId, books.get(bookId).getStock() + 1);
+    }
+
+    private void applyRegisterCard(Card card) {
+        cards.put(card.getCardId(), card);
+        cardIds.add(card.getCardId());
+        cardKeys.put(cardKey(card), card.getCardId());
+        nextCardId = Math.max(nextCardId, card.getCardId() + 1);
+    }
+
+    private void applyReplaceCard(Card card) {
+        cardKeys.remove(cardKey(cards.get(card.getCardId())));
+        applyRegisterCard(card);
+    }
+
+    /* the card goes with its loans, like the cascading foreign key */
+    private void applyRemoveCard(int cardId) {
+        Card old = cards.remove(cardId);
+        cardIds.remove(cardId);
+        cardKeys.remove(cardKey(old));
+        List<Loan> loans = loansByCard.remove(cardId);
+        if (loans != null) {
+            for (Loan loan : loans) {
+                Set<Integer> borrowers = borrowersByBook.get(loan.bookId);
+                if (borrowers != null) {
+                    borrowers.remove(cardId);
+                    if (borrowers.isEmpty()) {
+                        borrowersByBook.remove(loan.bookId);
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyReset() {
+        books.clear();
+        bookKeys.clear();
+        sorted.values().forEach(Set::clear);
+        cards.clear();
+        cardIds.clear();
+        cardKeys.clear();
+        loansByCard.clear();
+        borrowersByBook.clear();
+        openByCard.clear();
+        openByBook.clear();
+        nextBookId = 1;
+        nextCardId = 1;
+    }
+
+    /* what the book table would refuse, null if the book fits */
+    private static String invalidBook(Book book) {
+        if (!fits(book.getCategory()) || !fits(book.getTitle()) || !fits(book.getPress())
+                || !fits(book.getAuthor())) {
+            return "Invalid book";
+        }
+        if (!(Math.abs(book.getPrice()) <= MAX_PRICE)) {
+            return "Invalid price";
+        }
+        return null;
+    }
+
+    private static String invalidCard(Card card) {
+        if (!fits(card.getName()) || !fits(card.getDepartment()) || card.getType() == null) {
+            return "Invalid card";
+        }
+        return null;
+    }
+
+    private static boolean fits(String s) {
+        return s != null && s.length() <= MAX_TEXT_LENGTH;
+    }
+
+    /* the copy of book kept by the library, its price rounded like decimal(7, 2) */
+    private static Book stored(Book book, int bookId, int stock) {
+        double price = BigDecimal.valueOf(book.getPrice()).setScale(2, RoundingMode.HALF_UP).doubleValue();
+        Book stored = new Book(book.getCategory(), book.getTitle(), book.getPress(), book.getPublishYear(),
+                book.getAuthor(), price, stock);
+        stored.setBookId(bookId);
+        return stored;
+    }
+
+    private static Card stored(Card card, int cardId) {
+        Card stored = new Card(cardId, card.getName(), card.getDepartment(), card.getType());
+        return stored;
+    }
+
+    /* unique (category, press, author, title, publish_year) */
+    private static String bookKey(Book book) {
+        return lower(book.getCategory()) + '\0' + lower(book.getPress()) + '\0' + lower(book.getAuthor())
+                + '\0' + lower(book.getTitle()) + '\0' + book.getPublishYear();
+    }
+
+    /* unique (department, type, name) */
+    private static String cardKey(Card card) {
+        return lower(card.getDepartment()) + '\0' + card.getType().getStr() + '\0' + lower(card.getName());
+    }
+
+    private static String lower(String s) {
+        return s == null ? null : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static void writeBooks(DataOutputStream out, List<Book> books) throws IOException {
+        out.writeInt(books.size());
+        for (Book book : books) {
+            writeBook(out, book);
+        }
+    }
+
+    private static void writeBook(DataOutputStream out, Book book) throws IOException {
+        out.writeInt(book.getBookId());
+        out.writeUTF(book.getCategory());
+        out.writeUTF(book.getTitle());
+        out.writeUTF(book.getPress());
+        out.writeInt(book.getPublishYear());
+        out.writeUTF(book.getAuthor());
+        out.writeDouble(book.getPrice());
+        out.writeInt(book.getStock());
+    }
+
+    private static List<Book> readBooks(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<Book> books = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            books.add(readBook(in));
+        }
+        return books;
+    }
+
+    private static Book readBook(DataInputStream in) throws IOException {
+        int bookId = in.readInt();
+        Book book = new Book(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt(), in.readUTF(),
+                in.readDouble(), in.readInt());
+        book.setBookId(bookId);
+        return book;
+    }
+
+    private static void writeCards(DataOutputStream out, List<Card> cards) throws IOException {
+        out.writeInt(cards.size());
+        for (Card card : cards) {
+            writeCard(out, card);
+        }
+    }
+
+    private static void writeCard(DataOutputStream out, Card card) throws IOException {
+        out.writeInt(card.getCardId());
+        out.writeUTF(card.getName());
+        out.writeUTF(card.getDepartment());
+        out.writeUTF(card.getType().getStr());
+    }
+
+    private static List<Card> readCards(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<Card> cards = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            cards.add(readCard(in));
+        }
+        return cards;
+    }
+
+    private static Card readCard(DataInputStream in) throws IOException {
+        return new Card(in.readInt(), in.readUTF(), in.readUTF(), Card.CardType.values(in.readUTF()));
+    }
+
+    /* one row of borrow, returnTime is 0 while the book is out */
+    private static final class Loan {
+
+        final int cardId;
+        final int bookId;
+        final long borrowTime;
+        long returnTime;
+
+        Loan(int cardId, int bookId, long borrowTime) {
+            this.cardId = cardId;
+            this.bookId = bookId;
+            this.borrowTime = borrowTime;
+        }
+
+        Loan copy() {
+            Loan loan = new Loan(cardId, bookId, borrowTime);
+            loan.returnTime = returnTime;
+            return loan;
+        }
+    }
+}
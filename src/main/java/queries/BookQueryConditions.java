@@ -2,6 +2,8 @@ package queries;
 
 import entities.Book;
 
+import java.util.Objects;
+
 /**
  * Note: (1) all non-null attributes should be used as query
  *       conditions and connected by "AND" operations.
@@ -42,6 +44,49 @@ public class BookQueryConditions {
         sortOrder = SortOrder.ASC;
     }
 
+    /**
+     * a copy of these conditions in canonical form: equal to any other
+     * conditions selecting the same books in the same order. a fuzzy
+     * condition on "" matches every book and is the same as none.
+     */
+    public BookQueryConditions canonical() {
+        BookQueryConditions copy = new BookQueryConditions();
+        copy.category = category;
+        copy.title = "".equals(title) ? null : title;
+        copy.press = "".equals(press) ? null : press;
+        copy.minPublishYear = minPublishYear;
+        copy.maxPublishYear = maxPublishYear;
+        copy.author = "".equals(author) ? null : author;
+        copy.minPrice = minPrice;
+        copy.maxPrice = maxPrice;
+        copy.sortBy = sortBy;
+        copy.sortOrder = sortOrder;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BookQueryConditions that = (BookQueryConditions) o;
+        return Objects.equals(category, that.category) &&
+                Objects.equals(title, that.title) &&
+                Objects.equals(press, that.press) &&
+                Objects.equals(minPublishYear, that.minPublishYear) &&
+                Objects.equals(maxPublishYear, that.maxPublishYear) &&
+                Objects.equals(author, that.author) &&
+                Objects.equals(minPrice, that.minPrice) &&
+                Objects.equals(maxPrice, that.maxPrice) &&
+                sortBy == that.sortBy &&
+                sortOrder == that.sortOrder;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(category, title, press, minPublishYear, maxPublishYear, author, minPrice, maxPrice,
+                sortBy, sortOrder);
+    }
+
     public String getCategory() {
         return category;
     }
@@ -8,6 +8,8 @@ public class CardList {
 
     private int count;
     private List<Card> cards;
+    /* cursor of the next page, null on the last page or when not paged */
+    private String nextCursor;
 
     public CardList(List<Card> cards) {
         this.count = cards.size();
@@ -29,4 +31,12 @@ public class CardList {
     public void setCards(List<Card> cards) {
         this.cards = cards;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
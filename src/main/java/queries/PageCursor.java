@@ -0,0 +1,120 @@
+package queries;
+
+import entities.Book;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position after the last row of a page: the sort column & order the page
+ * was read with, the value of the sort column and the id of that row.
+ *
+ * Clients only see it as an opaque url-safe string, see {@link #encode()}.
+ */
+public final class PageCursor {
+
+    private static final String VERSION = "1";
+
+    private final String column;
+    private final SortOrder order;
+    private final String value;
+    private final int id;
+
+    /**
+     * @param column sort column of the page
+     * @param order  sort order of the page
+     * @param value  sort column's value in the last row, null when sorting by the id itself
+     * @param id     id of the last row
+     */
+    public PageCursor(String column, SortOrder order, String value, int id) {
+        this.column = column;
+        this.order = order;
+        this.value = value;
+        this.id = id;
+    }
+
+    /* position after the book, the last of a page sorted by sortBy & order */
+    public static PageCursor after(Book book, Book.SortColumn sortBy, SortOrder order) {
+        return new PageCursor(sortBy.getValue(), order, sortValue(book, sortBy), book.getBookId());
+    }
+
+    /* value of the sort column in a cursor, null when sorting by book_id */
+    private static String sortValue(Book book, Book.SortColumn sortBy) {
+        switch (sortBy) {
+            case CATEGORY:
+                return book.getCategory();
+            case TITLE:
+                return book.getTitle();
+            case PRESS:
+                return book.getPress();
+            case AUTHOR:
+                return book.getAuthor();
+            case PUBLISH_YEAR:
+                return Integer.toString(book.getPublishYear());
+            case STOCK:
+                return Integer.toString(book.getStock());
+            case PRICE:
+                return BigDecimal.valueOf(book.getPrice()).toPlainString();
+            default:
+                return null;
+        }
+    }
+
+    /* version|column|order|id|value, the value goes last since it may contain '|' */
+    public String encode() {
+        String text = VERSION + '|' + column + '|' + order.getValue() + '|' + id + '|' + (value == null ? "" : value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* null if the cursor was not produced by encode() */
+    public static PageCursor decode(String cursor) {
+        String text;
+        try {
+            text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String[] parts = text.split("\\|", 5);
+        if (parts.length != 5 || !parts[0].equals(VERSION)) {
+            return null;
+        }
+        SortOrder order = null;
+        for (SortOrder o : SortOrder.values()) {
+            if (o.getValue().equals(parts[2])) {
+                order = o;
+            }
+        }
+        int id;
+        try {
+            id = Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (order == null) {
+            return null;
+        }
+        return new PageCursor(parts[1], order, parts[4], id);
+    }
+
+    /* whether the cursor belongs to pages read with this sort column & order */
+    public boolean matches(String column, SortOrder order) {
+        return this.column.equals(column) && this.order == order;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public SortOrder getOrder() {
+        return order;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getId() {
+        return id;
+    }
+}
@@ -0,0 +1,11 @@
+package queries;
+
+/**
+ * Receives the rows of a streamed query one by one, in the order of the
+ * query, while the result set is still open.
+ */
+public interface ResultHandler<T> {
+
+    /* an exception stops the query, it is then reported as a failed ApiResult */
+    void accept(T row) throws Exception;
+}
@@ -0,0 +1,255 @@
+package utils;
+
+import entities.Book;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of book rows by book_id, a segmented LRU split into
+ * stripes that are locked independently.
+ *
+ * A row enters a stripe's probation segment and moves to its protected
+ * segment (80% of the stripe) when it is read again; rows falling out of
+ * the protected segment go back to probation, and the eldest probation row
+ * is evicted. A scan of rows read once therefore only ever replaces other
+ * rows read once.
+ *
+ * The database stays the source of truth, the library only uses cached
+ * rows to skip a lookup and checks its guesses in the statement that
+ * follows. Writes come in two kinds: updates & invalidations made once a
+ * transaction has committed, and fills of rows read from the database. A
+ * fill carries the stamp of its stripe taken before the read and is
+ * dropped when the stripe was written since, so a row read before a commit
+ * never overwrites what the commit left behind.
+ */
+public final class BookCache {
+
+    /* 2^STRIPE_BITS stripes */
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final int capacity;
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity most rows kept, 0 disables the cache
+     */
+    public BookCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            // 容量按条带均分，余数给前面的条带
+            stripes[i] = new Stripe(this.capacity / STRIPES + (i < this.capacity % STRIPES ? 1 : 0));
+        }
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * a copy of the cached row, null on a miss.
+     */
+    public Book get(int bookId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Book book = stripe(bookId).get(bookId);
+        if (book == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return book.clone();
+    }
+
+    /* stamp of the stripe of bookId, take it before reading the row for fill() */
+    public long stamp(int bookId) {
+        return stripe(bookId).writes;
+    }
+
+    /* stamps of all stripes, for fills of rows whose ids are not known before the read */
+    public long[] stamps() {
+        long[] stamps = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stamps[i] = stripes[i].writes;
+        }
+        return stamps;
+    }
+
+    /**
+     * cache a row read from the database, unless its stripe was written
+     * since stamp: whatever the cache holds then is at least as new.
+     */
+    public void fill(Book book, long stamp) {
+        if (isEnabled()) {
+            stripe(book.getBookId()).fill(book.clone(), stamp);
+        }
+    }
+
+    /* fill() with the stamps of all stripes, see stamps() */
+    public void fill(Book book, long[] stamps) {
+        fill(book, stamps[index(book.getBookId())]);
+    }
+
+    /**
+     * after a committed change of stock from oldStock to newStock: a cached
+     * row holding oldStock is updated, any other one was already stale and
+     * is dropped.
+     */
+    public void updateStock(int bookId, int oldStock, int newStock) {
+        if (isEnabled()) {
+            stripe(bookId).updateStock(bookId, oldStock, newStock);
+        }
+    }
+
+    /* after a committed change of the row that is not known in full */
+    public void invalidate(int bookId) {
+        if (isEnabled()) {
+            stripe(bookId).remove(bookId);
+        }
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /* hits / lookups since start, 0 before the first lookup */
+    public double getHitRatio() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private Stripe stripe(int bookId) {
+        return stripes[index(bookId)];
+    }
+
+    private static int index(int bookId) {
+        // 斐波那契散列取高位，连续的book_id均匀落在各个条带
+        return (bookId * 0x9E3779B9) >>> (32 - STRIPE_BITS);
+    }
+
+    private final class Stripe {
+
+        private final int capacity;
+        private final int protectedCapacity;
+        /* access order, eldest first */
+        private final LinkedHashMap<Integer, Book> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Integer, Book> protect = new LinkedHashMap<>(16, 0.75f, true);
+        /* updates & invalidations so far, fills read before one of them are dropped */
+        private volatile long writes;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * 4 / 5;
+        }
+
+        synchronized Book get(int bookId) {
+            Book book = protect.get(bookId);
+            if (book != null) {
+                return book;
+            }
+            book = probation.remove(bookId);
+            if (book == null) {
+                return null;
+            }
+            // 第二次访问，从试用段升到保护段，保护段满了把最久未用的降回试用段
+            protect.put(bookId, book);
+            if (protect.size() > protectedCapacity) {
+                Iterator<Map.Entry<Integer, Book>> eldest = protect.entrySet().iterator();
+                Map.Entry<Integer, Book> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return book;
+        }
+
+        synchronized void fill(Book book, long stamp) {
+            if (writes != stamp) {
+                return;
+            }
+            int bookId = book.getBookId();
+            if (protect.containsKey(bookId)) {
+                protect.put(bookId, book);
+                return;
+            }
+            probation.put(bookId, book);
+            if (probation.size() + protect.size() > capacity) {
+                Iterator<Book> eldest = (probation.isEmpty() ? protect : probation).values().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void updateStock(int bookId, int oldStock, int newStock) {
+            writes++;
+            Book book = protect.containsKey(bookId) ? protect.get(bookId) : probation.get(bookId);
+            if (book == null) {
+                return;
+            }
+            if (book.getStock() != oldStock) {
+                remove(bookId);
+                return;
+            }
+            // 缓存中的行不会被外面修改，换成新对象
+            Book updated = book.clone();
+            updated.setStock(newStock);
+            if (protect.containsKey(bookId)) {
+                protect.put(bookId, updated);
+            } else {
+                probation.put(bookId, updated);
+            }
+        }
+
+        synchronized void remove(int bookId) {
+            writes++;
+            if (protect.remove(bookId) == null) {
+                probation.remove(bookId);
+            }
+        }
+
+        synchronized void clear() {
+            writes++;
+            probation.clear();
+            protect.clear();
+        }
+
+        synchronized int size() {
+            return probation.size() + protect.size();
+        }
+    }
+}
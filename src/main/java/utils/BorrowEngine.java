@@ -0,0 +1,31 @@
+package utils;
+
+/**
+ * How borrowBook() claims a copy of a book.
+ */
+public enum BorrowEngine {
+    /* check open loans & stock with SELECTs, then update, all under SERIALIZABLE */
+    SERIALIZABLE("serializable"),
+    /* one guarded "stock = stock - 1 ... AND stock > 0" update under READ COMMITTED,
+       duplicated open loans are rejected by a unique key on borrow */
+    GUARDED("guarded");
+
+    BorrowEngine(String name) {
+        this.name = name;
+    }
+
+    public static BorrowEngine instance(String name) throws IllegalArgumentException {
+        for (BorrowEngine engine : BorrowEngine.values()) {
+            if (engine.name.equals(name.toLowerCase())) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Invalid borrow engine name.");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private final String name;
+}
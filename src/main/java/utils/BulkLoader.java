@@ -0,0 +1,27 @@
+package utils;
+
+import entities.Book;
+import entities.Card;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Loads rows with the database's native bulk loader instead of INSERT
+ * statements. Rows go to a staging table first, then those that do not
+ * collide with a stored row (and are not repeated earlier in the same load)
+ * are moved to the real table in their original order.
+ *
+ * Loads run in the caller's transaction. Generated ids are not assigned
+ * back to the entities.
+ */
+public interface BulkLoader {
+
+    /* returns how many of the books were stored */
+    int loadBooks(Connection conn, List<Book> books) throws SQLException;
+
+    /* returns how many of the cards were stored */
+    int loadCards(Connection conn, List<Card> cards) throws SQLException;
+
+}
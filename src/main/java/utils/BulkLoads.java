@@ -0,0 +1,90 @@
+package utils;
+
+import entities.Book;
+import entities.Card;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Staging & reconciliation shared by the {@link BulkLoader}s.
+ */
+final class BulkLoads {
+
+    /* width of the varchar columns of book & card */
+    static final int MAX_TEXT_LENGTH = 63;
+    /* decimal(7, 2) */
+    static final double MAX_PRICE = 99999.99;
+
+    static final String BOOK_COLUMNS = "category, title, press, publish_year, author, price, stock";
+    static final String BOOK_KEY = "category, press, author, title, publish_year";
+    static final String CARD_COLUMNS = "name, department, type";
+    static final String CARD_KEY = "department, type, name";
+
+    private BulkLoads() {
+    }
+
+    /**
+     * keep the books the table can hold as they are. a bulk loader may
+     * truncate or round instead of failing, so the others are left out.
+     */
+    static List<Book> loadableBooks(List<Book> books) {
+        List<Book> loadable = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (fits(book.getCategory()) && fits(book.getTitle()) && fits(book.getPress())
+                    && fits(book.getAuthor()) && Math.abs(book.getPrice()) <= MAX_PRICE && book.getStock() >= 0) {
+                loadable.add(book);
+            }
+        }
+        return loadable;
+    }
+
+    static List<Card> loadableCards(List<Card> cards) {
+        List<Card> loadable = new ArrayList<>(cards.size());
+        for (Card card : cards) {
+            if (fits(card.getName()) && fits(card.getDepartment()) && card.getType() != null) {
+                loadable.add(card);
+            }
+        }
+        return loadable;
+    }
+
+    private static boolean fits(String s) {
+        return s != null && s.length() <= MAX_TEXT_LENGTH;
+    }
+
+    /**
+     * move staged rows into table: rows whose key is already stored are
+     * skipped, of rows sharing a key only the first staged one is kept.
+     * staging must have a seq column numbering the rows in load order.
+     * returns the number of rows stored.
+     */
+    static int reconcile(Connection conn, String staging, String table, String columns,
+                         String key) throws SQLException {
+        StringBuilder match = new StringBuilder();
+        for (String column : key.split(",\\s*")) {
+            if (match.length() > 0) {
+                match.append(" AND ");
+            }
+            match.append("t.").append(column).append(" = s.").append(column);
+        }
+        String sql = "INSERT INTO " + table + " (" + columns + ") " +
+                "SELECT " + columns + " FROM (" +
+                "SELECT " + columns + ", seq, ROW_NUMBER() OVER (PARTITION BY " + key + " ORDER BY seq) AS rn " +
+                "FROM " + staging + ") s " +
+                "WHERE s.rn = 1 AND NOT EXISTS (SELECT 1 FROM " + table + " t WHERE " + match + ") " +
+                "ORDER BY s.seq";
+        try (Statement stmt = conn.createStatement()) {
+            return stmt.executeUpdate(sql);
+        }
+    }
+
+    static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Map;
 
 public final class ConnectConfig {
@@ -16,15 +17,59 @@ public final class ConnectConfig {
     private final String password;
     private final String db;
     private final DatabaseType type;
+    private final BorrowEngine borrowEngine;
+    /* connection pool settings */
+    private final int poolMaxSize;
+    private final int poolMinIdle;
+    private final long poolMaxWaitMillis;
+    private final long poolIdleTimeoutMillis;
+    private final int poolValidationTimeoutSeconds;
+    private final int poolStatementCacheSize;
+    /* transaction retry settings */
+    private final int retryMaxAttempts;
+    private final long retryBaseDelayMillis;
+    private final long retryMaxDelayMillis;
+    /* http worker pool settings */
+    private final int serverCoreThreads;
+    private final int serverMaxThreads;
+    private final int serverQueueCapacity;
+    private final long serverKeepAliveSeconds;
+    private final int serverRetryAfterSeconds;
+    private final boolean serverVirtualThreads;
+    private final int serverMaxJsonLength;
+    private final boolean serverCompression;
+    private final int serverCompressionMinSize;
+    /* slow statement log settings */
+    private final boolean slowQueryEnabled;
+    private final long slowQueryThresholdMillis;
+    private final String slowQueryFile;
+    private final int slowQueryFileLimit;
+    private final int slowQueryFileCount;
+    /* book row cache settings */
+    private final int cacheBooks;
+    private final int cacheWarmUpThreads;
+    private final int cacheQueryResults;
+    private final long cacheQueryTtlMillis;
+    /* fuzzy book search settings */
+    private final boolean searchTrigramIndex;
+    private final int searchMaxCandidates;
+    private final long searchMaxAgeSeconds;
+    /* "database", or "memory" for MemoryLibrary */
+    private final boolean memoryEngine;
+    /* in-memory engine settings */
+    private final String memoryDir;
+    private final long memorySnapshotIntervalSeconds;
+    private final boolean memorySyncJournal;
 
     public ConnectConfig() throws FileNotFoundException, NullPointerException, ClassNotFoundException {
-        URL res = ConnectConfig.class.getClassLoader().getResource("application.yaml");
-        if (res == null) {
-            throw new NullPointerException();
-        }
-        BufferedReader br = new BufferedReader(new FileReader(res.getPath()));
-        Yaml yaml = new Yaml();
-        Map<String, Object> objectMap = yaml.load(br);
+        this(load());
+    }
+
+    /**
+     * configuration given as the parsed content of application.yaml,
+     * missing entries take their defaults.
+     */
+    public ConnectConfig(Map<String, Object> objectMap) throws ClassNotFoundException {
         /* initialize all configures */
         host = (String)objectMap.getOrDefault("host", "localhost");
         port = (String)objectMap.getOrDefault("port", "3306");
@@ -32,6 +77,59 @@ public final class ConnectConfig {
         password = (String)objectMap.getOrDefault("password", "");
         db = (String)objectMap.getOrDefault("db", "library");
         type = DatabaseType.instance((String)objectMap.getOrDefault("type", "mysql"));
+        borrowEngine = BorrowEngine.instance((String)objectMap.getOrDefault("borrowEngine", "serializable"));
+        /* pool settings live in an optional "pool" section */
+        Map<String, Object> pool = section(objectMap, "pool");
+        poolMaxSize = Math.max(1, intValue(pool, "maxSize", 16));
+        poolMinIdle = Math.min(poolMaxSize, Math.max(0, intValue(pool, "minIdle", 2)));
+        poolMaxWaitMillis = longValue(pool, "maxWaitMillis", 5000L);
+        poolIdleTimeoutMillis = longValue(pool, "idleTimeoutMillis", 600000L);
+        poolValidationTimeoutSeconds = intValue(pool, "validationTimeoutSeconds", 2);
+        poolStatementCacheSize = Math.max(0, intValue(pool, "statementCacheSize", 64));
+        /* retry settings live in an optional "retry" section */
+        Map<String, Object> retry = section(objectMap, "retry");
+        retryMaxAttempts = Math.max(1, intValue(retry, "maxAttempts", 5));
+        retryBaseDelayMillis = Math.max(0L, longValue(retry, "baseDelayMillis", 5L));
+        retryMaxDelayMillis = Math.max(retryBaseDelayMillis, longValue(retry, "maxDelayMillis", 200L));
+        /* worker pool settings live in an optional "server" section */
+        Map<String, Object> server = section(objectMap, "server");
+        serverCoreThreads = Math.max(1, intValue(server, "coreThreads", 8));
+        serverMaxThreads = Math.max(serverCoreThreads, intValue(server, "maxThreads", 32));
+        serverQueueCapacity = Math.max(1, intValue(server, "queueCapacity", 128));
+        serverKeepAliveSeconds = Math.max(0L, longValue(server, "keepAliveSeconds", 60L));
+        serverRetryAfterSeconds = Math.max(1, intValue(server, "retryAfterSeconds", 1));
+        serverVirtualThreads = Boolean.TRUE.equals(server.getOrDefault("virtualThreads", false));
+        serverMaxJsonLength = Math.max(1, intValue(server, "maxJsonLength", 65536));
+        serverCompression = !Boolean.FALSE.equals(server.getOrDefault("compression", true));
+        serverCompressionMinSize = Math.max(0, intValue(server, "compressionMinSize", 1024));
+        /* slow statement log settings live in an optional "slowQuery" section */
+        Map<String, Object> slowQuery = section(objectMap, "slowQuery");
+        slowQueryEnabled = Boolean.TRUE.equals(slowQuery.getOrDefault("enabled", false));
+        slowQueryThresholdMillis = Math.max(0L, longValue(slowQuery, "thresholdMillis", 200L));
+        slowQueryFile = (String) slowQuery.getOrDefault("file", "%t/library-slow-query.%g.log");
+        slowQueryFileLimit = Math.max(0, intValue(slowQuery, "fileLimitBytes", 10485760));
+        slowQueryFileCount = Math.max(1, intValue(slowQuery, "fileCount", 5));
+        /* book row cache settings live in an optional "cache" section */
+        Map<String, Object> cache = section(objectMap, "cache");
+        cacheBooks = Math.max(0, intValue(cache, "books", 10000));
+        cacheWarmUpThreads = Math.max(0, intValue(cache, "warmUpThreads", 4));
+        cacheQueryResults = Math.max(0, intValue(cache, "queryResults", 1000));
+        cacheQueryTtlMillis = Math.max(0L, longValue(cache, "queryTtlMillis", 5000L));
+        /* fuzzy book search settings live in an optional "search" section */
+        Map<String, Object> search = section(objectMap, "search");
+        searchTrigramIndex = Boolean.TRUE.equals(search.getOrDefault("trigramIndex", false));
+        searchMaxCandidates = Math.max(0, intValue(search, "maxCandidates", 1024));
+        searchMaxAgeSeconds = Math.max(0L, longValue(search, "maxAgeSeconds", 300L));
+        String engine = (String) objectMap.getOrDefault("engine", "database");
+        if (!engine.equals("database") && !engine.equals("memory")) {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        memoryEngine = engine.equals("memory");
+        /* in-memory engine settings live in an optional "memory" section */
+        Map<String, Object> memory = section(objectMap, "memory");
+        memoryDir = (String) memory.getOrDefault("dir", "library-data");
+        memorySnapshotIntervalSeconds = Math.max(1L, longValue(memory, "snapshotIntervalSeconds", 300L));
+        memorySyncJournal = Boolean.TRUE.equals(memory.getOrDefault("syncJournal", false));
         /* load database connect driver */
         Class.forName(type.getDriverName());
     }
@@ -44,9 +142,73 @@ public final class ConnectConfig {
                 ", password='" + password + '\'' +
                 ", db='" + db + '\'' +
                 ", type='" + type.toString() + '\'' +
+                ", borrowEngine='" + borrowEngine.getName() + '\'' +
+                ", pool={maxSize=" + poolMaxSize +
+                ", minIdle=" + poolMinIdle +
+                ", maxWaitMillis=" + poolMaxWaitMillis +
+                ", idleTimeoutMillis=" + poolIdleTimeoutMillis +
+                ", validationTimeoutSeconds=" + poolValidationTimeoutSeconds +
+                ", statementCacheSize=" + poolStatementCacheSize + '}' +
+                ", retry={maxAttempts=" + retryMaxAttempts +
+                ", baseDelayMillis=" + retryBaseDelayMillis +
+                ", maxDelayMillis=" + retryMaxDelayMillis + '}' +
+                ", server={coreThreads=" + serverCoreThreads +
+                ", maxThreads=" + serverMaxThreads +
+                ", queueCapacity=" + serverQueueCapacity +
+                ", keepAliveSeconds=" + serverKeepAliveSeconds +
+                ", retryAfterSeconds=" + serverRetryAfterSeconds +
+                ", virtualThreads=" + serverVirtualThreads +
+                ", maxJsonLength=" + serverMaxJsonLength +
+                ", compression=" + serverCompression +
+                ", compressionMinSize=" + serverCompressionMinSize + '}' +
+                ", slowQuery={enabled=" + slowQueryEnabled +
+                ", thresholdMillis=" + slowQueryThresholdMillis +
+                ", file='" + slowQueryFile + '\'' +
+                ", fileLimitBytes=" + slowQueryFileLimit +
+                ", fileCount=" + slowQueryFileCount + '}' +
+                ", cache={books=" + cacheBooks +
+                ", warmUpThreads=" + cacheWarmUpThreads +
+                ", queryResults=" + cacheQueryResults +
+                ", queryTtlMillis=" + cacheQueryTtlMillis + '}' +
+                ", search={trigramIndex=" + searchTrigramIndex +
+                ", maxCandidates=" + searchMaxCandidates +
+                ", maxAgeSeconds=" + searchMaxAgeSeconds + '}' +
+                ", engine='" + (memoryEngine ? "memory" : "database") + '\'' +
+                ", memory={dir='" + memoryDir + '\'' +
+                ", snapshotIntervalSeconds=" + memorySnapshotIntervalSeconds +
+                ", syncJournal=" + memorySyncJournal + '}' +
                 '}';
     }
 
+    private static Map<String, Object> load() throws FileNotFoundException {
+        URL res = ConnectConfig.class.getClassLoader().getResource("application.yaml");
+        if (res == null) {
+            throw new NullPointerException();
+        }
+        BufferedReader br = new BufferedReader(new FileReader(res.getPath()));
+        Yaml yaml = new Yaml();
+        return yaml.load(br);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Map<String, Object> objectMap, String name) {
+        Object value = objectMap.get(name);
+        if (value instanceof Map) {
+            return (Map<String, Object>) value;
+        }
+        return Collections.emptyMap();
+    }
+
+    private static int intValue(Map<String, Object> objectMap, String key, int defaultValue) {
+        Object value = objectMap.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.toString().trim());
+    }
+
+    private static long longValue(Map<String, Object> objectMap, String key, long defaultValue) {
+        Object value = objectMap.get(key);
+        return value == null ? defaultValue : Long.parseLong(value.toString().trim());
+    }
+
     public String getHost() {
         return host;
     }
@@ -70,4 +232,145 @@ public final class ConnectConfig {
     public DatabaseType getType() {
         return type;
     }
+
+    public BorrowEngine getBorrowEngine() {
+        return borrowEngine;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public int getPoolMinIdle() {
+        return poolMinIdle;
+    }
+
+    public long getPoolMaxWaitMillis() {
+        return poolMaxWaitMillis;
+    }
+
+    public long getPoolIdleTimeoutMillis() {
+        return poolIdleTimeoutMillis;
+    }
+
+    public int getPoolValidationTimeoutSeconds() {
+        return poolValidationTimeoutSeconds;
+    }
+
+    public int getPoolStatementCacheSize() {
+        return poolStatementCacheSize;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public long getRetryBaseDelayMillis() {
+        return retryBaseDelayMillis;
+    }
+
+    public long getRetryMaxDelayMillis() {
+        return retryMaxDelayMillis;
+    }
+
+    public int getServerCoreThreads() {
+        return serverCoreThreads;
+    }
+
+    public int getServerMaxThreads() {
+        return serverMaxThreads;
+    }
+
+    public int getServerQueueCapacity() {
+        return serverQueueCapacity;
+    }
+
+    public long getServerKeepAliveSeconds() {
+        return serverKeepAliveSeconds;
+    }
+
+    public int getServerRetryAfterSeconds() {
+        return serverRetryAfterSeconds;
+    }
+
+    public boolean isServerVirtualThreads() {
+        return serverVirtualThreads;
+    }
+
+    public int getServerMaxJsonLength() {
+        return serverMaxJsonLength;
+    }
+
+    public boolean isServerCompression() {
+        return serverCompression;
+    }
+
+    public int getServerCompressionMinSize() {
+        return serverCompressionMinSize;
+    }
+
+    public boolean isSlowQueryEnabled() {
+        return slowQueryEnabled;
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    public String getSlowQueryFile() {
+        return slowQueryFile;
+    }
+
+    public int getSlowQueryFileLimit() {
+        return slowQueryFileLimit;
+    }
+
+    public int getSlowQueryFileCount() {
+        return slowQueryFileCount;
+    }
+
+    public int getCacheBooks() {
+        return cacheBooks;
+    }
+
+    public int getCacheWarmUpThreads() {
+        return cacheWarmUpThreads;
+    }
+
+    public int getCacheQueryResults() {
+        return cacheQueryResults;
+    }
+
+    public long getCacheQueryTtlMillis() {
+        return cacheQueryTtlMillis;
+    }
+
+    public boolean isSearchTrigramIndex() {
+        return searchTrigramIndex;
+    }
+
+    public int getSearchMaxCandidates() {
+        return searchMaxCandidates;
+    }
+
+    public long getSearchMaxAgeSeconds() {
+        return searchMaxAgeSeconds;
+    }
+
+    public boolean isMemoryEngine() {
+        return memoryEngine;
+    }
+
+    /* empty: nothing is kept on disk */
+    public String getMemoryDir() {
+        return memoryDir;
+    }
+
+    public long getMemorySnapshotIntervalSeconds() {
+        return memorySnapshotIntervalSeconds;
+    }
+
+    public boolean isMemorySyncJournal() {
+        return memorySyncJournal;
+    }
 }
@@ -0,0 +1,108 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exclusive use of one pooled connection for the duration of a single
+ * operation. Always close the lease, it hands the connection back to
+ * the pool instead of closing it.
+ *
+ * Statements should be prepared through the lease: they are served from
+ * the connection's statement cache and must not be closed by the caller.
+ * ResultSets are still owned by the caller and should be closed.
+ */
+public final class ConnectionLease implements AutoCloseable {
+
+    private final DatabaseConnector.Pool pool;
+    private final PooledConnection pooled;
+    /* statements prepared while the cache is disabled, closed with the lease */
+    private final List<Statement> uncached = new ArrayList<>();
+    /* run by committed(), dropped with the lease when the transaction rolls back */
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private boolean closed;
+
+    ConnectionLease(DatabaseConnector.Pool pool, PooledConnection pooled) {
+        this.pool = pool;
+        this.pooled = pooled;
+    }
+
+    public Connection getConnection() {
+        if (closed) {
+            throw new IllegalStateException("Connection lease already closed");
+        }
+        return pooled.getConn();
+    }
+
+    /**
+     * set the isolation level of the transactions on this connection.
+     * use this instead of Connection#setTransactionIsolation so that
+     * the pool knows the current level and skips redundant changes.
+     */
+    public void setTransactionIsolation(int level) throws SQLException {
+        pooled.setIsolation(level);
+    }
+
+    /* go back to the isolation level the connection was opened with */
+    public void useDefaultTransactionIsolation() throws SQLException {
+        pooled.setIsolation(pooled.getDefaultIsolation());
+    }
+
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return prepare(sql, autoGeneratedKeys);
+    }
+
+    private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        if (closed) {
+            throw new IllegalStateException("Connection lease already closed");
+        }
+        StatementCache cache = pooled.getStatementCache();
+        if (cache.isEnabled()) {
+            return cache.prepare(sql, autoGeneratedKeys, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+        PreparedStatement stmt = cache.prepareUncached(sql, autoGeneratedKeys,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        uncached.add(stmt);
+        return stmt;
+    }
+
+    /* run action once the current transaction has committed, see committed() */
+    public void afterCommit(Runnable action) {
+        afterCommit.add(action);
+    }
+
+    /* the transaction committed, run the actions registered during it */
+    public void committed() {
+        for (Runnable action : afterCommit) {
+            action.run();
+        }
+        afterCommit.clear();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Statement stmt : uncached) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        uncached.clear();
+        afterCommit.clear();
+        pool.giveBack(pooled);
+    }
+}
@@ -0,0 +1,170 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Content codings the server can compress responses with.
+ *
+ * Deflaters own native memory, so they are kept in a small pool per coding
+ * and reset between responses instead of being allocated for every request.
+ */
+public enum ContentEncoding {
+    GZIP("gzip", true),
+    DEFLATE("deflate", false);
+
+    /* deflaters kept per coding, more are created when busy and ended when returned */
+    private static final int POOL_SIZE = 32;
+    private static final int BUFFER_SIZE = 8192;
+    /* magic, method deflate, no flags, no mtime, no extra flags, unknown OS */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    ContentEncoding(String name, boolean gzip) {
+        this.name = name;
+        this.gzip = gzip;
+        this.pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    }
+
+    /**
+     * picks the coding for an Accept-Encoding header (RFC 9110 section 12.5.3),
+     * the one with the highest q-value, gzip on a tie.
+     *
+     * @return null if the response should not be compressed
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double[] qualities = new double[values().length];
+        Arrays.fill(qualities, -1);
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("*")) {
+                any = quality;
+            }
+            for (ContentEncoding encoding : values()) {
+                // x-gzip 是 gzip 的旧名字
+                if (coding.equals(encoding.name) || (encoding.gzip && coding.equals("x-gzip"))) {
+                    qualities[encoding.ordinal()] = quality;
+                }
+            }
+        }
+        ContentEncoding best = null;
+        double bestQuality = 0;
+        for (ContentEncoding encoding : values()) {
+            double quality = qualities[encoding.ordinal()] >= 0 ? qualities[encoding.ordinal()] : any;
+            if (quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * stream compressing into out with a pooled deflater, closing it finishes
+     * the coding, closes out and returns the deflater to the pool.
+     */
+    public OutputStream open(OutputStream out) throws IOException {
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            // gzip 自己写头尾，deflate 用 zlib 格式
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+        }
+        return new Stream(out, deflater);
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /* value of the Content-Encoding header */
+    public String getName() {
+        return name;
+    }
+
+    private final String name;
+    private final boolean gzip;
+    private final BlockingQueue<Deflater> pool;
+
+    private final class Stream extends DeflaterOutputStream {
+
+        private final CRC32 crc;
+        private boolean closed;
+
+        Stream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, deflater, BUFFER_SIZE);
+            if (gzip) {
+                crc = new CRC32();
+                out.write(GZIP_HEADER);
+            } else {
+                crc = null;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished()) {
+                return;
+            }
+            super.finish();
+            if (crc != null) {
+                // gzip 尾部：CRC32 和原始长度，小端序
+                writeInt(crc.getValue());
+                writeInt(def.getBytesRead());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                finish();
+                out.close();
+            } finally {
+                release(def);
+            }
+        }
+
+        private void writeInt(long value) throws IOException {
+            out.write((int) value & 0xff);
+            out.write((int) (value >> 8) & 0xff);
+            out.write((int) (value >> 16) & 0xff);
+            out.write((int) (value >> 24) & 0xff);
+        }
+    }
+}
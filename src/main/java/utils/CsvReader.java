@@ -0,0 +1,185 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental reader of RFC 4180 CSV: comma separated fields, optionally
+ * enclosed in double quotes, "" for a quote inside a quoted field, quoted
+ * fields may span lines. Records end with LF or CRLF, blank lines are skipped.
+ *
+ * Only one record is held in memory at a time and fields are bounded, so
+ * an input of any size can be read with constant memory.
+ */
+public final class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final int maxFieldLength;
+    private final int maxFields;
+    private final char[] buf = new char[BUFFER_SIZE];
+    private final StringBuilder field = new StringBuilder();
+    private int pos;
+    private int limit;
+    private boolean eof;
+    /* line number where the next record starts, 1-based */
+    private long line = 1;
+
+    public CsvReader(Reader in, int maxFieldLength, int maxFields) {
+        this.in = in;
+        this.maxFieldLength = maxFieldLength;
+        this.maxFields = maxFields;
+    }
+
+    /**
+     * read the next record, null at the end of input.
+     * a record with a field longer than maxFieldLength or with more than
+     * maxFields fields is consumed entirely and reported with a
+     * MalformedRecordException, the next call continues after it.
+     */
+    public List<String> next() throws IOException {
+        List<String> record = new ArrayList<>();
+        long recordLine = line;
+        boolean quoted = false;
+        boolean overflow = false;
+        boolean started = false;
+        field.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (quoted) {
+                    throw new MalformedRecordException(recordLine, "unterminated quoted field");
+                }
+                if (!started) {
+                    return null;
+                }
+                overflow |= !endField(record);
+                break;
+            }
+            if (quoted) {
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        overflow |= !append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    overflow |= !append((char) c);
+                }
+                continue;
+            }
+            if (c == ',') {
+                started = true;
+                overflow |= !endField(record);
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                line++;
+                if (!started && field.length() == 0) {
+                    /* blank line */
+                    recordLine = line;
+                    continue;
+                }
+                overflow |= !endField(record);
+                break;
+            } else if (c == '"' && field.length() == 0) {
+                started = true;
+                quoted = true;
+            } else {
+                started = true;
+                overflow |= !append((char) c);
+            }
+        }
+        if (overflow) {
+            throw new MalformedRecordException(recordLine, "field too long or too many fields");
+        }
+        return record;
+    }
+
+    /* line number where the next record starts */
+    public long getLine() {
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean append(char c) {
+        if (field.length() >= maxFieldLength) {
+            return false;
+        }
+        field.append(c);
+        return true;
+    }
+
+    private boolean endField(List<String> record) {
+        String value = field.toString();
+        field.setLength(0);
+        if (record.size() >= maxFields) {
+            return false;
+        }
+        record.add(value);
+        return true;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    /**
+     * a record that could not be read, the reader is positioned after it.
+     */
+    public static final class MalformedRecordException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long line;
+
+        MalformedRecordException(long line, String message) {
+            super("line " + line + ": " + message);
+            this.line = line;
+        }
+
+        public long getLine() {
+            return line;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package utils;
 
+import java.util.List;
+
 public interface DBInitializer {
 
     String sqlDropBook();
@@ -9,4 +11,17 @@ public interface DBInitializer {
     String sqlCreateCard();
     String sqlCreateBorrow();
 
+    /* table of the schema version, see SchemaMigrations; both statements are no-ops when already done */
+    String sqlDropSchemaVersion();
+    String sqlCreateSchemaVersion();
+
+    /**
+     * the migrations of the schema, in order: version 1 is the schema of the
+     * tables before it was versioned, migration i takes version i + 1 to
+     * version i + 2. the create statements above give the schema of the
+     * latest version. migrations run on a live database, they should not
+     * rebuild or lock the tables for longer than the database needs to.
+     */
+    List<Migration> migrations();
+
 }
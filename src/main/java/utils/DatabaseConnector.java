@@ -3,53 +3,234 @@ package utils;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
+/**
+ * Owns a bounded pool of connections to the configured database.
+ *
+ * connect() opens the pool and release() closes it, in between every
+ * operation borrows a connection by {@link #lease()} and gives it back
+ * by closing the lease. The pool is safe to share between threads.
+ */
 public class DatabaseConnector {
 
+    private static final Logger log = Logger.getLogger(DatabaseConnector.class.getName());
+    /* connections returned within this window are handed out without validation */
+    private static final long VALIDATION_GRACE_MILLIS = 500;
+
     private final ConnectConfig conf;
-    private Connection conn;
+    private final StatementCache.Stats statementCacheStats = new StatementCache.Stats();
+    /* timings of the statements of pooled connections, null when disabled */
+    private final SlowQueryLog slowQueryLog;
+    private volatile Pool pool;
 
     public DatabaseConnector(ConnectConfig conf) {
         this.conf = conf;
+        this.slowQueryLog = conf.isSlowQueryEnabled() ? new SlowQueryLog(conf.getSlowQueryThresholdMillis(),
+                conf.getSlowQueryFile(), conf.getSlowQueryFileLimit(), conf.getSlowQueryFileCount()) : null;
     }
 
-    public boolean connect() {
-        if (conn != null) {
+    public synchronized boolean connect() {
+        if (pool != null) {
             return false;
         }
+        Pool p = new Pool();
         try {
-            String url = conf.getType().url(conf.getHost(), conf.getPort(), conf.getDB());
-            conn = DriverManager.getConnection(url, conf.getUser(), conf.getPassword());
-            if (conn != null) {
-                /* Note: you need to connect & release trx explicitly */
-                conn.setAutoCommit(false);
-                return true;
+            /* open at least one connection to make sure the database is reachable */
+            int initial = Math.max(1, conf.getPoolMinIdle());
+            for (int i = 0; i < initial; i++) {
+                p.idle.offerFirst(p.open());
             }
         } catch (Exception e) {
             e.printStackTrace();
+            p.close();
+            return false;
         }
-        return false;
+        p.startEvictor();
+        pool = p;
+        return true;
     }
 
-    public boolean release() {
-        if (conn == null) {
+    public synchronized boolean release() {
+        if (pool == null) {
             return false;
         }
-        try {
-            conn.close();
-            conn = null;
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
+        pool.close();
+        pool = null;
+        return true;
+    }
+
+    /**
+     * borrow a connection from the pool, waiting at most
+     * pool.maxWaitMillis for one to become available.
+     */
+    public ConnectionLease lease() throws SQLException {
+        Pool p = pool;
+        if (p == null) {
+            throw new SQLException("Database is not connected");
         }
-        return false;
+        return p.lease();
+    }
+
+    /* number of connections currently opened by the pool */
+    public int getOpenConnections() {
+        Pool p = pool;
+        return p == null ? 0 : p.opened.get();
+    }
+
+    /* number of connections waiting in the pool */
+    public int getIdleConnections() {
+        Pool p = pool;
+        return p == null ? 0 : p.idle.size();
+    }
+
+    /* hit & miss counters of the statement caches of all pooled connections */
+    public StatementCache.Stats getStatementCacheStats() {
+        return statementCacheStats;
     }
 
-    public Connection getConn() {
-        return conn;
+    /* statement timings by SQL shape, null if slowQuery.enabled is false */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
     }
 
     public ConnectConfig getConf() {
         return conf;
     }
+
+    /**
+     * One generation of the pool, from connect() to release().
+     * Leases hold on to their own generation so that connections handed
+     * back after release() are closed instead of being reused.
+     */
+    final class Pool {
+
+        private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+        private final Semaphore permits = new Semaphore(conf.getPoolMaxSize(), true);
+        private final AtomicInteger opened = new AtomicInteger();
+        private volatile boolean closed;
+        private ScheduledExecutorService evictor;
+
+        private PooledConnection open() throws SQLException {
+            String url = conf.getType().url(conf.getHost(), conf.getPort(), conf.getDB());
+            Connection conn = DriverManager.getConnection(url, conf.getUser(), conf.getPassword());
+            if (slowQueryLog != null) {
+                // 在连接外面包一层，缓存的语句也都经过计时
+                conn = StatementTracer.wrap(conn, slowQueryLog);
+            }
+            PooledConnection pooled;
+            try {
+                /* Note: you need to connect & release trx explicitly */
+                conn.setAutoCommit(false);
+                pooled = new PooledConnection(conn, conf.getPoolStatementCacheSize(), statementCacheStats);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            opened.incrementAndGet();
+            return pooled;
+        }
+
+        private ConnectionLease lease() throws SQLException {
+            try {
+                if (!permits.tryAcquire(conf.getPoolMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new SQLTimeoutException("Timed out waiting for a database connection");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            try {
+                if (closed) {
+                    throw new SQLException("Database is not connected");
+                }
+                /* most recently used first, so that surplus connections stay idle and get evicted */
+                PooledConnection pooled;
+                while ((pooled = idle.pollFirst()) != null) {
+                    if (isUsable(pooled)) {
+                        return new ConnectionLease(this, pooled);
+                    }
+                    discard(pooled);
+                }
+                return new ConnectionLease(this, open());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private boolean isUsable(PooledConnection pooled) {
+            long idleMillis = System.currentTimeMillis() - pooled.getLastReturned();
+            if (idleMillis > conf.getPoolIdleTimeoutMillis()) {
+                return false;
+            }
+            if (idleMillis < VALIDATION_GRACE_MILLIS) {
+                return true;
+            }
+            try {
+                return pooled.getConn().isValid(conf.getPoolValidationTimeoutSeconds());
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void giveBack(PooledConnection pooled) {
+            if (closed) {
+                discard(pooled);
+            } else {
+                pooled.markReturned();
+                idle.offerFirst(pooled);
+            }
+            permits.release();
+        }
+
+        private void discard(PooledConnection pooled) {
+            opened.decrementAndGet();
+            pooled.closeQuietly();
+        }
+
+        private void startEvictor() {
+            long period = Math.max(1000, Math.min(30000, conf.getPoolIdleTimeoutMillis() / 2));
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "db-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            });
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        /* close connections idle for longer than idleTimeoutMillis, keeping minIdle of them */
+        private void evictIdle() {
+            long now = System.currentTimeMillis();
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > conf.getPoolMinIdle()) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.getLastReturned() > conf.getPoolIdleTimeoutMillis() && idle.remove(pooled)) {
+                    discard(pooled);
+                }
+            }
+        }
+
+        private void close() {
+            closed = true;
+            if (evictor != null) {
+                evictor.shutdownNow();
+            }
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                discard(pooled);
+            }
+            if (opened.get() > 0) {
+                log.warning(opened.get() + " leased connection(s) will be closed when handed back.");
+            }
+        }
+    }
 }
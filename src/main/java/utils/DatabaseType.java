@@ -4,7 +4,8 @@ public enum DatabaseType {
     MYSQL("mysql", "com.mysql.cj.jdbc.Driver", new MysqlInitializer()),
     // TODO: to be updated
     POSTGRES("postgresql", "org.postgresql.Driver", new MysqlInitializer()),
-    SQLSERVER("sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", new SqlServerInitializer());
+    SQLSERVER("sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", new SqlServerInitializer()),
+    H2("h2", "org.h2.Driver", new H2Initializer());
 
     DatabaseType(String typeName, String driverName, DBInitializer dbInitializer) {
         this.typeName = typeName;
@@ -23,14 +24,57 @@ public enum DatabaseType {
     public String url(String host, String port, String db) {
         switch (this) {
             case SQLSERVER:
-                return String.format("jdbc:sqlserver://%s:%s;DatabaseName=%s;encrypt=false", host, port, db);
+                /* adaptive buffering reads large results as they are consumed */
+                return String.format("jdbc:sqlserver://%s:%s;DatabaseName=%s;encrypt=false;responseBuffering=adaptive",
+                        host, port, db);
             case MYSQL:
+                /* server-side prepared statements, so that cached statements skip re-parsing;
+                   batched inserts are rewritten into multi-row inserts;
+                   LOAD DATA LOCAL for the bulk loader, it only ever sends in-memory streams */
+                return String.format("jdbc:%s://%s:%s/%s?useServerPrepStmts=true&rewriteBatchedStatements=true" +
+                        "&allowLoadLocalInfile=true", typeName, host, port, db);
             case POSTGRES:
                 return String.format("jdbc:%s://%s:%s/%s", typeName, host, port, db);
+            case H2:
+                /* embedded, host & port are not used: db is "mem:<name>" for an in-memory database,
+                   "file:<path>" for one stored in <path>.mv.db, a bare name is in memory.
+                   MySQL mode with case-insensitive strings like MySQL's default collation,
+                   kept open while the pool has no connections */
+                String storage = db.startsWith("mem:") || db.startsWith("file:") ? db : "mem:" + db;
+                return String.format("jdbc:%s:%s;MODE=MySQL;DATABASE_TO_LOWER=TRUE;IGNORECASE=TRUE;DB_CLOSE_DELAY=-1",
+                        typeName, storage);
         }
         return null;
     }
 
+    /* whether getGeneratedKeys() returns the keys of every row of an executed batch */
+    public boolean supportsBatchGeneratedKeys() {
+        return this != SQLSERVER;
+    }
+
+    /**
+     * fetch size for reading a result while it is consumed: Connector/J
+     * streams row by row only with Integer.MIN_VALUE, PostgreSQL uses a
+     * cursor of that many rows (the transaction is not in auto-commit),
+     * SQL Server already streams through adaptive buffering.
+     */
+    public int streamingFetchSize() {
+        return this == MYSQL ? Integer.MIN_VALUE : 1000;
+    }
+
+    /* clause after ORDER BY that keeps the first ? rows */
+    public String limitClause() {
+        return this == SQLSERVER ? "OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY" : "LIMIT ?";
+    }
+
+    /* native bulk loader of the database, null if there is none */
+    public BulkLoader getBulkLoader() {
+        if (this == POSTGRES || !(dbInitializer instanceof BulkLoader)) {
+            return null;
+        }
+        return (BulkLoader) dbInitializer;
+    }
+
     public static DatabaseType instance(String typeName) throws IllegalArgumentException {
         for (DatabaseType type : DatabaseType.values()) {
             if (type.typeName.equals(typeName.toLowerCase())) {
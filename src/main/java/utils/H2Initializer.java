@@ -0,0 +1,214 @@
+package utils;
+
+import entities.Book;
+import entities.Card;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+public class H2Initializer implements DBInitializer, BulkLoader {
+
+    /* rows staged per executeBatch of a bulk load */
+    private static final int BATCH_SIZE = 1000;
+
+    @Override
+    public String sqlDropBook() {
+        return "drop table if exists book;";
+    }
+
+    @Override
+    public String sqlDropCard() {
+        return "drop table if exists card;";
+    }
+
+    @Override
+    public String sqlDropBorrow() {
+        return "drop table if exists borrow;";
+    }
+
+    /* one (column, book_id) index per Book.SortColumn, for paged queryBook */
+    @Override
+    public String sqlCreateBook() {
+        return "create table book (\n" +
+                "    book_id int not null auto_increment,\n" +
+                "    category varchar(63) not null,\n" +
+                "    title varchar(63) not null,\n" +
+                "    press varchar(63) not null,\n" +
+                "    publish_year int not null,\n" +
+                "    author varchar(63) not null,\n" +
+                "    price decimal(7, 2) not null default 0.00,\n" +
+                "    stock int not null default 0,\n" +
+                "    primary key (book_id),\n" +
+                "    unique (category, press, author, title, publish_year)\n" +
+                ");\n" +
+                "create index book_category on book (category, book_id);\n" +
+                "create index book_title on book (title, book_id);\n" +
+                "create index book_press on book (press, book_id);\n" +
+                "create index book_publish_year on book (publish_year, book_id);\n" +
+                "create index book_author on book (author, book_id);\n" +
+                "create index book_price on book (price, book_id);\n" +
+                "create index book_stock on book (stock, book_id);";
+    }
+
+    @Override
+    public String sqlCreateCard() {
+        return "create table card (\n" +
+                "    card_id int not null auto_increment,\n" +
+                "    name varchar(63) not null,\n" +
+                "    department varchar(63) not null,\n" +
+                "    type char(1) not null,\n" +
+                "    primary key (card_id),\n" +
+                "    unique (department, type, name),\n" +
+                "    check ( type in ('T', 'S') )\n" +
+                ");";
+    }
+
+    /* like MySQL, unique keys let any number of rows with a null open_loan through */
+    @Override
+    public String sqlCreateBorrow() {
+        return "create table borrow (\n" +
+                "    card_id int not null,\n" +
+                "    book_id int not null,\n" +
+                "    borrow_time bigint not null,\n" +
+                "    return_time bigint not null default 0,\n" +
+                "    open_loan tinyint default 1,\n" +
+                "    primary key (card_id, book_id, borrow_time),\n" +
+                "    unique (card_id, book_id, open_loan),\n" +
+                "    foreign key (card_id) references card(card_id) on delete cascade on update cascade,\n" +
+                "    foreign key (book_id) references book(book_id) on delete cascade on update cascade\n" +
+                ");\n" +
+                "create index borrow_book_open on borrow (book_id, return_time);\n" +
+                "create index borrow_card_history on borrow (card_id, borrow_time desc, book_id, return_time, open_loan);";
+    }
+
+    @Override
+    public String sqlDropSchemaVersion() {
+        return "drop table if exists schema_version;";
+    }
+
+    @Override
+    public String sqlCreateSchemaVersion() {
+        return "create table if not exists schema_version (version int not null);";
+    }
+
+    @Override
+    public List<Migration> migrations() {
+        Migration bookIndexes = new Migration("book indexes of paged queryBook");
+        for (Book.SortColumn sortColumn : Book.SortColumn.values()) {
+            String column = sortColumn.getValue();
+            if (sortColumn == Book.SortColumn.BOOK_ID) {
+                continue;
+            }
+            bookIndexes.addIndex("book", "create index book_" + column + " on book (" + column + ", book_id);",
+                    column, "book_id");
+        }
+        return Arrays.asList(
+                // open_loan of the guarded borrow engine: 1 while the book is out,
+                // NULL once it is returned, so that a card holds one open loan per book
+                new Migration("open loans of borrow")
+                        .addColumn("borrow", "open_loan", "alter table borrow add column open_loan tinyint default 1;")
+                        .update("update borrow set open_loan = null where return_time <> 0 and open_loan is not null;")
+                        .addIndex("borrow", "create unique index borrow_open_loan on borrow (card_id, book_id, open_loan);",
+                                "card_id", "book_id", "open_loan"),
+                bookIndexes,
+                // removeBook looks up open loans by book_id, borrow history
+                // reads a card's loans newest first from the index alone
+                new Migration("borrow indexes of open loans & history")
+                        .addIndex("borrow", "create index borrow_book_open on borrow (book_id, return_time);",
+                                "book_id", "return_time")
+                        .addIndex("borrow", "create index borrow_card_history on borrow" +
+                                        " (card_id, borrow_time desc, book_id, return_time, open_loan);",
+                                "card_id", "borrow_time", "book_id", "return_time", "open_loan")
+        );
+    }
+
+    /**
+     * H2 runs in this process, so there is no wire protocol to bypass:
+     * the rows are staged with batched inserts into a local temporary
+     * table and reconciled like the other loaders.
+     */
+    @Override
+    public int loadBooks(Connection conn, List<Book> books) throws SQLException {
+        List<Book> loadable = BulkLoads.loadableBooks(books);
+        if (loadable.isEmpty()) {
+            return 0;
+        }
+        BulkLoads.execute(conn, "drop table if exists book_staging");
+        BulkLoads.execute(conn, "create local temporary table book_staging (\n" +
+                "    seq int not null,\n" +
+                "    category varchar(63) not null,\n" +
+                "    title varchar(63) not null,\n" +
+                "    press varchar(63) not null,\n" +
+                "    publish_year int not null,\n" +
+                "    author varchar(63) not null,\n" +
+                "    price decimal(7, 2) not null,\n" +
+                "    stock int not null\n" +
+                ") transactional");
+        try {
+            try (PreparedStatement stmt = conn.prepareStatement("insert into book_staging (seq, " +
+                    BulkLoads.BOOK_COLUMNS + ") values (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                int seq = 0;
+                for (Book book : loadable) {
+                    stmt.setInt(1, seq++);
+                    stmt.setString(2, book.getCategory());
+                    stmt.setString(3, book.getTitle());
+                    stmt.setString(4, book.getPress());
+                    stmt.setInt(5, book.getPublishYear());
+                    stmt.setString(6, book.getAuthor());
+                    stmt.setBigDecimal(7, BigDecimal.valueOf(book.getPrice()).setScale(2, RoundingMode.HALF_UP));
+                    stmt.setInt(8, book.getStock());
+                    stmt.addBatch();
+                    if (seq % BATCH_SIZE == 0) {
+                        stmt.executeBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+            return BulkLoads.reconcile(conn, "book_staging", "book",
+                    BulkLoads.BOOK_COLUMNS, BulkLoads.BOOK_KEY);
+        } finally {
+            BulkLoads.execute(conn, "drop table if exists book_staging");
+        }
+    }
+
+    @Override
+    public int loadCards(Connection conn, List<Card> cards) throws SQLException {
+        List<Card> loadable = BulkLoads.loadableCards(cards);
+        if (loadable.isEmpty()) {
+            return 0;
+        }
+        BulkLoads.execute(conn, "drop table if exists card_staging");
+        BulkLoads.execute(conn, "create local temporary table card_staging (\n" +
+                "    seq int not null,\n" +
+                "    name varchar(63) not null,\n" +
+                "    department varchar(63) not null,\n" +
+                "    type char(1) not null\n" +
+                ") transactional");
+        try {
+            try (PreparedStatement stmt = conn.prepareStatement("insert into card_staging (seq, " +
+                    BulkLoads.CARD_COLUMNS + ") values (?, ?, ?, ?)")) {
+                int seq = 0;
+                for (Card card : loadable) {
+                    stmt.setInt(1, seq++);
+                    stmt.setString(2, card.getName());
+                    stmt.setString(3, card.getDepartment());
+                    stmt.setString(4, card.getType().getStr());
+                    stmt.addBatch();
+                    if (seq % BATCH_SIZE == 0) {
+                        stmt.executeBatch();
+                    }
+                }
+                stmt.executeBatch();
+            }
+            return BulkLoads.reconcile(conn, "card_staging", "card",
+                    BulkLoads.CARD_COLUMNS, BulkLoads.CARD_KEY);
+        } finally {
+            BulkLoads.execute(conn, "drop table if exists card_staging");
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Durability of a store kept in memory: a snapshot of the whole state and
+ * an append-only journal of the changes made after it.
+ *
+ * The directory holds "snapshot" and journal-&lt;generation&gt;.log files. A
+ * record is written as its length, its CRC32 and the payload, so that a
+ * record torn by a crash is recognized and the replay of that file stops
+ * before it. {@link #rotate()} starts a new generation, the snapshot taken
+ * at that moment names it as the first journal to replay; once the snapshot
+ * is renamed into place the older journals are deleted.
+ */
+public final class Journal implements Closeable {
+
+    private static final Logger log = Logger.getLogger(Journal.class.getName());
+    private static final int MAGIC = 0x4C49424D;
+    private static final int VERSION = 1;
+    private static final String SNAPSHOT = "snapshot";
+    private static final Pattern JOURNAL = Pattern.compile("journal-(\\d+)\\.log");
+    /* longest record accepted when reading, anything longer is a torn length */
+    private static final int MAX_RECORD = 256 << 20;
+
+    /* writes a snapshot or one record */
+    public interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /* reads a snapshot or one record */
+    public interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    private final File dir;
+    private final boolean sync;
+    private long generation;
+    private FileChannel channel;
+
+    /**
+     * @param sync force every record to the disk before append returns,
+     *             otherwise records reach the OS and survive a crash of the
+     *             process but not of the machine
+     */
+    public Journal(File dir, boolean sync) throws IOException {
+        this.dir = dir;
+        this.sync = sync;
+        Files.createDirectories(dir.toPath());
+    }
+
+    /**
+     * load the snapshot (if any), then every record of the journals written
+     * after it in order, and open a new journal for append().
+     * returns the number of records replayed.
+     */
+    public synchronized long recover(Reader snapshot, Reader record) throws IOException {
+        long first = 0;
+        File snapshotFile = new File(dir, SNAPSHOT);
+        if (snapshotFile.exists()) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshotFile.toPath()))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a snapshot: " + snapshotFile);
+                }
+                first = in.readLong();
+                snapshot.read(in);
+            }
+        }
+        long replayed = 0;
+        long last = first - 1;
+        for (Map.Entry<Long, File> journal : journals().entrySet()) {
+            last = Math.max(last, journal.getKey());
+            if (journal.getKey() >= first) {
+                replayed += replay(journal.getValue(), record);
+            }
+        }
+        open(Math.max(last + 1, first));
+        return replayed;
+    }
+
+    private long replay(File file, Reader record) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            while (true) {
+                byte[] payload = next(in);
+                if (payload == null) {
+                    return count;
+                }
+                record.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                count++;
+            }
+        } catch (TornRecord e) {
+            // 崩溃时写了一半的记录，它之后没有别的记录
+            log.warning("Ignoring a torn record at the end of " + file + " after " + count + " records");
+            return count;
+        }
+    }
+
+    /* the next record's payload, null at the end of the file */
+    private static byte[] next(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_RECORD) {
+            throw new TornRecord();
+        }
+        byte[] payload = new byte[length];
+        long crc;
+        try {
+            crc = in.readInt() & 0xFFFFFFFFL;
+            in.readFully(payload);
+        } catch (EOFException e) {
+            throw new TornRecord();
+        }
+        CRC32 actual = new CRC32();
+        actual.update(payload, 0, payload.length);
+        if (actual.getValue() != crc) {
+            throw new TornRecord();
+        }
+        return payload;
+    }
+
+    /**
+     * append one record to the current journal. a record that could not be
+     * written completely is cut off again, so it never hides the records
+     * after it.
+     */
+    public synchronized void append(Writer record) throws IOException {
+        if (channel == null) {
+            throw new IOException("Journal is not open");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        record.write(out);
+        out.flush();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        int length = buffer.remaining() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, length);
+        buffer.putInt(0, length);
+        buffer.putInt(4, (int) crc.getValue());
+        long start = channel.position();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException ignored) {
+                // 截不掉就不再往这个文件里写，直到下一次rotate
+                close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * close the current journal and start the next generation, returns it.
+     * a snapshot of the state at this moment is complete with the journals
+     * from the returned generation on.
+     */
+    public synchronized long rotate() throws IOException {
+        open(generation + 1);
+        return generation;
+    }
+
+    /**
+     * write the snapshot atomically, then delete the journals it covers.
+     *
+     * @param first generation returned by the rotate() the state was taken at
+     */
+    public void writeSnapshot(long first, Writer snapshot) throws IOException {
+        Path tmp = new File(dir, SNAPSHOT + ".tmp").toPath();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(out), 1 << 16));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(first);
+            snapshot.write(data);
+            data.flush();
+            out.force(true);
+        }
+        Files.move(tmp, new File(dir, SNAPSHOT).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        List<File> covered = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, File> journal : journals().entrySet()) {
+                if (journal.getKey() < first) {
+                    covered.add(journal.getValue());
+                }
+            }
+        }
+        for (File file : covered) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void open(long next) throws IOException {
+        FileChannel opened = FileChannel.open(new File(dir, "journal-" + next + ".log").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        close();
+        channel = opened;
+        generation = next;
+    }
+
+    /* journal files by generation */
+    private TreeMap<Long, File> journals() {
+        TreeMap<Long, File> journals = new TreeMap<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher m = JOURNAL.matcher(file.getName());
+                if (m.matches()) {
+                    journals.put(Long.parseLong(m.group(1)), file);
+                }
+            }
+        }
+        return journals;
+    }
+
+    /* the rest of a journal is unreadable */
+    private static final class TornRecord extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
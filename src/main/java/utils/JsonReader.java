@@ -0,0 +1,533 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Pull reader of JSON text (RFC 8259) in a single pass.
+ *
+ * The input is read through a small buffer and every token is lexed into
+ * one reused StringBuilder, numbers are parsed from it directly, so reading
+ * a document allocates little more than the strings asked for. Inputs
+ * longer than maxLength characters are refused with a TooLargeException as
+ * soon as the limit is crossed, without reading the rest.
+ *
+ * Since form inputs send numbers as strings, the number accessors also
+ * accept a string holding a number, and nextString() accepts a number.
+ */
+public final class JsonReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY,
+        NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /* scopes of the open arrays/objects */
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    /* a name was read, its value comes next */
+    private static final int DANGLING_NAME = 6;
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Reader in;
+    private final long maxLength;
+    private final char[] buf = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    /* characters read before buf[0] */
+    private long offset;
+    /* text of the current name, string or number */
+    private final StringBuilder text = new StringBuilder();
+    private boolean bool;
+    private Token peeked;
+    private int[] stack = new int[8];
+    private int depth;
+
+    public JsonReader(Reader in, long maxLength) {
+        this.in = in;
+        this.maxLength = maxLength;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /* type of the next token, without consuming it */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace() != -1) {
+                    throw syntax("unexpected content after the document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != -1) {
+                    pos--;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespaceBeforeEnd();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntax("expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespaceBeforeEnd();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntax("expected ',' or '}'");
+                    }
+                    c = nextNonWhitespaceBeforeEnd();
+                }
+                if (c != '"') {
+                    throw syntax("expected a name");
+                }
+                readString();
+                stack[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespaceBeforeEnd() != ':') {
+                    throw syntax("expected ':'");
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        return peeked = readValue();
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /* whether the current array/object has another element */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return text.toString();
+    }
+
+    /* a string or a number as text, null for null */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NULL) {
+            peeked = null;
+            return null;
+        }
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw invalid("expected a string but was " + token);
+        }
+        peeked = null;
+        return text.toString();
+    }
+
+    public long nextLong() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw invalid("expected a number but was " + token);
+        }
+        long value = parseLong();
+        peeked = null;
+        return value;
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw invalid("number out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw invalid("expected a number but was " + token);
+        }
+        double value;
+        try {
+            value = Double.parseDouble(text.toString().trim());
+        } catch (NumberFormatException e) {
+            throw invalid("not a number: '" + text + "'");
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw invalid("not a finite number: '" + text + "'");
+        }
+        peeked = null;
+        return value;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return bool;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /* skips the next value, with everything nested in it */
+    public void skipValue() throws IOException {
+        int open = 0;
+        do {
+            Token token = peek();
+            if (token == Token.BEGIN_OBJECT) {
+                beginObject();
+                open++;
+            } else if (token == Token.BEGIN_ARRAY) {
+                beginArray();
+                open++;
+            } else if (token == Token.END_OBJECT) {
+                endObject();
+                open--;
+            } else if (token == Token.END_ARRAY) {
+                endArray();
+                open--;
+            } else if (token == Token.END_DOCUMENT) {
+                throw invalid("expected a value but was " + token);
+            } else {
+                peeked = null;
+            }
+        } while (open > 0);
+    }
+
+    /* checks that nothing but whitespace follows the top level value */
+    public void endDocument() throws IOException {
+        expect(Token.END_DOCUMENT);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw invalid("expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    private Token readValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                readString();
+                return Token.STRING;
+            case 't':
+                readLiteral("rue");
+                bool = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("alse");
+                bool = false;
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("ull");
+                return Token.NULL;
+            case -1:
+                throw syntax("unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber(c);
+                    return Token.NUMBER;
+                }
+                throw syntax("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /* reads the rest of a string, the opening quote is consumed */
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == -1) {
+                throw syntax("unterminated string");
+            } else if (c < 0x20) {
+                throw syntax("control character in string");
+            } else if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append((char) c);
+                        break;
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw syntax("invalid unicode escape");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        text.append((char) code);
+                        break;
+                    default:
+                        throw syntax("invalid escape");
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    /* -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)? */
+    private void readNumber(int c) throws IOException {
+        text.setLength(0);
+        if (c == '-') {
+            text.append('-');
+            c = read();
+        }
+        if (c == '0') {
+            text.append('0');
+            c = read();
+        } else {
+            c = readDigits(c);
+        }
+        if (c == '.') {
+            text.append('.');
+            c = readDigits(read());
+        }
+        if (c == 'e' || c == 'E') {
+            text.append('e');
+            c = read();
+            if (c == '+' || c == '-') {
+                text.append((char) c);
+                c = read();
+            }
+            c = readDigits(c);
+        }
+        if (c != -1) {
+            pos--;
+        }
+    }
+
+    /* at least one digit, returns the character after them */
+    private int readDigits(int c) throws IOException {
+        if (c < '0' || c > '9') {
+            throw syntax("invalid number");
+        }
+        do {
+            text.append((char) c);
+            c = read();
+        } while (c >= '0' && c <= '9');
+        return c;
+    }
+
+    private void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntax("invalid literal");
+            }
+        }
+    }
+
+    /* integer value of text, without going through a String */
+    private long parseLong() throws IOException {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        boolean negative = start < end && text.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw invalid("not an integer: '" + text + "'");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid("not an integer: '" + text + "'");
+            }
+            // 按负数累加，Long.MIN_VALUE 也能表示
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw invalid("number out of range: " + text);
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw invalid("number out of range: " + text);
+            }
+            value = -value;
+        }
+        return value;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    /* inside an array or object the input must not end */
+    private int nextNonWhitespaceBeforeEnd() throws IOException {
+        int c = nextNonWhitespace();
+        if (c == -1) {
+            throw syntax("unexpected end of input");
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        if (offset >= maxLength) {
+            // 只再看一个字符，确认确实超长
+            int c = in.read();
+            if (c == -1) {
+                return false;
+            }
+            throw new TooLargeException(maxLength);
+        }
+        int n;
+        do {
+            n = in.read(buf, 0, (int) Math.min(buf.length, maxLength - offset));
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private MalformedJsonException syntax(String message) {
+        return new MalformedJsonException(message + " at offset " + (offset + pos));
+    }
+
+    private InvalidValueException invalid(String message) {
+        return new InvalidValueException(message + " at offset " + (offset + pos));
+    }
+
+    /**
+     * the input is not well-formed JSON.
+     */
+    public static final class MalformedJsonException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * the input is well-formed, but a value does not have the expected type,
+     * or is missing or out of range.
+     */
+    public static final class InvalidValueException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public InvalidValueException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * the input is longer than the limit given to the reader.
+     */
+    public static final class TooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long maxLength;
+
+        TooLargeException(long maxLength) {
+            super("JSON input longer than " + maxLength + " characters");
+            this.maxLength = maxLength;
+        }
+
+        public long getMaxLength() {
+            return maxLength;
+        }
+    }
+}
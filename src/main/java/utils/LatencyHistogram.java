@@ -0,0 +1,95 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with HdrHistogram-style buckets:
+ * every power of two is split into 32 linear sub-buckets, so a reported
+ * value is at most ~3% above the recorded one, from 1ns up to ~68s
+ * (longer durations are counted as ~68s).
+ *
+ * Recording is an atomic increment of one bucket, without locks, so it can
+ * be called from every request thread. Counts are kept since creation.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    /* counts copied bucket by bucket, recordings may go on meanwhile */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum());
+    }
+
+    /* values below SUB_COUNT are exact, above it the top SUB_BITS + 1 bits select the bucket */
+    private static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    /* largest value counted in the bucket */
+    private static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) >> SUB_BITS;
+        long lowest = (long) (SUB_COUNT + ((index - SUB_COUNT) & (SUB_COUNT - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /* smallest value that at least quantile of the recorded values do not exceed, 0 when empty */
+        public long valueAt(double quantile) {
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /* total of the recorded nanoseconds */
+        public long getSum() {
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One step of the schema, see {@link DBInitializer#migrations()}: a list of
+ * changes, each skipped when the schema already has it. Most databases
+ * commit DDL on their own, so a step cut short is carried on from where it
+ * stopped, and tables that got some of the changes by other means (created
+ * by an earlier version of the create statements) only get the missing ones.
+ */
+public final class Migration {
+
+    private final String description;
+    private final List<Change> changes = new ArrayList<>();
+
+    public Migration(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /* sql adds column to table, unless the table has it */
+    public Migration addColumn(String table, String column, String sql) {
+        changes.add(conn -> {
+            if (!hasColumn(conn, table, column)) {
+                execute(conn, sql);
+            }
+        });
+        return this;
+    }
+
+    /* sql adds an index on columns (in this order) to table, unless the table has one */
+    public Migration addIndex(String table, String sql, String... columns) {
+        changes.add(conn -> {
+            if (!hasIndex(conn, table, columns)) {
+                execute(conn, sql);
+            }
+        });
+        return this;
+    }
+
+    /* sql changes rows, it has to be harmless when run again */
+    public Migration update(String sql) {
+        changes.add(conn -> execute(conn, sql));
+        return this;
+    }
+
+    /* make the changes the schema on conn is missing, committing after each one */
+    void apply(Connection conn) throws SQLException {
+        for (Change change : changes) {
+            change.apply(conn);
+            conn.commit();
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, table, null)) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* whether table has an index on exactly columns, in this order, whatever its name */
+    static boolean hasIndex(Connection conn, String table, String... columns) throws SQLException {
+        Map<String, List<String>> indexes = new LinkedHashMap<>();
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, table, false, true)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                // 统计信息行没有索引名
+                if (name == null) {
+                    continue;
+                }
+                List<String> indexColumns = indexes.computeIfAbsent(name, k -> new ArrayList<>());
+                int position = rs.getInt("ORDINAL_POSITION");
+                while (indexColumns.size() < position) {
+                    indexColumns.add(null);
+                }
+                indexColumns.set(position - 1, rs.getString("COLUMN_NAME").toLowerCase());
+            }
+        }
+        List<String> wanted = new ArrayList<>();
+        for (String column : columns) {
+            wanted.add(column.toLowerCase());
+        }
+        return indexes.containsValue(wanted);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    private interface Change {
+        void apply(Connection conn) throws SQLException;
+    }
+}
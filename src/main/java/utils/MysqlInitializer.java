@@ -1,6 +1,23 @@
 package utils;
 
-public class MysqlInitializer implements DBInitializer {
+import com.mysql.cj.jdbc.JdbcStatement;
+import entities.Book;
+import entities.Card;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+public class MysqlInitializer implements DBInitializer, BulkLoader {
 
     @Override
     public String sqlDropBook() {
@@ -17,6 +34,8 @@ public class MysqlInitializer implements DBInitializer {
         return "drop table if exists `borrow`;";
     }
 
+    /* one (column, book_id) index per Book.SortColumn, so that a page of
+       queryBook in any order is read from an index after the cursor */
     @Override
     public String sqlCreateBook() {
         return "create table `book` (\n" +
@@ -29,7 +48,14 @@ public class MysqlInitializer implements DBInitializer {
                 "    `price` decimal(7, 2) not null default 0.00,\n" +
                 "    `stock` int not null default 0,\n" +
                 "    primary key (`book_id`),\n" +
-                "    unique (`category`, `press`, `author`, `title`, `publish_year`)\n" +
+                "    unique (`category`, `press`, `author`, `title`, `publish_year`),\n" +
+                "    key `book_category` (`category`, `book_id`),\n" +
+                "    key `book_title` (`title`, `book_id`),\n" +
+                "    key `book_press` (`press`, `book_id`),\n" +
+                "    key `book_publish_year` (`publish_year`, `book_id`),\n" +
+                "    key `book_author` (`author`, `book_id`),\n" +
+                "    key `book_price` (`price`, `book_id`),\n" +
+                "    key `book_stock` (`stock`, `book_id`)\n" +
                 ") engine=innodb charset=utf8mb4;";
     }
 
@@ -53,9 +79,181 @@ public class MysqlInitializer implements DBInitializer {
                 "  `book_id` int not null,\n" +
                 "  `borrow_time` bigint not null,\n" +
                 "  `return_time` bigint not null default 0,\n" +
+                "  `open_loan` tinyint default 1,\n" +
                 "  primary key (`card_id`, `book_id`, `borrow_time`),\n" +
+                "  unique `borrow_open_loan` (`card_id`, `book_id`, `open_loan`),\n" +
+                "  key `borrow_book_open` (`book_id`, `return_time`),\n" +
+                "  key `borrow_card_history` (`card_id`, `borrow_time` desc, `book_id`, `return_time`, `open_loan`),\n" +
                 "  foreign key (`card_id`) references `card`(`card_id`) on delete cascade on update cascade,\n" +
                 "  foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade\n" +
                 ") engine=innodb charset=utf8mb4;";
     }
+
+    @Override
+    public String sqlDropSchemaVersion() {
+        return "drop table if exists `schema_version`;";
+    }
+
+    @Override
+    public String sqlCreateSchemaVersion() {
+        return "create table if not exists `schema_version` (\n" +
+                "    `version` int not null\n" +
+                ") engine=innodb charset=utf8mb4;";
+    }
+
+    /* index builds are in place and let reads & writes of the table go on */
+    @Override
+    public List<Migration> migrations() {
+        Migration bookIndexes = new Migration("book indexes of paged queryBook");
+        for (Book.SortColumn sortColumn : Book.SortColumn.values()) {
+            String column = sortColumn.getValue();
+            if (sortColumn == Book.SortColumn.BOOK_ID) {
+                continue;
+            }
+            bookIndexes.addIndex("book", addIndex("book", "book_" + column, "`" + column + "`, `book_id`"),
+                    column, "book_id");
+        }
+        return Arrays.asList(
+                // open_loan of the guarded borrow engine: 1 while the book is out,
+                // NULL once it is returned, so that a card holds one open loan per book
+                new Migration("open loans of borrow")
+                        .addColumn("borrow", "open_loan", "alter table `borrow` add column `open_loan` tinyint default 1;")
+                        .update("update `borrow` set `open_loan` = null where `return_time` <> 0 and `open_loan` is not null;")
+                        .addIndex("borrow", "alter table `borrow` add unique `borrow_open_loan` (`card_id`, `book_id`, `open_loan`),"
+                                + " algorithm=inplace, lock=none;", "card_id", "book_id", "open_loan"),
+                bookIndexes,
+                // removeBook looks up open loans by book_id, borrow history
+                // reads a card's loans newest first from the index alone
+                new Migration("borrow indexes of open loans & history")
+                        .addIndex("borrow", addIndex("borrow", "borrow_book_open", "`book_id`, `return_time`"),
+                                "book_id", "return_time")
+                        .addIndex("borrow", addIndex("borrow", "borrow_card_history",
+                                        "`card_id`, `borrow_time` desc, `book_id`, `return_time`, `open_loan`"),
+                                "card_id", "borrow_time", "book_id", "return_time", "open_loan")
+        );
+    }
+
+    private static String addIndex(String table, String name, String columns) {
+        return "alter table `" + table + "` add index `" + name + "` (" + columns + "), algorithm=inplace, lock=none;";
+    }
+
+    /**
+     * LOAD DATA LOCAL INFILE fed from an in-memory stream in the default
+     * format of LOAD DATA: tab separated, backslash escaped, one row per line.
+     * needs allowLoadLocalInfile on the connection and local_infile on the server.
+     */
+    @Override
+    public int loadBooks(Connection conn, List<Book> books) throws SQLException {
+        List<Book> loadable = BulkLoads.loadableBooks(books);
+        if (loadable.isEmpty()) {
+            return 0;
+        }
+        BulkLoads.execute(conn, "drop temporary table if exists `book_staging`");
+        BulkLoads.execute(conn, "create temporary table `book_staging` (\n" +
+                "    `seq` int not null,\n" +
+                "    `category` varchar(63) not null,\n" +
+                "    `title` varchar(63) not null,\n" +
+                "    `press` varchar(63) not null,\n" +
+                "    `publish_year` int not null,\n" +
+                "    `author` varchar(63) not null,\n" +
+                "    `price` decimal(7, 2) not null,\n" +
+                "    `stock` int not null\n" +
+                ") engine=innodb charset=utf8mb4");
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(loadable.size() * 64);
+            try (Writer w = new OutputStreamWriter(data, StandardCharsets.UTF_8)) {
+                int seq = 0;
+                for (Book book : loadable) {
+                    w.write(Integer.toString(seq++));
+                    field(w, book.getCategory());
+                    field(w, book.getTitle());
+                    field(w, book.getPress());
+                    field(w, Integer.toString(book.getPublishYear()));
+                    field(w, book.getAuthor());
+                    field(w, BigDecimal.valueOf(book.getPrice()).toPlainString());
+                    field(w, Integer.toString(book.getStock()));
+                    w.write('\n');
+                }
+            } catch (IOException e) {
+                throw new SQLException("Failed to stage books", e);
+            }
+            loadData(conn, "book_staging", "seq, " + BulkLoads.BOOK_COLUMNS, data);
+            return BulkLoads.reconcile(conn, "`book_staging`", "book",
+                    BulkLoads.BOOK_COLUMNS, BulkLoads.BOOK_KEY);
+        } finally {
+            BulkLoads.execute(conn, "drop temporary table if exists `book_staging`");
+        }
+    }
+
+    @Override
+    public int loadCards(Connection conn, List<Card> cards) throws SQLException {
+        List<Card> loadable = BulkLoads.loadableCards(cards);
+        if (loadable.isEmpty()) {
+            return 0;
+        }
+        BulkLoads.execute(conn, "drop temporary table if exists `card_staging`");
+        BulkLoads.execute(conn, "create temporary table `card_staging` (\n" +
+                "    `seq` int not null,\n" +
+                "    `name` varchar(63) not null,\n" +
+                "    `department` varchar(63) not null,\n" +
+                "    `type` char(1) not null\n" +
+                ") engine=innodb charset=utf8mb4");
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(loadable.size() * 32);
+            try (Writer w = new OutputStreamWriter(data, StandardCharsets.UTF_8)) {
+                int seq = 0;
+                for (Card card : loadable) {
+                    w.write(Integer.toString(seq++));
+                    field(w, card.getName());
+                    field(w, card.getDepartment());
+                    field(w, card.getType().getStr());
+                    w.write('\n');
+                }
+            } catch (IOException e) {
+                throw new SQLException("Failed to stage cards", e);
+            }
+            loadData(conn, "card_staging", "seq, " + BulkLoads.CARD_COLUMNS, data);
+            return BulkLoads.reconcile(conn, "`card_staging`", "card",
+                    BulkLoads.CARD_COLUMNS, BulkLoads.CARD_KEY);
+        } finally {
+            BulkLoads.execute(conn, "drop temporary table if exists `card_staging`");
+        }
+    }
+
+    private static void loadData(Connection conn, String table, String columns,
+                                 ByteArrayOutputStream data) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            /* the file name is ignored, the driver sends the stream instead */
+            stmt.unwrap(JdbcStatement.class).setLocalInfileInputStream(new ByteArrayInputStream(data.toByteArray()));
+            stmt.execute("LOAD DATA LOCAL INFILE 'stream' INTO TABLE `" + table + "` " +
+                    "CHARACTER SET utf8mb4 (" + columns + ")");
+        }
+    }
+
+    /* a tab then the value, escaped the way LOAD DATA expects */
+    private static void field(Writer w, String value) throws IOException {
+        w.write('\t');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    w.write("\\\\");
+                    break;
+                case '\t':
+                    w.write("\\t");
+                    break;
+                case '\n':
+                    w.write("\\n");
+                    break;
+                case '\r':
+                    w.write("\\r");
+                    break;
+                case '\0':
+                    w.write("\\0");
+                    break;
+                default:
+                    w.write(c);
+            }
+        }
+    }
 }
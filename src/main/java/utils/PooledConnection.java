@@ -0,0 +1,64 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A physical connection owned by the pool of a {@link DatabaseConnector},
+ * together with the prepared statements cached on it.
+ */
+final class PooledConnection {
+
+    private final Connection conn;
+    private final StatementCache statementCache;
+    /* isolation level right after the connection was opened */
+    private final int defaultIsolation;
+    /* isolation level currently set on the connection, tracked to skip redundant round trips */
+    private int isolation;
+    /* when this connection was last handed back to the pool */
+    private volatile long lastReturned;
+
+    PooledConnection(Connection conn, int statementCacheSize, StatementCache.Stats stats) throws SQLException {
+        this.conn = conn;
+        this.defaultIsolation = conn.getTransactionIsolation();
+        this.isolation = defaultIsolation;
+        this.statementCache = new StatementCache(conn, statementCacheSize, stats);
+        this.lastReturned = System.currentTimeMillis();
+    }
+
+    Connection getConn() {
+        return conn;
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    int getDefaultIsolation() {
+        return defaultIsolation;
+    }
+
+    void setIsolation(int level) throws SQLException {
+        if (level != isolation) {
+            conn.setTransactionIsolation(level);
+            isolation = level;
+        }
+    }
+
+    long getLastReturned() {
+        return lastReturned;
+    }
+
+    void markReturned() {
+        lastReturned = System.currentTimeMillis();
+    }
+
+    void closeQuietly() {
+        statementCache.clear();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
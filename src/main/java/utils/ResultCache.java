@@ -0,0 +1,129 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of query results, each entry labelled with the version of the
+ * data it was read at (see {@link TableVersions}) and kept for a limited time.
+ *
+ * An entry is only served while the version is still the current one, so
+ * a change made through this process is never hidden; the time to live
+ * bounds how long changes made by other processes can go unseen.
+ * Callers own what they put and get: values should not be changed once
+ * they are in the cache.
+ */
+public final class ResultCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries most entries kept, 0 disables the cache
+     * @param ttlMillis  how long an entry is served, 0 disables the cache
+     */
+    public ResultCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, ttlMillis));
+        /* access order turns the map into an LRU list, eldest first */
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= ResultCache.this.maxEntries) {
+                    return false;
+                }
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlNanos > 0;
+    }
+
+    /**
+     * the value cached for key at version, null if there is none, it was
+     * read at another version or it expired.
+     */
+    public V get(K key, long version) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.version == version && System.nanoTime() - entry.created < ttlNanos) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /* cache value for key, read at version */
+    public void put(K key, long version, V value) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            // 不用旧版本的结果覆盖新版本的
+            if (entry == null || version >= entry.version) {
+                entries.put(key, new Entry<>(value, version, System.nanoTime()));
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /* hits / lookups since start, 0 before the first lookup */
+    public double getHitRatio() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long version;
+        private final long created;
+
+        Entry(V value, long version, long created) {
+            this.value = value;
+            this.version = version;
+            this.created = created;
+        }
+    }
+}
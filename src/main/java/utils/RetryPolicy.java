@@ -0,0 +1,108 @@
+package utils;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a failed transaction is run again, and how long to wait
+ * before that. Only deadlocks & serialization failures are retried (see
+ * {@link SqlErrors#isRetryable}), every retry waits a random time below an
+ * exponentially growing bound ("full jitter") so that the transactions
+ * which collided do not collide again.
+ *
+ * A policy is safe to share between threads.
+ */
+public final class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Stats stats = new Stats();
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * called after attempt number attempt (starting at 1) failed with e.
+     * returns true, after backing off, when the transaction should run again.
+     */
+    public boolean retry(Exception e, int attempt) {
+        if (!(e instanceof SQLException) || !SqlErrors.isRetryable((SQLException) e)) {
+            return false;
+        }
+        if (attempt >= maxAttempts) {
+            stats.exhausted.increment();
+            return false;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMillis(attempt));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            stats.exhausted.increment();
+            return false;
+        }
+        stats.retries.increment();
+        return true;
+    }
+
+    /* called after attempt number attempt (starting at 1) committed */
+    public void succeeded(int attempt) {
+        if (attempt > 1) {
+            stats.recovered.increment();
+        }
+    }
+
+    /* random delay in [0, min(maxDelay, baseDelay * 2^(attempt-1))] */
+    long delayMillis(int attempt) {
+        long bound = baseDelayMillis << Math.min(attempt - 1, 30);
+        if (bound <= 0 || bound > maxDelayMillis) {
+            bound = maxDelayMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * retry counters of a policy.
+     */
+    public static final class Stats {
+        /* attempts started again after a retryable failure */
+        private final LongAdder retries = new LongAdder();
+        /* transactions committed after at least one retry */
+        private final LongAdder recovered = new LongAdder();
+        /* transactions given up with a retryable failure */
+        private final LongAdder exhausted = new LongAdder();
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public long getRecovered() {
+            return recovered.sum();
+        }
+
+        public long getExhausted() {
+            return exhausted.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "RetryPolicy.Stats {" + "retries=" + getRetries() +
+                    ", recovered=" + getRecovered() +
+                    ", exhausted=" + getExhausted() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Runs the migrations of a {@link DBInitializer} the schema has not had
+ * yet, recording its version in table schema_version.
+ *
+ * Tables that were there before the schema was versioned are version 1.
+ * Each change of a migration is skipped when the schema already has it
+ * (see {@link Migration}) and the version is only written once all of
+ * them are made: DDL commits on its own in most databases, so a migration
+ * cut short by a crash is simply run again on the next start. Two
+ * processes starting at once may run the same migration, the one that
+ * fails on a change the other made tries the migration once more.
+ */
+public final class SchemaMigrations {
+
+    private SchemaMigrations() {
+    }
+
+    /* version of the schema once every migration of initializer ran */
+    public static int latestVersion(DBInitializer initializer) {
+        return initializer.migrations().size() + 1;
+    }
+
+    /**
+     * bring the schema on conn, which is not in auto-commit mode, to the
+     * latest version. returns the version it had.
+     */
+    public static int migrate(Connection conn, DBInitializer initializer) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(initializer.sqlCreateSchemaVersion());
+        }
+        conn.commit();
+        int from = readVersion(conn);
+        if (from == 0) {
+            // 版本化之前建的表，即版本1
+            try (PreparedStatement pStmtInsert = conn.prepareStatement("INSERT INTO schema_version (version) VALUES (1)")) {
+                pStmtInsert.executeUpdate();
+            }
+            conn.commit();
+            from = 1;
+        }
+        List<Migration> migrations = initializer.migrations();
+        int latest = migrations.size() + 1;
+        if (from > latest) {
+            throw new SQLException("Schema version " + from + " is newer than the latest known version " + latest);
+        }
+        int version = from;
+        boolean retried = false;
+        while (version < latest) {
+            try {
+                migrations.get(version - 1).apply(conn);
+                try (PreparedStatement pStmtUpdate = conn.prepareStatement(
+                        "UPDATE schema_version SET version = ? WHERE version = ?")) {
+                    pStmtUpdate.setInt(1, version + 1);
+                    pStmtUpdate.setInt(2, version);
+                    pStmtUpdate.executeUpdate();
+                }
+                conn.commit();
+                version++;
+                retried = false;
+            } catch (SQLException e) {
+                conn.rollback();
+                int current = readVersion(conn);
+                if (current > version) {
+                    // 其他进程已经做完了这一步，从它留下的版本继续
+                    version = current;
+                } else if (retried) {
+                    throw new SQLException("Failed to migrate the schema to version " + (version + 1)
+                            + " (" + migrations.get(version - 1) + "): " + e.getMessage(), e);
+                } else {
+                    // 可能是其他进程同时做了同一个修改，再做一次时会跳过它
+                    retried = true;
+                }
+            }
+        }
+        return from;
+    }
+
+    /* version in schema_version, 0 when it has no row */
+    private static int readVersion(Connection conn) throws SQLException {
+        int version;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            version = rs.next() ? rs.getInt(1) : 0;
+        }
+        conn.commit();
+        return version;
+    }
+}
@@ -0,0 +1,213 @@
+package utils;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the timings of the statements run through {@link StatementTracer}.
+ *
+ * Every statement is added to a summary keyed by its normalized SQL (literals
+ * and repeated groups folded), statements at or above the threshold are also
+ * written with their bind parameters to a rotating log file. String binds
+ * are redacted to their length, keeping the % of LIKE patterns.
+ */
+public final class SlowQueryLog {
+
+    private static final Logger log = Logger.getLogger(SlowQueryLog.class.getName());
+    /* distinct statement shapes summed up, later shapes only count as OTHER */
+    private static final int MAX_SHAPES = 1000;
+    private static final String OTHER = "(other statements)";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern REPEATED_OR = Pattern.compile("(\\([^()]*\\))(?: OR \\1)+");
+
+    private final long thresholdNanos;
+    private final Logger fileLog;
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+    /* normalized SQL per statement text, the same texts come back through the statement cache */
+    private final Map<String, String> normalized = new ConcurrentHashMap<>();
+
+    /**
+     * @param file  FileHandler pattern of the log files, null to only keep the summary
+     * @param limit bytes per file before rotating, 0 for no limit
+     * @param count number of files to rotate through
+     */
+    public SlowQueryLog(long thresholdMillis, String file, int limit, int count) {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+        Logger fileLog = null;
+        if (file != null) {
+            try {
+                FileHandler handler = new FileHandler(file, limit, count, true);
+                handler.setFormatter(new LineFormatter());
+                fileLog = Logger.getAnonymousLogger();
+                fileLog.setUseParentHandlers(false);
+                fileLog.addHandler(handler);
+                fileLog.setLevel(Level.INFO);
+            } catch (IOException | RuntimeException e) {
+                log.warning("Failed to open slow query log " + file + ", keeping the summary only: " + e.getMessage());
+                fileLog = null;
+            }
+        }
+        this.fileLog = fileLog;
+    }
+
+    /**
+     * one finished statement.
+     *
+     * @param rows         rows fetched, or rows changed by an update, -1 if unknown
+     * @param executeNanos time spent in execute
+     * @param fetchNanos   time spent in ResultSet.next()
+     */
+    void record(String sql, Object[] binds, long rows, long executeNanos, long fetchNanos) {
+        long total = executeNanos + fetchNanos;
+        shape(sql).add(total, rows, total >= thresholdNanos);
+        if (total >= thresholdNanos && fileLog != null) {
+            fileLog.info(String.format("%.1f ms (execute %.1f ms, fetch %.1f ms, %d rows): %s | binds: %s",
+                    total / 1e6, executeNanos / 1e6, fetchNanos / 1e6, rows,
+                    WHITESPACE.matcher(sql).replaceAll(" ").trim(), redact(binds)));
+        }
+    }
+
+    /* the n statement shapes that took the most time in total */
+    public List<Shape> top(int n) {
+        List<Shape> result = new ArrayList<>(shapes.values());
+        result.sort(Comparator.comparingLong(Shape::getTotalNanos).reversed());
+        return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+    }
+
+    public void reset() {
+        shapes.clear();
+    }
+
+    public long getThresholdMillis() {
+        return thresholdNanos / 1_000_000L;
+    }
+
+    private Shape shape(String sql) {
+        String key = normalized.get(sql);
+        if (key == null) {
+            key = normalize(sql);
+            if (normalized.size() < MAX_SHAPES) {
+                normalized.put(sql, key);
+            }
+        }
+        Shape shape = shapes.get(key);
+        if (shape == null) {
+            if (shapes.size() >= MAX_SHAPES) {
+                key = OTHER;
+            }
+            shape = shapes.computeIfAbsent(key, Shape::new);
+        }
+        return shape;
+    }
+
+    /* literals become ?, IN lists and repeated OR groups collapse to one element */
+    static String normalize(String sql) {
+        String s = STRING_LITERAL.matcher(sql).replaceAll("?");
+        s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+        s = WHITESPACE.matcher(s).replaceAll(" ").trim();
+        s = IN_LIST.matcher(s).replaceAll("(?, ...)");
+        return REPEATED_OR.matcher(s).replaceAll("$1 OR ...");
+    }
+
+    static String redact(Object[] binds) {
+        if (binds == null) {
+            return "[]";
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < binds.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            Object value = binds[i];
+            if (value instanceof String) {
+                // 字符串只留长度，LIKE 的 % 保留下来以便看出匹配方式
+                String text = (String) value;
+                int from = text.startsWith("%") ? 1 : 0;
+                int to = text.length() > from && text.endsWith("%") ? text.length() - 1 : text.length();
+                sb.append('\'').append(text, 0, from).append("***(").append(to - from).append(')')
+                        .append(text, to, text.length()).append('\'');
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * totals of one normalized statement.
+     */
+    public static final class Shape {
+
+        private final String sql;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder slowCalls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder rows = new LongAdder();
+
+        private Shape(String sql) {
+            this.sql = sql;
+        }
+
+        private void add(long nanos, long rows, boolean slow) {
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            if (rows > 0) {
+                this.rows.add(rows);
+            }
+            if (slow) {
+                slowCalls.increment();
+            }
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getSlowCalls() {
+            return slowCalls.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+    }
+
+    /* one line per statement, prefixed with its time */
+    private static final class LineFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            return Instant.ofEpochMilli(record.getMillis()) + " " + record.getMessage() + System.lineSeparator();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package utils;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+
+/**
+ * Classify vendor errors of the supported databases.
+ */
+public final class SqlErrors {
+
+    private SqlErrors() {
+    }
+
+    /**
+     * whether the error is a unique key violation, e.g. a second open
+     * loan of the same book on the same card.
+     */
+    public static boolean isDuplicateKey(SQLException e) {
+        for (SQLException cur = e; cur != null; cur = cur.getNextException()) {
+            String state = cur.getSQLState();
+            int code = cur.getErrorCode();
+            /* MySQL: ER_DUP_ENTRY; SQL Server: unique index / unique constraint */
+            if (code == 1062 || code == 2601 || code == 2627) {
+                return true;
+            }
+            if ("23505".equals(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * whether the transaction was aborted by the database because it collided
+     * with another one (deadlock, lock wait timeout, serialization failure),
+     * so that running it again may succeed.
+     */
+    public static boolean isRetryable(SQLException e) {
+        for (SQLException cur = e; cur != null; cur = cur.getNextException()) {
+            for (Throwable t = cur; t != null; t = t.getCause()) {
+                if (t instanceof SQLException && isRetryableError((SQLException) t)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRetryableError(SQLException e) {
+        if (e instanceof SQLTransactionRollbackException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        /* serialization failure, also reported for deadlocks by MySQL, SQL Server & H2 */
+        if ("40001".equals(state)) {
+            return true;
+        }
+        switch (e.getErrorCode()) {
+            case 1213:  /* MySQL: ER_LOCK_DEADLOCK */
+            case 1205:  /* MySQL: ER_LOCK_WAIT_TIMEOUT; SQL Server: chosen as deadlock victim */
+            case 3960:  /* SQL Server: snapshot isolation update conflict */
+            case 50200: /* H2: lock timeout */
+            case 90131: /* H2: concurrent update of the same row */
+                return true;
+            default:
+                return false;
+        }
+    }
+}
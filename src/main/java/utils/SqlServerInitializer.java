@@ -1,6 +1,23 @@
 package utils;
 
-public class SqlServerInitializer implements DBInitializer {
+import com.microsoft.sqlserver.jdbc.ISQLServerBulkData;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerConnection;
+import entities.Book;
+import entities.Card;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+public class SqlServerInitializer implements DBInitializer, BulkLoader {
 
     @Override
     public String sqlDropBook() {
@@ -17,6 +34,7 @@ public class SqlServerInitializer implements DBInitializer {
         return "IF OBJECT_ID('dbo.borrow', 'U') IS NOT NULL DROP TABLE dbo.borrow;";
     }
 
+    /* one (column, book_id) index per Book.SortColumn, for paged queryBook */
     @Override
     public String sqlCreateBook() {
         return "create table book (\n" +
@@ -30,7 +48,14 @@ public class SqlServerInitializer implements DBInitializer {
                 "    stock int not null default 0,\n" +
                 "    primary key (book_id),\n" +
                 "    unique (category, press, author, title, publish_year)\n" +
-                ");";
+                ");\n" +
+                "create index book_category on book (category, book_id);\n" +
+                "create index book_title on book (title, book_id);\n" +
+                "create index book_press on book (press, book_id);\n" +
+                "create index book_publish_year on book (publish_year, book_id);\n" +
+                "create index book_author on book (author, book_id);\n" +
+                "create index book_price on book (price, book_id);\n" +
+                "create index book_stock on book (stock, book_id);";
     }
 
     @Override
@@ -53,9 +78,201 @@ public class SqlServerInitializer implements DBInitializer {
                 "    book_id int not null,\n" +
                 "    borrow_time bigint not null,\n" +
                 "    return_time bigint not null default 0,\n" +
+                "    open_loan tinyint default 1,\n" +
                 "    primary key (card_id, book_id, borrow_time),\n" +
                 "    foreign key (card_id) references card(card_id) on delete cascade on update cascade,\n" +
                 "    foreign key (book_id) references book(book_id) on delete cascade on update cascade\n" +
-                ");";
+                ");\n" +
+                "create unique index borrow_open_loan on borrow (card_id, book_id) where open_loan is not null;\n" +
+                "create index borrow_book_open on borrow (book_id, return_time);\n" +
+                "create index borrow_card_history on borrow (card_id, borrow_time desc, book_id) include (return_time, open_loan);";
+    }
+
+    @Override
+    public String sqlDropSchemaVersion() {
+        return "IF OBJECT_ID('dbo.schema_version', 'U') IS NOT NULL DROP TABLE dbo.schema_version;";
+    }
+
+    @Override
+    public String sqlCreateSchemaVersion() {
+        return "IF OBJECT_ID('dbo.schema_version', 'U') IS NULL create table schema_version (version int not null);";
+    }
+
+    /* ONLINE = ON is left out, it is only available in the Enterprise edition */
+    @Override
+    public List<Migration> migrations() {
+        Migration bookIndexes = new Migration("book indexes of paged queryBook");
+        for (Book.SortColumn sortColumn : Book.SortColumn.values()) {
+            String column = sortColumn.getValue();
+            if (sortColumn == Book.SortColumn.BOOK_ID) {
+                continue;
+            }
+            bookIndexes.addIndex("book", "create index book_" + column + " on book (" + column + ", book_id);",
+                    column, "book_id");
+        }
+        return Arrays.asList(
+                // open_loan of the guarded borrow engine: 1 while the book is out,
+                // NULL once it is returned, so that a card holds one open loan per book
+                new Migration("open loans of borrow")
+                        .addColumn("borrow", "open_loan", "alter table borrow add open_loan tinyint default 1 with values;")
+                        .update("update borrow set open_loan = null where return_time <> 0 and open_loan is not null;")
+                        .addIndex("borrow", "create unique index borrow_open_loan on borrow (card_id, book_id)"
+                                + " where open_loan is not null;", "card_id", "book_id"),
+                bookIndexes,
+                // removeBook looks up open loans by book_id, borrow history
+                // reads a card's loans newest first from the index alone
+                new Migration("borrow indexes of open loans & history")
+                        .addIndex("borrow", "create index borrow_book_open on borrow (book_id, return_time);",
+                                "book_id", "return_time")
+                        .addIndex("borrow", "create index borrow_card_history on borrow (card_id, borrow_time desc, book_id)" +
+                                " include (return_time, open_loan);", "card_id", "borrow_time", "book_id")
+        );
+    }
+
+    /**
+     * SQLServerBulkCopy into a session temp table, reading the books
+     * directly through {@link ISQLServerBulkData}.
+     */
+    @Override
+    public int loadBooks(Connection conn, List<Book> books) throws SQLException {
+        List<Book> loadable = BulkLoads.loadableBooks(books);
+        if (loadable.isEmpty()) {
+            return 0;
+        }
+        BulkLoads.execute(conn, "IF OBJECT_ID('tempdb..#book_staging') IS NOT NULL DROP TABLE #book_staging;");
+        BulkLoads.execute(conn, "create table #book_staging (\n" +
+                "    seq int not null,\n" +
+                "    category varchar(63) not null,\n" +
+                "    title varchar(63) not null,\n" +
+                "    press varchar(63) not null,\n" +
+                "    publish_year int not null,\n" +
+                "    author varchar(63) not null,\n" +
+                "    price decimal(7, 2) not null,\n" +
+                "    stock int not null\n" +
+                ");");
+        try {
+            bulkCopy(conn, "#book_staging", new Rows<>(loadable,
+                    new String[]{"seq", "category", "title", "press", "publish_year", "author", "price", "stock"},
+                    new int[]{Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER,
+                            Types.VARCHAR, Types.DECIMAL, Types.INTEGER},
+                    book -> new Object[]{book.getCategory(), book.getTitle(), book.getPress(),
+                            book.getPublishYear(), book.getAuthor(),
+                            BigDecimal.valueOf(book.getPrice()).setScale(2, RoundingMode.HALF_UP),
+                            book.getStock()}));
+            return BulkLoads.reconcile(conn, "#book_staging", "book",
+                    BulkLoads.BOOK_COLUMNS, BulkLoads.BOOK_KEY);
+        } finally {
+            BulkLoads.execute(conn, "DROP TABLE #book_staging;");
+        }
+    }
+
+    @Override
+    public int loadCards(Connection conn, List<Card> cards) throws SQLException {
+        List<Card> loadable = BulkLoads.loadableCards(cards);
+        if (loadable.isEmpty()) {
+            return 0;
+        }
+        BulkLoads.execute(conn, "IF OBJECT_ID('tempdb..#card_staging') IS NOT NULL DROP TABLE #card_staging;");
+        BulkLoads.execute(conn, "create table #card_staging (\n" +
+                "    seq int not null,\n" +
+                "    name varchar(63) not null,\n" +
+                "    department varchar(63) not null,\n" +
+                "    type char(1) not null\n" +
+                ");");
+        try {
+            bulkCopy(conn, "#card_staging", new Rows<>(loadable,
+                    new String[]{"seq", "name", "department", "type"},
+                    new int[]{Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.CHAR},
+                    card -> new Object[]{card.getName(), card.getDepartment(), card.getType().getStr()}));
+            return BulkLoads.reconcile(conn, "#card_staging", "card",
+                    BulkLoads.CARD_COLUMNS, BulkLoads.CARD_KEY);
+        } finally {
+            BulkLoads.execute(conn, "DROP TABLE #card_staging;");
+        }
+    }
+
+    private static void bulkCopy(Connection conn, String table, ISQLServerBulkData rows) throws SQLException {
+        // 连接池的连接可能包了一层计时，SQLServerBulkCopy要驱动自己的连接
+        try (SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(conn.unwrap(SQLServerConnection.class))) {
+            bulkCopy.setDestinationTableName(table);
+            bulkCopy.writeToServer(rows);
+        }
+    }
+
+    /**
+     * rows of a list for bulk copy, the first column is the position in the list.
+     */
+    private static final class Rows<T> implements ISQLServerBulkData {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> items;
+        private final String[] names;
+        private final int[] types;
+        private final transient Function<T, Object[]> values;
+        private int next;
+
+        Rows(List<T> items, String[] names, int[] types, Function<T, Object[]> values) {
+            this.items = items;
+            this.names = names;
+            this.types = types;
+            this.values = values;
+        }
+
+        @Override
+        public Set<Integer> getColumnOrdinals() {
+            Set<Integer> ordinals = new LinkedHashSet<>();
+            for (int i = 1; i <= names.length; i++) {
+                ordinals.add(i);
+            }
+            return ordinals;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return names[column - 1];
+        }
+
+        @Override
+        public int getColumnType(int column) {
+            return types[column - 1];
+        }
+
+        @Override
+        public int getPrecision(int column) {
+            switch (types[column - 1]) {
+                case Types.DECIMAL:
+                    return 7;
+                case Types.CHAR:
+                    return 1;
+                case Types.VARCHAR:
+                    return BulkLoads.MAX_TEXT_LENGTH;
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public int getScale(int column) {
+            return types[column - 1] == Types.DECIMAL ? 2 : 0;
+        }
+
+        @Override
+        public boolean next() {
+            if (next >= items.size()) {
+                return false;
+            }
+            next++;
+            return true;
+        }
+
+        @Override
+        public Object[] getRowData() {
+            Object[] row = values.apply(items.get(next - 1));
+            Object[] withSeq = new Object[row.length + 1];
+            withSeq[0] = next - 1;
+            System.arraycopy(row, 0, withSeq, 1, row.length);
+            return withSeq;
+        }
     }
 }
@@ -0,0 +1,156 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of prepared statements bound to one pooled connection.
+ *
+ * Note: a pooled connection is only used by the thread holding its lease,
+ * so the cache itself is not synchronized. The counters are shared by all
+ * connections of a pool and are thread-safe.
+ */
+public final class StatementCache {
+
+    private final Connection conn;
+    private final int capacity;
+    private final Stats stats;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    StatementCache(Connection conn, int capacity, Stats stats) {
+        this.conn = conn;
+        this.capacity = capacity;
+        this.stats = stats;
+        /* access order turns the map into an LRU list, eldest first */
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() <= StatementCache.this.capacity) {
+                    return false;
+                }
+                stats.evictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * get a statement prepared with the given options, preparing it on a miss.
+     * the statement stays owned by the cache, callers must not close it.
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys, int resultSetType,
+                              int resultSetConcurrency) throws SQLException {
+        Key key = new Key(sql, autoGeneratedKeys, resultSetType, resultSetConcurrency);
+        PreparedStatement stmt = statements.get(key);
+        if (stmt != null && !stmt.isClosed()) {
+            stats.hits.increment();
+            stmt.clearParameters();
+            stmt.clearBatch();
+            return stmt;
+        }
+        stats.misses.increment();
+        stmt = prepareUncached(sql, autoGeneratedKeys, resultSetType, resultSetConcurrency);
+        statements.put(key, stmt);
+        return stmt;
+    }
+
+    PreparedStatement prepareUncached(String sql, int autoGeneratedKeys, int resultSetType,
+                                      int resultSetConcurrency) throws SQLException {
+        if (autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS) {
+            return conn.prepareStatement(sql, autoGeneratedKeys);
+        }
+        return conn.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    /* close every cached statement, used when the connection leaves the pool */
+    void clear() {
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while (it.hasNext()) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final int autoGeneratedKeys;
+        private final int resultSetType;
+        private final int resultSetConcurrency;
+
+        Key(String sql, int autoGeneratedKeys, int resultSetType, int resultSetConcurrency) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return autoGeneratedKeys == key.autoGeneratedKeys &&
+                    resultSetType == key.resultSetType &&
+                    resultSetConcurrency == key.resultSetConcurrency &&
+                    sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, autoGeneratedKeys, resultSetType, resultSetConcurrency);
+        }
+    }
+
+    /**
+     * hit & miss counters of all statement caches in a pool.
+     */
+    public static final class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "StatementCache.Stats {" + "hits=" + getHits() +
+                    ", misses=" + getMisses() +
+                    ", evictions=" + getEvictions() +
+                    '}';
+        }
+    }
+}
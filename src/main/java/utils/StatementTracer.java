@@ -0,0 +1,230 @@
+package utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Wraps a connection so that the statements it creates report to a
+ * {@link SlowQueryLog}: how long execute took, how long the caller spent
+ * in ResultSet.next() and how many rows it read. A query is reported once
+ * its result is read to the end, closed, or its statement runs again.
+ *
+ * Everything else, including unwrap(), goes straight to the driver's objects.
+ */
+final class StatementTracer {
+
+    private StatementTracer() {
+    }
+
+    static Connection wrap(Connection conn, SlowQueryLog slowQueryLog) {
+        return proxy(Connection.class, conn, new ConnectionHandler(conn, slowQueryLog));
+    }
+
+    private static <T> T proxy(Class<T> type, Object target, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StatementTracer.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* proxies are only equal to themselves, whatever the driver's objects think */
+    private static Object identity(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("equals") && method.getParameterCount() == 1) {
+            return proxy == args[0];
+        }
+        if (method.getName().equals("hashCode") && method.getParameterCount() == 0) {
+            return System.identityHashCode(proxy);
+        }
+        return null;
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection conn;
+        private final SlowQueryLog slowQueryLog;
+
+        ConnectionHandler(Connection conn, SlowQueryLog slowQueryLog) {
+            this.conn = conn;
+            this.slowQueryLog = slowQueryLog;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object same = identity(proxy, method, args);
+            if (same != null) {
+                return same;
+            }
+            Object result = StatementTracer.invoke(conn, method, args);
+            String name = method.getName();
+            // prepareCall 的存储过程不在这里统计
+            if (name.equals("prepareStatement") || name.equals("createStatement")) {
+                Class<?> type = method.getReturnType();
+                String sql = name.equals("prepareStatement") ? (String) args[0] : null;
+                return proxy(type.asSubclass(Statement.class), result, new StatementHandler((Statement) result, sql, slowQueryLog));
+            }
+            return result;
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement stmt;
+        /* text of a prepared statement, null for a plain statement */
+        private final String sql;
+        private final SlowQueryLog slowQueryLog;
+        private Object[] binds = new Object[0];
+        private int batched;
+        private ResultSetHandler open;
+
+        StatementHandler(Statement stmt, String sql, SlowQueryLog slowQueryLog) {
+            this.stmt = stmt;
+            this.sql = sql;
+            this.slowQueryLog = slowQueryLog;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object same = identity(proxy, method, args);
+            if (same != null) {
+                return same;
+            }
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                // setNull 的第二个参数是类型，记成 null
+                bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                binds = new Object[0];
+            } else if (name.equals("addBatch")) {
+                batched++;
+            } else if (name.equals("clearBatch")) {
+                batched = 0;
+            } else if (name.equals("close")) {
+                finishOpen();
+            }
+            return StatementTracer.invoke(stmt, method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            finishOpen();
+            String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+            Object[] bound = batched > 0 ? new Object[]{"batch of " + batched} : binds.clone();
+            batched = 0;
+            long start = System.nanoTime();
+            Object result = StatementTracer.invoke(stmt, method, args);
+            long executeNanos = System.nanoTime() - start;
+            if (result instanceof ResultSet) {
+                // 查询等结果读完或关闭时再记录
+                open = new ResultSetHandler((ResultSet) result, this, text, bound, executeNanos);
+                return proxy(ResultSet.class, result, open);
+            }
+            slowQueryLog.record(text == null ? "" : text, bound, rows(result), executeNanos, 0);
+            return result;
+        }
+
+        private void bind(int index, Object value) {
+            if (index < 1 || index > 10000) {
+                return;
+            }
+            if (index > binds.length) {
+                binds = Arrays.copyOf(binds, Math.max(index, binds.length * 2));
+            }
+            binds[index - 1] = value;
+        }
+
+        private void finishOpen() {
+            if (open != null) {
+                open.finish();
+            }
+        }
+
+        /* rows changed by an update, summed over a batch, -1 for a boolean execute */
+        private static long rows(Object result) {
+            if (result instanceof Number) {
+                return ((Number) result).longValue();
+            }
+            long total = 0;
+            if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    total += Math.max(count, 0);
+                }
+                return total;
+            }
+            if (result instanceof long[]) {
+                for (long count : (long[]) result) {
+                    total += Math.max(count, 0);
+                }
+                return total;
+            }
+            return -1;
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+
+        private final ResultSet rs;
+        private final StatementHandler owner;
+        private final String sql;
+        private final Object[] binds;
+        private final long executeNanos;
+        private long fetchNanos;
+        private long rows;
+        private boolean finished;
+
+        ResultSetHandler(ResultSet rs, StatementHandler owner, String sql, Object[] binds, long executeNanos) {
+            this.rs = rs;
+            this.owner = owner;
+            this.sql = sql;
+            this.binds = binds;
+            this.executeNanos = executeNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object same = identity(proxy, method, args);
+            if (same != null) {
+                return same;
+            }
+            String name = method.getName();
+            if (name.equals("next")) {
+                long start = System.nanoTime();
+                Object result = StatementTracer.invoke(rs, method, args);
+                fetchNanos += System.nanoTime() - start;
+                if (Boolean.TRUE.equals(result)) {
+                    rows++;
+                } else {
+                    finish();
+                }
+                return result;
+            }
+            if (name.equals("close")) {
+                finish();
+            }
+            return StatementTracer.invoke(rs, method, args);
+        }
+
+        void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (owner.open == this) {
+                owner.open = null;
+            }
+            owner.slowQueryLog.record(sql == null ? "" : sql, binds, rows, executeNanos, fetchNanos);
+        }
+    }
+}
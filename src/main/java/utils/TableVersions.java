@@ -0,0 +1,39 @@
+package utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Version counter per table, bumped after every transaction that may have
+ * changed the table has committed.
+ *
+ * A reader that takes the version before it queries never labels data
+ * older than that version with it, so a client holding the current version
+ * already has the current rows. Counters only see the changes made through
+ * this process; they start from a random epoch so that versions handed out
+ * before a restart never match again.
+ */
+public final class TableVersions {
+
+    public enum Table {
+        BOOK, CARD
+    }
+
+    private final AtomicLongArray versions = new AtomicLongArray(Table.values().length);
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 16);
+
+    public long get(Table table) {
+        return versions.get(table.ordinal());
+    }
+
+    public void bump(Table... tables) {
+        for (Table table : tables) {
+            versions.incrementAndGet(table.ordinal());
+        }
+    }
+
+    /* weak entity tag of the table's current version, the same for every encoding of a response */
+    public String etag(Table table) {
+        return "W/\"" + table.name().toLowerCase() + '-' + epoch + '-' + get(table) + '"';
+    }
+}
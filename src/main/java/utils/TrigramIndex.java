@@ -0,0 +1,336 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trigram inverted index of one text column: for every three consecutive
+ * characters of the (case folded) texts, the ids of the rows containing
+ * them, kept as delta encoded varints.
+ *
+ * The index narrows down a LIKE '%term%' search, it does not replace it:
+ * {@link #candidates(String)} returns every id whose text may match and
+ * the database still applies the LIKE to them, so the result is exactly
+ * the one of the LIKE whatever the collation. To never miss a row, only
+ * characters that every supported collation compares as themselves (or,
+ * for ASCII letters, ignoring case) are indexed; a text holding any other
+ * character is always a candidate, a term holding one is not narrowed.
+ * The index only knows the changes made through this process, so it is
+ * only complete while this process is the single writer of the rows.
+ */
+public final class TrigramIndex {
+
+    private static final byte[] NO_BYTES = {};
+    private static final int[] NO_IDS = {};
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+    /* rows whose text cannot be indexed, candidates of every search */
+    private final Postings unindexed = new Postings();
+
+    /* index text as the text of row id, adding to what id had */
+    public synchronized void add(int id, String text) {
+        // NULL 不会被LIKE匹配到
+        if (text == null) {
+            return;
+        }
+        String folded = fold(text);
+        if (folded == null) {
+            unindexed.add(id);
+            return;
+        }
+        for (long trigram : trigrams(folded)) {
+            postings.computeIfAbsent(trigram, k -> new Postings()).add(id);
+        }
+    }
+
+    /* forget that row id had text */
+    public synchronized void remove(int id, String text) {
+        if (text == null) {
+            return;
+        }
+        String folded = fold(text);
+        if (folded == null) {
+            unindexed.remove(id);
+            return;
+        }
+        for (long trigram : trigrams(folded)) {
+            Postings list = postings.get(trigram);
+            if (list != null) {
+                list.remove(id);
+                if (list.size == 0) {
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+        unindexed.clear();
+    }
+
+    /* number of distinct trigrams */
+    public synchronized int size() {
+        return postings.size();
+    }
+
+    /**
+     * ids, ascending, of the rows whose text may match LIKE '%term%'.
+     * null when the index cannot narrow the term down: shorter than three
+     * characters, holding LIKE wildcards or characters it does not index.
+     */
+    public synchronized int[] candidates(String term) {
+        if (!narrows(term)) {
+            return null;
+        }
+        long[] trigrams = trigrams(fold(term));
+        Postings[] lists = new Postings[trigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            lists[i] = postings.get(trigrams[i]);
+            if (lists[i] == null) {
+                // 有一个三元组没有出现过，只剩不能索引的行
+                return unindexed.decode();
+            }
+        }
+        // 从最短的列表开始求交集
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        int[] ids = lists[0].decode();
+        int n = ids.length;
+        for (int i = 1; i < lists.length && n > 0; i++) {
+            n = lists[i].retain(ids, n);
+        }
+        return union(Arrays.copyOf(ids, n), unindexed.decode());
+    }
+
+    /* whether candidates() can narrow term down */
+    public static boolean narrows(String term) {
+        if (term.indexOf('%') >= 0 || term.indexOf('_') >= 0 || term.indexOf('\\') >= 0) {
+            return false;
+        }
+        String folded = fold(term);
+        return folded != null && folded.length() >= 3;
+    }
+
+    /* ids in both ascending id arrays */
+    public static int[] intersect(int[] a, int[] b) {
+        int[] ids = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (b[j] < a[i]) {
+                j++;
+            } else {
+                ids[n++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * text with ASCII letters in lower case, null when it holds a character
+     * the index does not handle. ideographs of the BMP compare as themselves
+     * in the collations of every supported database; other non-ASCII
+     * characters may be folded (case, accents, kana, width) or expanded,
+     * ASCII controls are ignorable in some collations, and word sort
+     * collations skip '-' and '\''.
+     */
+    static String fold(String text) {
+        StringBuilder folded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20 || c == 0x7F || c == '-' || c == '\'') {
+                    return null;
+                }
+                folded.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+            } else if (Character.isIdeographic(c) && !(c >= 0xF900 && c <= 0xFAFF)) {
+                // 兼容汉字（F900-FAFF）会被规范化成其他汉字，不索引
+                folded.append(c);
+            } else {
+                return null;
+            }
+        }
+        return folded.toString();
+    }
+
+    /* distinct trigrams of folded text, three UTF-16 units packed in a long */
+    static long[] trigrams(String folded) {
+        if (folded.length() < 3) {
+            return new long[0];
+        }
+        long[] trigrams = new long[folded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) folded.charAt(i) << 32) | ((long) folded.charAt(i + 1) << 16) | folded.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int n = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (n == 0 || trigrams[i] != trigrams[n - 1]) {
+                trigrams[n++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, n);
+    }
+
+    /* union of two ascending id arrays */
+    private static int[] union(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] ids = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                next = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j++;
+            }
+            ids[n++] = next;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * ascending ids as varint deltas. ids are assigned in ascending order,
+     * so new rows are appended; anything else re-encodes the list.
+     */
+    private static final class Postings {
+        private byte[] data = NO_BYTES;
+        private int length;
+        private int size;
+        private int last;
+
+        void add(int id) {
+            if (size == 0 || id > last) {
+                append(id - (size == 0 ? 0 : last));
+                last = id;
+                size++;
+                return;
+            }
+            int[] ids = decode();
+            int at = Arrays.binarySearch(ids, id);
+            if (at >= 0) {
+                return;
+            }
+            int[] added = new int[ids.length + 1];
+            System.arraycopy(ids, 0, added, 0, -at - 1);
+            added[-at - 1] = id;
+            System.arraycopy(ids, -at - 1, added, -at, ids.length + at + 1);
+            encode(added);
+        }
+
+        void remove(int id) {
+            if (size == 0 || id > last) {
+                return;
+            }
+            int[] ids = decode();
+            int at = Arrays.binarySearch(ids, id);
+            if (at < 0) {
+                return;
+            }
+            int[] removed = new int[ids.length - 1];
+            System.arraycopy(ids, 0, removed, 0, at);
+            System.arraycopy(ids, at + 1, removed, at, ids.length - at - 1);
+            encode(removed);
+        }
+
+        void clear() {
+            data = NO_BYTES;
+            length = 0;
+            size = 0;
+            last = 0;
+        }
+
+        int[] decode() {
+            if (size == 0) {
+                return NO_IDS;
+            }
+            int[] ids = new int[size];
+            int pos = 0;
+            int id = 0;
+            for (int i = 0; i < size; i++) {
+                int delta = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = data[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                id += delta;
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        /* keep the first n of ids (ascending, positive) that are in this list, returns how many */
+        int retain(int[] ids, int n) {
+            int kept = 0;
+            int pos = 0;
+            int id = 0;
+            int read = 0;
+            for (int i = 0; i < n; i++) {
+                // 跳过列表中比ids[i]小的
+                while (id < ids[i]) {
+                    if (read == size) {
+                        return kept;
+                    }
+                    int delta = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        byte b = data[pos++];
+                        delta |= (b & 0x7F) << shift;
+                        if (b >= 0) {
+                            break;
+                        }
+                    }
+                    id += delta;
+                    read++;
+                }
+                if (id == ids[i]) {
+                    ids[kept++] = ids[i];
+                }
+            }
+            return kept;
+        }
+
+        private void encode(int[] ids) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(ids.length * 2);
+            int previous = 0;
+            for (int id : ids) {
+                writeVarint(out, id - previous);
+                previous = id;
+            }
+            data = out.toByteArray();
+            length = data.length;
+            size = ids.length;
+            last = size == 0 ? 0 : ids[size - 1];
+        }
+
+        private void append(int delta) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(8, data.length * 2));
+            }
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
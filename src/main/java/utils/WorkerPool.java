@@ -0,0 +1,120 @@
+package utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of worker threads for the HTTP server.
+ *
+ * When all workers are busy and the queue is full, the task is handed to
+ * a single overflow thread and runs there with {@link #isOverloaded()} set,
+ * so that the request is answered with 503 right away instead of being
+ * queued without limit. Turning a request away only reads its headers and
+ * writes a short response, the server's dispatcher thread never runs a
+ * task itself. The overflow thread has a queue of the same capacity; when
+ * a slow client holds it up and that queue fills too, {@link #execute}
+ * throws RejectedExecutionException and the server closes the connection
+ * at once.
+ */
+public final class WorkerPool implements Executor {
+
+    private static final ThreadLocal<Boolean> overloaded = ThreadLocal.withInitial(() -> false);
+
+    private final ThreadPoolExecutor executor;
+    /* runs the tasks the executor refused, they are answered with 503 */
+    private final ThreadPoolExecutor overflow;
+    private final int queueCapacity;
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public WorkerPool(String name, int coreThreads, int maxThreads, int queueCapacity, long keepAliveSeconds) {
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threads = new AtomicInteger();
+        // 被拒绝的请求排在这里等待503，这里也满了就直接断开连接
+        this.overflow = new ThreadPoolExecutor(1, 1, keepAliveSeconds, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, name + "-overflow");
+                    t.setDaemon(true);
+                    return t;
+                }, (task, pool) -> {
+                    dropped.increment();
+                    throw new RejectedExecutionException("Worker pool and overflow queue are full");
+                });
+        this.overflow.allowCoreThreadTimeOut(keepAliveSeconds > 0);
+        RejectedExecutionHandler reject = (task, pool) -> {
+            rejections.increment();
+            overflow.execute(() -> {
+                overloaded.set(true);
+                try {
+                    task.run();
+                } finally {
+                    overloaded.set(false);
+                }
+            });
+        };
+        this.executor = new ThreadPoolExecutor(coreThreads, maxThreads, keepAliveSeconds, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, name + "-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, reject);
+    }
+
+    /* whether the current task was refused by the pool and should be turned away */
+    public static boolean isOverloaded() {
+        return overloaded.get();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        overflow.shutdown();
+    }
+
+    /* tasks waiting for a worker */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /* workers running a task */
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    /* workers alive, busy or idle */
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    public int getMaxWorkers() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public long getCompletedTasks() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /* tasks turned away because the queue was full */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /* rejected tasks the overflow thread had no room for either, their connections were closed */
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
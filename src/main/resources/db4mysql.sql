@@ -12,7 +12,14 @@ create table `book` (
     `price` decimal(7, 2) not null default 0.00,
     `stock` int not null default 0,
     primary key (`book_id`),
-    unique (`category`, `press`, `author`, `title`, `publish_year`)
+    unique (`category`, `press`, `author`, `title`, `publish_year`),
+    key `book_category` (`category`, `book_id`),
+    key `book_title` (`title`, `book_id`),
+    key `book_press` (`press`, `book_id`),
+    key `book_publish_year` (`publish_year`, `book_id`),
+    key `book_author` (`author`, `book_id`),
+    key `book_price` (`price`, `book_id`),
+    key `book_stock` (`stock`, `book_id`)
 ) engine=innodb charset=utf8mb4;
 
 create table `card` (
@@ -30,7 +37,11 @@ create table `borrow` (
   `book_id` int not null,
   `borrow_time` bigint not null,
   `return_time` bigint not null default 0,
+  `open_loan` tinyint default 1,
   primary key (`card_id`, `book_id`, `borrow_time`),
+  unique `borrow_open_loan` (`card_id`, `book_id`, `open_loan`),
+  key `borrow_book_open` (`book_id`, `return_time`),
+  key `borrow_card_history` (`card_id`, `borrow_time` desc, `book_id`, `return_time`, `open_loan`),
   foreign key (`card_id`) references `card`(`card_id`) on delete cascade on update cascade,
   foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade
 ) engine=innodb charset=utf8mb4;
\ No newline at end of file
@@ -14,6 +14,13 @@ create table book (
     primary key (book_id),
     unique (category, press, author, title, publish_year)
 );
+create index book_category on book (category, book_id);
+create index book_title on book (title, book_id);
+create index book_press on book (press, book_id);
+create index book_publish_year on book (publish_year, book_id);
+create index book_author on book (author, book_id);
+create index book_price on book (price, book_id);
+create index book_stock on book (stock, book_id);
 
 create table card (
     card_id int not null identity,
@@ -30,7 +37,12 @@ create table borrow (
     book_id int not null,
     borrow_time bigint not null,
     return_time bigint not null default 0,
+    open_loan tinyint default 1,
     primary key (card_id, book_id, borrow_time),
     foreign key (card_id) references card(card_id) on delete cascade on update cascade,
     foreign key (book_id) references book(book_id) on delete cascade on update cascade
-);
\ No newline at end of file
+);
+
+create unique index borrow_open_loan on borrow (card_id, book_id) where open_loan is not null;
+create index borrow_book_open on borrow (book_id, return_time);
+create index borrow_card_history on borrow (card_id, borrow_time desc, book_id) include (return_time, open_loan);
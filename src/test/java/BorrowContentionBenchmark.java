@@ -0,0 +1,124 @@
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.ApiResult;
+import utils.BorrowEngine;
+import utils.ConnectConfig;
+import utils.DatabaseConnector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares throughput & abort rate of the borrow engines on a few hot books.
+ *
+ * Every worker borrows a random hot book with a random card and returns it
+ * right away when it succeeds. "No more stock" and "already borrowed" are
+ * expected answers under contention, every other failure (deadlock, lock
+ * wait timeout, serialization failure...) of a borrow or a return counts
+ * as an abort.
+ *
+ * mvn test-compile exec:java -Dexec.mainClass="BorrowContentionBenchmark" -Dexec.classpathScope=test
+ * options: -Dthreads=16 -Dbooks=4 -Dstock=2 -Dcards=64 -Dseconds=10
+ */
+public class BorrowContentionBenchmark {
+
+    private static final int nThreads = Integer.getInteger("threads", BorrowThread.nThreads);
+    private static final int nBooks = Integer.getInteger("books", 4);
+    private static final int stock = Integer.getInteger("stock", 2);
+    private static final int nCards = Integer.getInteger("cards", 64);
+    private static final int seconds = Integer.getInteger("seconds", 10);
+
+    public static void main(String[] args) throws Exception {
+        ConnectConfig conf = new ConnectConfig();
+        DatabaseConnector connector = new DatabaseConnector(conf);
+        if (!connector.connect()) {
+            System.out.println("Failed to connect database.");
+            System.exit(1);
+        }
+        try {
+            for (BorrowEngine engine : BorrowEngine.values()) {
+                run(connector, engine);
+            }
+        } finally {
+            connector.release();
+        }
+    }
+
+    private static void run(DatabaseConnector connector, BorrowEngine engine) throws InterruptedException {
+        LibraryManagementSystemImpl library = new LibraryManagementSystemImpl(connector, engine);
+        check(library.resetDatabase());
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < nBooks; i++) {
+            Book book = new Book("Benchmark", String.format("Hot Book %02d", i),
+                    "Benchmark Press", 2023, "Bench", 10.00, stock);
+            check(library.storeBook(book));
+            books.add(book);
+        }
+        List<Card> cards = new ArrayList<>();
+        for (int i = 0; i < nCards; i++) {
+            Card card = new Card(0, String.format("User%05d", i), "Benchmark", Card.CardType.Student);
+            check(library.registerCard(card));
+            cards.add(card);
+        }
+
+        LongAdder borrowed = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        LongAdder aborted = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline) {
+                    Borrow borrow = new Borrow(books.get(random.nextInt(nBooks)), cards.get(random.nextInt(nCards)));
+                    borrow.resetBorrowTime();
+                    ApiResult result = library.borrowBook(borrow);
+                    if (result.ok) {
+                        borrowed.increment();
+                        // keep the copy in circulation, a failed return is an abort as well
+                        borrow.resetReturnTime();
+                        while (!library.returnBook(borrow).ok) {
+                            aborted.increment();
+                        }
+                    } else if ("No more stock for the book".equals(result.message)
+                            || "There's already a borrowed book not returned".equals(result.message)) {
+                        rejected.increment();
+                    } else {
+                        aborted.increment();
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // throughput counts borrows answered by the library, aborts are left out
+        long answered = borrowed.sum() + rejected.sum();
+        long attempts = answered + aborted.sum();
+        System.out.printf("%-12s threads=%d borrowed=%d rejected=%d aborted=%d " +
+                        "throughput=%.1f ops/s abort rate=%.2f%%\n",
+                engine.getName(), nThreads, borrowed.sum(), rejected.sum(), aborted.sum(),
+                answered / (double) seconds, attempts == 0 ? 0.0 : 100.0 * aborted.sum() / attempts);
+        System.out.printf("%-12s %s\n", engine.getName(), library.getRetryStats());
+    }
+
+    private static void check(ApiResult result) {
+        if (!result.ok) {
+            throw new IllegalStateException(result.message);
+        }
+    }
+}
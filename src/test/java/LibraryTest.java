@@ -23,11 +23,15 @@ public class LibraryTest {
     private LibraryManagementSystem library;
 
     private static ConnectConfig connectConfig = null;
+    /* implementation under test: -Dlibrary.engine=database|memory, otherwise "engine" of the config */
+    private static boolean memoryEngine = false;
 
     static {
         try {
             // parse connection config from "resources/application.yaml"
             connectConfig = new ConnectConfig();
+            String engine = System.getProperty("library.engine");
+            memoryEngine = engine == null ? connectConfig.isMemoryEngine() : engine.equals("memory");
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
@@ -36,9 +40,14 @@ public class LibraryTest {
 
     public LibraryTest() {
         try {
-            // connect to database
-            connector = new DatabaseConnector(connectConfig);
-            library = new LibraryManagementSystemImpl(connector);
+            if (memoryEngine) {
+                // 内存引擎不连接数据库，每个测试一个新的库
+                library = new MemoryLibrary();
+            } else {
+                // connect to database
+                connector = new DatabaseConnector(connectConfig);
+                library = new LibraryManagementSystemImpl(connector);
+            }
             System.out.println("Successfully init class BookTest.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -48,9 +57,11 @@ public class LibraryTest {
 
     @Before
     public void prepareTest() {
-        boolean connStatus = connector.connect();
-        Assert.assertTrue(connStatus);
-        System.out.println("Successfully connect to database.");
+        if (connector != null) {
+            boolean connStatus = connector.connect();
+            Assert.assertTrue(connStatus);
+            System.out.println("Successfully connect to database.");
+        }
         ApiResult result = library.resetDatabase();
         if (!result.ok) {
             System.out.printf("Failed to reset database, reason: %s\n", result.message);
@@ -61,6 +72,9 @@ public class LibraryTest {
 
     @After
     public void afterTest() {
+        if (connector == null) {
+            return;
+        }
         boolean releaseStatus = connector.release();
         if (releaseStatus) {
             System.out.println("Successfully release database connection.");
@@ -595,6 +609,11 @@ public class LibraryTest {
         List<DatabaseConnector> connectors = new ArrayList<>();
         List<LibraryManagementSystem> libraries = new ArrayList<>();
         for (int i = 0; i < nThreads; i++) {
+            if (memoryEngine) {
+                // 内存中只有一个库，各线程共用
+                libraries.add(library);
+                continue;
+            }
             DatabaseConnector connector = new DatabaseConnector(connectConfig);
             Assert.assertTrue(connector.connect());
             connectors.add(connector);
@@ -623,7 +642,7 @@ public class LibraryTest {
         // only one thread can successfully borrow the book
         Assert.assertEquals(1, BorrowThread.successOps.get());
         /* release all connections */
-        for (int i = 0; i < nThreads; i++) {
+        for (int i = 0; i < connectors.size(); i++) {
             Assert.assertTrue(connectors.get(i).release());
         }
     }
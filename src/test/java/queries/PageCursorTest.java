@@ -0,0 +1,77 @@
+package queries;
+
+import entities.Book;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public class PageCursorTest {
+
+    private static String encode(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void roundTrip() {
+        Book book = new Book("Computer Science", "a|b|c", "Press", 2023, "Mike", 188.8, 10);
+        book.setBookId(42);
+        PageCursor cursor = PageCursor.decode(PageCursor.after(book, Book.SortColumn.TITLE, SortOrder.DESC).encode());
+        Assert.assertNotNull(cursor);
+        Assert.assertTrue(cursor.matches("title", SortOrder.DESC));
+        // 值放在最后，可以含有分隔符
+        Assert.assertEquals("a|b|c", cursor.getValue());
+        Assert.assertEquals(42, cursor.getId());
+
+        cursor = PageCursor.decode(PageCursor.after(book, Book.SortColumn.PRICE, SortOrder.ASC).encode());
+        Assert.assertNotNull(cursor);
+        Assert.assertEquals("188.8", cursor.getValue());
+
+        cursor = PageCursor.decode(PageCursor.after(book, Book.SortColumn.BOOK_ID, SortOrder.ASC).encode());
+        Assert.assertNotNull(cursor);
+        Assert.assertTrue(cursor.matches("book_id", SortOrder.ASC));
+        Assert.assertEquals(42, cursor.getId());
+    }
+
+    @Test
+    public void malformedCursors() {
+        String[] malformed = {
+                "",
+                "!!not base64!!",
+                "MXx0aXRsZXxhc2M",                  // "1|title|asc", too few parts
+                encode("1|title|asc|42"),
+                encode("2|title|asc|42|x"),         // unknown version
+                encode("|title|asc|42|x"),
+                encode("1|title|sideways|42|x"),    // unknown order
+                encode("1|title|ASC|42|x"),
+                encode("1|title|asc||x"),           // missing id
+                encode("1|title|asc|4x2|x"),
+                encode("1|title|asc|99999999999|x"),
+        };
+        for (String cursor : malformed) {
+            Assert.assertNull(cursor, PageCursor.decode(cursor));
+        }
+    }
+
+    @Test
+    public void tamperedCursors() {
+        Book book = new Book("Computer Science", "Title", "Press", 2023, "Mike", 188.8, 10);
+        book.setBookId(42);
+        String cursor = PageCursor.after(book, Book.SortColumn.TITLE, SortOrder.ASC).encode();
+        // 换了排序列或顺序的游标不能用于原来的查询
+        PageCursor otherColumn = PageCursor.decode(encode("1|price|asc|42|Title"));
+        Assert.assertNotNull(otherColumn);
+        Assert.assertFalse(otherColumn.matches("title", SortOrder.ASC));
+        PageCursor otherOrder = PageCursor.decode(encode("1|title|desc|42|Title"));
+        Assert.assertNotNull(otherOrder);
+        Assert.assertFalse(otherOrder.matches("title", SortOrder.ASC));
+        // 改动编码后的字符
+        char[] chars = cursor.toCharArray();
+        chars[1] = chars[1] == 'A' ? 'B' : 'A';
+        PageCursor flipped = PageCursor.decode(new String(chars));
+        Assert.assertTrue(flipped == null || !flipped.matches("title", SortOrder.ASC));
+        // 截断
+        Assert.assertNull(PageCursor.decode(cursor.substring(0, 6)));
+    }
+}
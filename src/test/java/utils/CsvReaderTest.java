@@ -0,0 +1,113 @@
+package utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CsvReaderTest {
+
+    private static List<List<String>> readAll(Reader in) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(in, 63, 7)) {
+            List<String> record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static List<List<String>> readAll(String csv) throws IOException {
+        return readAll(new StringReader(csv));
+    }
+
+    /* hands out one char per read, so every quote & line break falls on a buffer boundary */
+    private static Reader trickle(String csv) {
+        return new StringReader(csv) {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                return super.read(buf, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    @Test
+    public void plainFields() throws IOException {
+        Assert.assertEquals(Arrays.asList(
+                Arrays.asList("a", "b", "c"),
+                Arrays.asList("", "x", "")), readAll("a,b,c\n,x,\n"));
+        // 最后一行可以没有换行
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b")), readAll("a,b"));
+        Assert.assertEquals(new ArrayList<>(), readAll(""));
+    }
+
+    @Test
+    public void quotedFields() throws IOException {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a,b", "say \"hi\"", "", "c")),
+                readAll("\"a,b\",\"say \"\"hi\"\"\",\"\",c\n"));
+        // 只有字段开头的引号才是引用
+        Assert.assertEquals(Arrays.asList(Arrays.asList("5\" disk", "x")), readAll("5\" disk,x\n"));
+    }
+
+    @Test
+    public void crlfAndBlankLines() throws IOException {
+        String csv = "a,b\r\n\r\nc,d\r\n\n\re,f\r\n";
+        List<List<String>> expected = Arrays.asList(
+                Arrays.asList("a", "b"), Arrays.asList("c", "d"), Arrays.asList("e", "f"));
+        Assert.assertEquals(expected, readAll(csv));
+        Assert.assertEquals(expected, readAll(trickle(csv)));
+    }
+
+    @Test
+    public void multilineFields() throws IOException {
+        String csv = "\"first\r\nsecond\",x\n\"a\n\nb\",y\nz,w\n";
+        List<List<String>> expected = Arrays.asList(
+                Arrays.asList("first\r\nsecond", "x"), Arrays.asList("a\n\nb", "y"), Arrays.asList("z", "w"));
+        Assert.assertEquals(expected, readAll(csv));
+        Assert.assertEquals(expected, readAll(trickle(csv)));
+        // 记录的行号从它开始的那一行算起
+        try (CsvReader reader = new CsvReader(new StringReader(csv), 63, 7)) {
+            reader.next();
+            Assert.assertEquals(3, reader.getLine());
+            reader.next();
+            Assert.assertEquals(6, reader.getLine());
+        }
+    }
+
+    @Test
+    public void malformedRecordsAreSkipped() throws IOException {
+        String tooLong = new String(new char[64]).replace('\0', 'x');
+        String csv = "a,b\n" + tooLong + ",c\n1,2,3,4,5,6,7,8\n\"multi\nline " + tooLong + "\"\nd,e\n";
+        try (CsvReader reader = new CsvReader(new StringReader(csv), 63, 7)) {
+            Assert.assertEquals(Arrays.asList("a", "b"), reader.next());
+            assertMalformed(reader, 2);
+            assertMalformed(reader, 3);
+            assertMalformed(reader, 4);
+            Assert.assertEquals(Arrays.asList("d", "e"), reader.next());
+            Assert.assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void unterminatedQuote() throws IOException {
+        try (CsvReader reader = new CsvReader(new StringReader("a,b\n\"c,d\n"), 63, 7)) {
+            Assert.assertEquals(Arrays.asList("a", "b"), reader.next());
+            assertMalformed(reader, 2);
+        }
+    }
+
+    private static void assertMalformed(CsvReader reader, long line) throws IOException {
+        try {
+            reader.next();
+            Assert.fail("expected a malformed record at line " + line);
+        } catch (CsvReader.MalformedRecordException e) {
+            Assert.assertEquals(line, e.getLine());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package utils;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* state of the store under test: the values appended so far */
+    private final List<Integer> state = new ArrayList<>();
+
+    private long recover(Journal journal) throws IOException {
+        state.clear();
+        return journal.recover(in -> {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                state.add(in.readInt());
+            }
+        }, in -> state.add(in.readInt()));
+    }
+
+    private static void append(Journal journal, int... values) throws IOException {
+        for (int value : values) {
+            journal.append(out -> out.writeInt(value));
+        }
+    }
+
+    @Test
+    public void replayJournalWithoutSnapshot() throws IOException {
+        File dir = folder.newFolder();
+        try (Journal journal = new Journal(dir, false)) {
+            Assert.assertEquals(0, recover(journal));
+            append(journal, 1, 2, 3);
+        }
+        try (Journal journal = new Journal(dir, false)) {
+            Assert.assertEquals(3, recover(journal));
+            Assert.assertEquals(Arrays.asList(1, 2, 3), state);
+        }
+    }
+
+    @Test
+    public void replaySnapshotThenJournal() throws IOException {
+        File dir = folder.newFolder();
+        try (Journal journal = new Journal(dir, false)) {
+            recover(journal);
+            append(journal, 1, 2);
+            // 快照取在rotate的那一刻，之后的记录进新的一代
+            long first = journal.rotate();
+            List<Integer> taken = new ArrayList<>(Arrays.asList(1, 2));
+            append(journal, 3);
+            journal.writeSnapshot(first, out -> {
+                out.writeInt(taken.size());
+                for (int value : taken) {
+                    out.writeInt(value);
+                }
+            });
+            append(journal, 4);
+        }
+        // 快照之前的journal已删除
+        Assert.assertFalse(new File(dir, "journal-0.log").exists());
+        try (Journal journal = new Journal(dir, false)) {
+            Assert.assertEquals(2, recover(journal));
+            Assert.assertEquals(Arrays.asList(1, 2, 3, 4), state);
+            append(journal, 5);
+        }
+        try (Journal journal = new Journal(dir, false)) {
+            Assert.assertEquals(3, recover(journal));
+            Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), state);
+        }
+    }
+
+    @Test
+    public void stopAtTornLastRecord() throws IOException {
+        File dir = folder.newFolder();
+        try (Journal journal = new Journal(dir, false)) {
+            recover(journal);
+            append(journal, 1, 2, 3);
+        }
+        // 最后一条记录（长度、CRC、4字节内容）只写了一半
+        File log = new File(dir, "journal-0.log");
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 6);
+        }
+        try (Journal journal = new Journal(dir, false)) {
+            Assert.assertEquals(2, recover(journal));
+            Assert.assertEquals(Arrays.asList(1, 2), state);
+            // 新的记录写进下一代，不会接在残缺的记录后面
+            append(journal, 4);
+        }
+        try (Journal journal = new Journal(dir, false)) {
+            Assert.assertEquals(3, recover(journal));
+            Assert.assertEquals(Arrays.asList(1, 2, 4), state);
+        }
+    }
+
+    @Test
+    public void stopAtCorruptLastRecord() throws IOException {
+        File dir = folder.newFolder();
+        try (Journal journal = new Journal(dir, false)) {
+            recover(journal);
+            append(journal, 1, 2);
+        }
+        // 长度完整但内容与CRC不符
+        File log = new File(dir, "journal-0.log");
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.seek(file.length() - 1);
+            file.write(0x7F);
+        }
+        try (Journal journal = new Journal(dir, false)) {
+            Assert.assertEquals(1, recover(journal));
+            Assert.assertEquals(Arrays.asList(1), state);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class JsonReaderTest {
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new StringReader(json), 65536);
+    }
+
+    /* hands out one char per read, so every escape is split across buffer fills */
+    private static JsonReader trickle(String json) {
+        return new JsonReader(new StringReader(json) {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                return super.read(buf, off, Math.min(len, 1));
+            }
+        }, 65536);
+    }
+
+    private static String string(JsonReader reader) throws IOException {
+        String value = reader.nextString();
+        reader.endDocument();
+        return value;
+    }
+
+    @Test
+    public void escapes() throws IOException {
+        String json = "\"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t \\u0041\\u00e9\\u4E2D\"";
+        String expected = "q\" b\\ s/ \b\f\n\r\t A\u00e9\u4e2d";
+        Assert.assertEquals(expected, string(reader(json)));
+        Assert.assertEquals(expected, string(trickle(json)));
+    }
+
+    @Test
+    public void surrogatePairs() throws IOException {
+        // U+1F600, escaped as a pair and written as is
+        String smile = new String(Character.toChars(0x1F600));
+        Assert.assertEquals(smile, string(reader("\"\\ud83d\\ude00\"")));
+        Assert.assertEquals(smile, string(trickle("\"\\uD83D\\uDE00\"")));
+        Assert.assertEquals("a" + smile + "b", string(reader("\"a" + smile + "b\"")));
+        Assert.assertEquals(0x1F600, string(trickle("\"" + smile + "\"")).codePointAt(0));
+    }
+
+    @Test
+    public void namesAreUnescaped() throws IOException {
+        JsonReader reader = reader("{\"ti\\u0074le\": \"x\", \"\\u4e66\": 1}");
+        reader.beginObject();
+        Assert.assertEquals("title", reader.nextName());
+        Assert.assertEquals("x", reader.nextString());
+        Assert.assertEquals("\u4e66", reader.nextName());
+        Assert.assertEquals(1, reader.nextInt());
+        reader.endObject();
+        reader.endDocument();
+    }
+
+    @Test
+    public void malformedStrings() throws IOException {
+        String[] malformed = {
+                "\"\\x\"",          // unknown escape
+                "\"\\u12\"",        // short unicode escape
+                "\"\\u12g4\"",      // not hex
+                "\"a\nb\"",         // raw control character
+                "\"abc",            // unterminated
+                "\"abc\\",          // ends inside an escape
+        };
+        for (String json : malformed) {
+            try {
+                reader(json).nextString();
+                Assert.fail("expected malformed JSON: " + json);
+            } catch (JsonReader.MalformedJsonException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void numbersAsStrings() throws IOException {
+        JsonReader reader = reader("[\"42\", -9223372036854775808, 1.5e2, \"x\"]");
+        reader.beginArray();
+        Assert.assertEquals(42, reader.nextInt());
+        Assert.assertEquals(Long.MIN_VALUE, reader.nextLong());
+        Assert.assertEquals(150.0, reader.nextDouble(), 0);
+        try {
+            reader.nextInt();
+            Assert.fail();
+        } catch (JsonReader.InvalidValueException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void tooLarge() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("\"abcdefgh\""), 5);
+        try {
+            reader.nextString();
+            Assert.fail();
+        } catch (JsonReader.TooLargeException e) {
+            Assert.assertEquals(5, e.getMaxLength());
+        }
+        // 正好等于上限的输入可以读
+        Assert.assertEquals("abc", string(new JsonReader(new StringReader("\"abc\""), 5)));
+    }
+}
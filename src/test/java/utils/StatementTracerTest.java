@@ -0,0 +1,74 @@
+package utils;
+
+import entities.Book;
+import org.h2.jdbc.JdbcConnection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StatementTracerTest {
+
+    private Connection raw;
+    private Connection traced;
+    private SlowQueryLog slowQueryLog;
+
+    @Before
+    public void open() throws SQLException {
+        raw = DriverManager.getConnection("jdbc:h2:mem:tracer;DB_CLOSE_DELAY=-1", "sa", "");
+        slowQueryLog = new SlowQueryLog(0, null, 0, 1);
+        traced = StatementTracer.wrap(raw, slowQueryLog);
+        traced.setAutoCommit(false);
+        H2Initializer initializer = new H2Initializer();
+        try (Statement stmt = traced.createStatement()) {
+            stmt.execute(initializer.sqlDropBorrow());
+            stmt.execute(initializer.sqlDropBook());
+            stmt.execute(initializer.sqlDropCard());
+            stmt.execute(initializer.sqlCreateBook());
+        }
+        traced.commit();
+    }
+
+    @After
+    public void close() throws SQLException {
+        traced.close();
+    }
+
+    /* bulk loaders hand the driver's own connection to driver APIs (SQLServerBulkCopy) */
+    @Test
+    public void unwrapReachesTheDriverConnection() throws SQLException {
+        Assert.assertTrue(traced.isWrapperFor(JdbcConnection.class));
+        Assert.assertSame(raw, traced.unwrap(JdbcConnection.class));
+        Assert.assertFalse(traced instanceof JdbcConnection);
+    }
+
+    @Test
+    public void bulkLoadThroughTracedConnection() throws SQLException {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            books.add(new Book("Computer Science", "Title " + i, "Press", 2000 + i % 20, "Author", 10.5, i));
+        }
+        H2Initializer initializer = new H2Initializer();
+        Assert.assertEquals(100, initializer.loadBooks(traced, books));
+        traced.commit();
+        try (Statement stmt = traced.createStatement();
+             ResultSet rs = stmt.executeQuery("select count(*) from book")) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(100, rs.getInt(1));
+        }
+        // 暂存表的批量插入也被计时
+        boolean stagedInsert = false;
+        for (SlowQueryLog.Shape shape : slowQueryLog.top(100)) {
+            stagedInsert |= shape.getSql().startsWith("insert into book_staging");
+        }
+        Assert.assertTrue(stagedInsert);
+    }
+}
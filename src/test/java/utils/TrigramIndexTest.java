@@ -0,0 +1,163 @@
+package utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class TrigramIndexTest {
+
+    /* small alphabets, so that random texts share many trigrams */
+    private static final String ASCII = "abcAB ";
+    private static final String HAN = "书库中";
+    /* folded or ignorable in some collation, never indexed */
+    private static final String OTHER = "é-";
+
+    private static String randomText(Random random, String alphabet, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private static int[] ids(Integer... ids) {
+        int[] array = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            array[i] = ids[i];
+        }
+        return array;
+    }
+
+    @Test
+    public void addAndRemoveOutOfOrder() {
+        TrigramIndex index = new TrigramIndex();
+        // 乱序加入，包括需要多字节varint的大id
+        int[] order = {500, 3, 70000, 128, 1, 129, 2000000, 127, 64};
+        for (int id : order) {
+            index.add(id, "Database");
+        }
+        index.add(3, "database");
+        Assert.assertArrayEquals(ids(1, 3, 64, 127, 128, 129, 500, 70000, 2000000), index.candidates("tab"));
+        index.remove(128, "Database");
+        index.remove(2000000, "Database");
+        index.remove(1, "Database");
+        // 不存在的id
+        index.remove(2, "Database");
+        index.remove(3000000, "Database");
+        Assert.assertArrayEquals(ids(3, 64, 127, 129, 500, 70000), index.candidates("DATA"));
+        index.add(2, "data");
+        Assert.assertArrayEquals(ids(2, 3, 64, 127, 129, 500, 70000), index.candidates("ata"));
+        Assert.assertArrayEquals(ids(3, 64, 127, 129, 500, 70000), index.candidates("base"));
+        for (int id : order) {
+            index.remove(id, "Database");
+        }
+        index.remove(2, "data");
+        Assert.assertArrayEquals(ids(), index.candidates("ata"));
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void retainAcrossLists() {
+        TrigramIndex index = new TrigramIndex();
+        // "abc"出现在所有偶数id中，"bcd"出现在3的倍数中，"abcd"只在6的倍数中
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; id <= 3000; id++) {
+            ids.add(id);
+        }
+        Collections.shuffle(ids, new Random(7));
+        for (int id : ids) {
+            StringBuilder text = new StringBuilder("x");
+            if (id % 6 == 0) {
+                text.append("abcd");
+            } else if (id % 2 == 0) {
+                text.append("abcx");
+            } else if (id % 3 == 0) {
+                text.append("xbcd");
+            }
+            index.add(id, text.toString());
+        }
+        int[] candidates = index.candidates("abcd");
+        Assert.assertEquals(500, candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            Assert.assertEquals(6 * (i + 1), candidates[i]);
+        }
+    }
+
+    @Test
+    public void unindexedTextsAreAlwaysCandidates() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(5, "café society");
+        index.add(2, "co-op");
+        index.add(9, "society");
+        Assert.assertArrayEquals(ids(2, 5, 9), index.candidates("society"));
+        Assert.assertArrayEquals(ids(2, 5), index.candidates("zzz"));
+        // 不能缩小范围的词
+        Assert.assertNull(index.candidates("so"));
+        Assert.assertNull(index.candidates("soc%"));
+        Assert.assertNull(index.candidates("s_c"));
+        Assert.assertNull(index.candidates("café"));
+    }
+
+    @Test
+    public void candidatesCoverLike() {
+        Random random = new Random(42);
+        TrigramIndex index = new TrigramIndex();
+        Map<Integer, String> texts = new HashMap<>();
+        for (int round = 0; round < 5000; round++) {
+            int id = 1 + random.nextInt(400) * 97;
+            String old = texts.get(id);
+            if (old != null) {
+                // 修改 = 先去掉旧文本再加入新文本
+                index.remove(id, old);
+                texts.remove(id);
+                if (random.nextInt(3) == 0) {
+                    continue;
+                }
+            }
+            String alphabet = random.nextInt(10) == 0 ? ASCII + OTHER : random.nextBoolean() ? ASCII : ASCII + HAN;
+            String text = randomText(random, alphabet, 12);
+            index.add(id, text);
+            texts.put(id, text);
+        }
+        for (int round = 0; round < 2000; round++) {
+            String term = randomText(random, random.nextBoolean() ? ASCII : ASCII + HAN, 6);
+            int[] candidates = index.candidates(term);
+            if (!TrigramIndex.narrows(term)) {
+                Assert.assertNull(term, candidates);
+                continue;
+            }
+            TreeSet<Integer> like = new TreeSet<>();
+            TreeSet<Integer> unindexed = new TreeSet<>();
+            for (Map.Entry<Integer, String> entry : texts.entrySet()) {
+                String text = entry.getValue();
+                if (text.contains("é") || text.contains("-")) {
+                    unindexed.add(entry.getKey());
+                } else if (text.toLowerCase(Locale.ROOT).contains(term.toLowerCase(Locale.ROOT))) {
+                    // LIKE '%term%'，ASCII字母不区分大小写
+                    like.add(entry.getKey());
+                }
+            }
+            TreeSet<Integer> found = new TreeSet<>();
+            for (int i = 0; i < candidates.length; i++) {
+                Assert.assertTrue("ascending", i == 0 || candidates[i - 1] < candidates[i]);
+                found.add(candidates[i]);
+            }
+            Assert.assertTrue(term, found.containsAll(like));
+            Assert.assertTrue(term, found.containsAll(unindexed));
+            if (term.length() == 3) {
+                // 一个三元组的词，候选正好是匹配的行加上不能索引的行
+                like.addAll(unindexed);
+                Assert.assertEquals(term, like, found);
+            }
+        }
+    }
+}
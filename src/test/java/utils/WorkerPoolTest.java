@@ -0,0 +1,106 @@
+package utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class WorkerPoolTest {
+
+    @Test
+    public void rejectedTasksRunOffTheSubmittingThread() throws InterruptedException {
+        WorkerPool pool = new WorkerPool("test-worker", 1, 1, 1, 60);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch started = new CountDownLatch(1);
+            AtomicBoolean firstOverloaded = new AtomicBoolean(true);
+            pool.execute(() -> {
+                firstOverloaded.set(WorkerPool.isOverloaded());
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            // 唯一的工作线程忙，第二个任务进队列
+            CountDownLatch queued = new CountDownLatch(1);
+            AtomicBoolean queuedOverloaded = new AtomicBoolean(true);
+            pool.execute(() -> {
+                queuedOverloaded.set(WorkerPool.isOverloaded());
+                queued.countDown();
+            });
+            // 队列也满了，第三个任务被拒绝，但不在提交它的线程上运行
+            CountDownLatch rejected = new CountDownLatch(1);
+            AtomicReference<Thread> rejectedThread = new AtomicReference<>();
+            AtomicBoolean rejectedOverloaded = new AtomicBoolean();
+            pool.execute(() -> {
+                rejectedThread.set(Thread.currentThread());
+                rejectedOverloaded.set(WorkerPool.isOverloaded());
+                rejected.countDown();
+            });
+            Assert.assertTrue(rejected.await(5, TimeUnit.SECONDS));
+            Assert.assertNotSame(Thread.currentThread(), rejectedThread.get());
+            Assert.assertTrue(rejectedOverloaded.get());
+            Assert.assertFalse(WorkerPool.isOverloaded());
+            Assert.assertEquals(1, pool.getRejections());
+
+            release.countDown();
+            Assert.assertTrue(queued.await(5, TimeUnit.SECONDS));
+            Assert.assertFalse(firstOverloaded.get());
+            Assert.assertFalse(queuedOverloaded.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void dropWhenOverflowQueueIsFull() throws InterruptedException {
+        WorkerPool pool = new WorkerPool("test-worker", 1, 1, 1, 60);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            CountDownLatch started = new CountDownLatch(2);
+            Runnable blockedStart = () -> {
+                started.countDown();
+                blocked.run();
+            };
+            // 工作线程和队列各占一个
+            pool.execute(blockedStart);
+            pool.execute(blocked);
+            // 被拒绝的任务卡住溢出线程（像一个慢慢发送请求体的客户端），下一个占满溢出队列
+            pool.execute(blockedStart);
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            CountDownLatch queuedRejection = new CountDownLatch(1);
+            pool.execute(queuedRejection::countDown);
+            Assert.assertEquals(2, pool.getRejections());
+            Assert.assertEquals(0, pool.getDropped());
+            // 两个队列都满了，提交时就失败，服务器随即关闭连接
+            try {
+                pool.execute(() -> Assert.fail("a dropped task must not run"));
+                Assert.fail("expected the task to be dropped");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            Assert.assertEquals(3, pool.getRejections());
+            Assert.assertEquals(1, pool.getDropped());
+
+            release.countDown();
+            Assert.assertTrue(queuedRejection.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+}